@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth;
+
+/**
+ * An EntityManager that loads entities into a store that is not in use, through Neo4j's batch insertion API rather
+ * than through transactions. Entities are created with the same topology as those of a regular EntityManager, so
+ * the store can be opened with one afterwards, but nothing is durable until {@link #close()} returns. A bulk
+ * EntityManager can only create, read and relate entities; deleting entities, deleting relationships and rolling
+ * back are not supported. Obtain one with
+ * {@link Persistence.EntityManagerFactoryBuilder#buildBulkEntityManager(String)}.
+ * 
+ * @author kchard
+ */
+public interface BulkEntityManager extends EntityManager {
+
+	/**
+	 * Returns the number of entities created so far.
+	 */
+	long getEntitiesCreated();
+	
+	/**
+	 * Returns the number of entities created per second since the first one was.
+	 */
+	double getEntitiesPerSecond();
+	
+	/**
+	 * Writes the loaded entities to the store and releases it. The EntityManager cannot be used afterwards.
+	 */
+	void close();
+}
@@ -18,5 +18,13 @@
 package com.kevinchard.phonebooth;
 
 public enum CollectionAction {
-	READ, ADD, REMOVE
+	
+	/**
+	 * Returns the related entities as a read-only List that loads them as it is read. Modifying the list throws an
+	 * UnsupportedOperationException: relate entities with the ADD, REMOVE and ADD_ALL methods, and copy the list into
+	 * an ArrayList where a modifiable one is needed.
+	 */
+	READ,
+	
+	ADD, REMOVE, COUNT, ADD_ALL
 }
@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator over entities that reads them from the graph as it advances, so that iterating over every entity of a
+ * type only holds the entity being read. A cursor is its own {@link Iterable} so that it can be used in a for-each
+ * loop, which it can be once. Closing a cursor ends the iteration; cursors that are iterated to the end need not be
+ * closed.
+ * 
+ * @author kchard
+ */
+public interface EntityCursor<T> extends Iterator<T>, Iterable<T>, Closeable {
+
+	/**
+	 * Ends the iteration, after which {@link #hasNext()} returns false.
+	 */
+	void close();
+}
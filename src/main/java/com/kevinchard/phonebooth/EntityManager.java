@@ -17,19 +17,145 @@
 
 package com.kevinchard.phonebooth;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.neo4j.graphdb.Transaction;
 
 public interface EntityManager {
 	
+	/**
+	 * Creates an entity of the given class. With {@link PersistenceProperties#ASYNC_WRITES} this blocks until the node
+	 * of the entity is committed by the writer thread.
+	 */
 	<T> T create(Class<T> clazz);
 	
+	/**
+	 * Creates count entities of the given class, committing every {@link PersistenceProperties#BATCH_SIZE} of them.
+	 * With {@link PersistenceProperties#ASYNC_WRITES} this blocks until all of them are committed.
+	 */
+	<T> List<T> createAll(Class<T> clazz, int count);
+	
 	<T> List<T> findAll(Class<T> clazz);
 	
+	/**
+	 * Returns a cursor over the entities of the given class that reads them as it is iterated, instead of loading all
+	 * of them up front like {@link #findAll(Class)}.
+	 */
+	<T> EntityCursor<T> cursor(Class<T> clazz);
+	
+	/**
+	 * Returns the at most size entities of the given class with the lowest ids greater than afterId, in ascending id
+	 * order. Pass null for the first page, and the id of the last entity of a page for the page after it. A page is
+	 * looked up in an index of the ids of the entities of each class and only reads its own size entities, however far
+	 * into the class it starts. Creating an entity does not write the index: a page first adds the entities of its
+	 * class created since the last one, and the first page of a class written by an older version of phonebooth adds
+	 * all of them.
+	 */
+	<T> List<T> findPage(Class<T> clazz, Long afterId, int size);
+	
+	/**
+	 * Returns the entities of the given class whose property with the given name has the given value. The property must
+	 * be written by an {@link Indexed} mutator; the entities are looked up in the index of the class rather than read.
+	 */
+	<T> List<T> findBy(Class<T> clazz, String property, Object value);
+	
+	/**
+	 * Returns the entity of the given class whose property with the given name has the given value, creating it with
+	 * that value if there is none. The property must be written by a {@link Indexed#unique() unique} mutator, so
+	 * concurrent calls with the same value return the same entity.
+	 */
+	<T> T getOrCreate(Class<T> clazz, String property, Object value);
+	
+	/**
+	 * Returns a cursor over the at most limit entities of the given class whose property with the given name is between
+	 * from and to inclusive, in ascending order of the property. Either bound may be null for an open range. The
+	 * property must be written by a {@link Indexed#numeric() numeric} mutator.
+	 */
+	<T> EntityCursor<T> findRange(Class<T> clazz, String property, Number from, Number to, int limit);
+	
+	/**
+	 * Returns a cursor like {@link #findRange(Class, String, Number, Number, int)} whose entities are ordered by the
+	 * numeric property orderBy instead, in descending order if descending is true. Only the limit entities are looked
+	 * up, so the top of a large range costs the same as the top of a small one.
+	 */
+	<T> EntityCursor<T> findRange(Class<T> clazz, String property, Number from, Number to, String orderBy, boolean descending, int limit);
+	
+	/**
+	 * Returns a cursor over the at most limit entities of the given class whose property with the given name best
+	 * matches the given query, best match first. The property must be written by a {@link Indexed#fulltext() full
+	 * text} mutator. The query is in the Lucene query syntax, so <code>smi*</code> matches words that start with smi
+	 * and <code>"john smith"</code> matches the phrase; matching ignores case.
+	 */
+	<T> ScoredCursor<T> search(Class<T> clazz, String property, String query, int limit);
+	
+	/**
+	 * Returns an implementation of the given {@link Repository} interface whose finder methods find entities with this
+	 * EntityManager. The method names are parsed once per interface, and an interface whose methods do not describe
+	 * queries that can use an index or a relationship is rejected with an IllegalArgumentException.
+	 */
+	<R> R getRepository(Class<R> repositoryClass);
+	
+	/**
+	 * Returns an empty {@link EntityTraversal} from the entities of the given class, whose steps are added with
+	 * {@link EntityTraversal#follow(String, Class)}.
+	 */
+	<T> EntityTraversal<T> traverse(Class<T> clazz);
+	
+	/**
+	 * Returns a cursor over the rows of the given Cypher query, run with the given parameters, which may be null.
+	 * Entity objects among the parameters are passed to the query as their nodes, so <code>start e=node({employee})</code>
+	 * starts from an entity. If resultType is Map, each row is a Map from column names to values; otherwise the query
+	 * must return a single column whose values are of resultType. Nodes of entities are returned as entity objects.
+	 * <p>
+	 * The query engine reads every row of the result into memory when the first one is asked for, so a query that may
+	 * match many nodes should limit its rows with <code>limit</code> rather than by reading part of the cursor. Rows
+	 * are turned into entity objects only as the cursor reaches them, and closing the cursor early releases the rows it
+	 * has not read.
+	 * <p>
+	 * Queries are parsed once: pass values as parameters rather than concatenating them into the query, so that every
+	 * run of a query has the same text.
+	 */
+	<T> EntityCursor<T> query(String cypher, Map<String, Object> params, Class<T> resultType);
+	
+	/**
+	 * Reduces the entities of the given class on parallelism threads at once and returns the result. The entities are
+	 * split along the buckets of their type, see {@link PersistenceProperties#TYPE_BUCKETS}; types with fewer buckets
+	 * than threads are split into batches of {@link PersistenceProperties#BATCH_SIZE} entities, which the calling
+	 * thread reads from the graph. The partitions run on a pool of threads shared by the EntityManagers of a factory,
+	 * at most parallelism of them at a time. Every partition is read with its own identity map, so the entities a
+	 * reducer sees are not the instances returned by the other methods of this EntityManager.
+	 */
+	<T, A> A scan(Class<T> clazz, EntityReducer<T, A> reducer, int parallelism);
+	
 	<T> T find(Long id, Class<T> clazz);
 	
+	/**
+	 * Deletes the entity with the given id. With {@link PersistenceProperties#ASYNC_WRITES} this blocks until the
+	 * delete is committed by the writer thread.
+	 */
 	void delete(Long id, Class<?> clazz);
 	
+	/**
+	 * Deletes the entities with the given ids, committing every {@link PersistenceProperties#BATCH_SIZE} of them. If a
+	 * delete fails, the batches before it stay deleted.
+	 */
+	void delete(Collection<Long> ids, Class<?> clazz);
+	
 	Transaction beginTransaction();
+	
+	/**
+	 * Commits the writes collected by this EntityManager when it was created with
+	 * {@link PersistenceProperties#UNIT_OF_WORK}; does nothing otherwise.
+	 */
+	void flush();
+	
+	/**
+	 * Returns a future that completes once the writes made through this EntityManager so far are committed. With
+	 * {@link PersistenceProperties#ASYNC_WRITES} the future fails with the first write that failed since the last
+	 * flush; otherwise this flushes like {@link #flush()} and returns a completed future.
+	 */
+	Future<Void> flushAsync();
 }
\ No newline at end of file
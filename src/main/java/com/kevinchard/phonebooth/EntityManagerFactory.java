@@ -21,4 +21,26 @@ package com.kevinchard.phonebooth;
 public interface EntityManagerFactory {
 	
 	EntityManager createEntityManager();
+	
+	/**
+	 * Rewrites the entity nodes written by earlier versions, which store the class name of their entity, to store the
+	 * numeric tag of their entity type instead. The factory stays usable while the migration runs; nodes are rewritten
+	 * in transactions of at most batchSize nodes. Returns the number of nodes rewritten.
+	 */
+	long migrateTypeTags(int batchSize);
+	
+	/**
+	 * Relinks the entities of every entity class to the number of bucket nodes set by
+	 * {@link PersistenceProperties#TYPE_BUCKETS}, which otherwise only applies to entity classes the factory adds to
+	 * the database. The factory stays usable while the migration runs; entities are relinked in transactions of at
+	 * most batchSize entities, although when the number of buckets shrinks a create that races with the removal of a
+	 * bucket fails. Returns the number of entities relinked.
+	 */
+	long migrateTypeBuckets(int batchSize);
+	
+	/**
+	 * Commits the queued {@link PersistenceProperties#ASYNC_WRITES asynchronous writes} and stops the writer thread and
+	 * the scan threads of the factory. The graph database itself is left running.
+	 */
+	void close();
 }
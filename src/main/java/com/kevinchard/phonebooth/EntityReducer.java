@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth;
+
+/**
+ * Computes a result from the entities of a type for {@link EntityManager#scan(Class, EntityReducer, int)}. The entities
+ * are split into partitions that are scanned by several threads at once; the entities of each partition are
+ * accumulated into an accumulator of its own, and the accumulators of the partitions are then combined into the
+ * result. A reducer that only needs to visit the entities can accumulate into a thread-safe object of its own and
+ * return null. Implementations must be safe to call from several threads, and should only read the entities.
+ * 
+ * @author kchard
+ */
+public interface EntityReducer<T, A> {
+
+	/**
+	 * Returns a new accumulator for a partition, which is also the result of scanning no entities.
+	 */
+	A initial();
+	
+	/**
+	 * Adds an entity to the accumulator of its partition and returns the accumulator.
+	 */
+	A accumulate(A accumulator, T entity);
+	
+	/**
+	 * Combines the accumulators of two partitions into one.
+	 */
+	A combine(A left, A right);
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth;
+
+import org.neo4j.graphdb.Direction;
+
+/**
+ * A path of relationships from the entities of one class to the entities of another, built one step at a time from
+ * the relationship names declared by the relationship annotations of the entity interfaces along the way. A traversal
+ * is immutable; every step returns a new traversal, so a traversal can be built once and run from many entities.
+ * <p>
+ * Running a traversal visits the graph breadth first and reads the entities at the end of the path as the returned
+ * cursor advances. An entity is reached at most once per step, so entities that many paths lead to are only expanded
+ * once, and the entities at the end of the path are returned once each. For example, the coworkers of the coworkers
+ * of an employee who are not already coworkers of theirs:
+ * 
+ * <pre>
+ * EntityTraversal&lt;Employee&gt; coworkersOfCoworkers = em.traverse(Employee.class)
+ *     .follow("WORKS_WITH", Employee.class)
+ *     .follow("WORKS_WITH", Employee.class)
+ *     .excludeVisited();
+ * 
+ * for(Employee employee : coworkersOfCoworkers.from(alice)) {
+ *     ...
+ * }
+ * </pre>
+ * 
+ * @author kchard
+ */
+public interface EntityTraversal<T> {
+
+	/**
+	 * Returns a traversal that continues from the entities at the end of this one along the relationship with the
+	 * given name to entities of the given class. The relationship must be declared in a single direction by the
+	 * entity interface at the end of this traversal.
+	 */
+	<U> EntityTraversal<U> follow(String relationship, Class<U> entityClass);
+	
+	/**
+	 * Returns a traversal like {@link #follow(String, Class)} that follows the relationship in the given direction, for
+	 * relationships declared in both directions by an entity interface, such as its incoming and outgoing side of a
+	 * relationship between entities of the same class.
+	 */
+	<U> EntityTraversal<U> follow(String relationship, Direction direction, Class<U> entityClass);
+	
+	/**
+	 * Returns a traversal whose last step is followed from once up to maxHops times, including the entities reached
+	 * by every number of hops. The last step must lead back to the class it starts from, and the step after it, if any,
+	 * must follow a different relationship.
+	 */
+	EntityTraversal<T> repeat(int maxHops);
+	
+	/**
+	 * Returns a traversal that does not return or expand entities reached at an earlier step, the start entity
+	 * included, so that the coworkers of coworkers exclude the direct coworkers.
+	 */
+	EntityTraversal<T> excludeVisited();
+	
+	/**
+	 * Runs the traversal from the given entity, which must be an entity of the class the traversal starts from. 
+	 */
+	EntityCursor<T> from(Object start);
+}
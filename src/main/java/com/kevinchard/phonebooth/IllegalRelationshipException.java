@@ -21,4 +21,12 @@ public class IllegalRelationshipException extends RuntimeException {
 	
 	private static final long serialVersionUID = -3853318897061020645L;
 
+	public IllegalRelationshipException() {
+		super();
+	}
+	
+	public IllegalRelationshipException(String message) {
+		super(message);
+	}
+
 }
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Property} mutator whose property is kept in an index of the entity class, so that its entities can
+ * be found by the value of the property with {@link EntityManager#findBy(Class, String, Object)} instead of by reading
+ * every entity of the class.
+ * 
+ * @author kchard
+ */
+@Target(java.lang.annotation.ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Indexed {
+
+	/**
+	 * Whether no two entities of the class may have the same value of the property. A write of a value that another
+	 * entity already has throws a {@link UniqueConstraintException}, and entities can be upserted by the value with
+	 * {@link EntityManager#getOrCreate(Class, String, Object)}.
+	 */
+	public abstract boolean unique() default false;
+	
+	/**
+	 * Whether the property is indexed as a number rather than as a string, so that entities can be found by a range of
+	 * its values and ordered by it with {@link EntityManager#findRange}. Numeric properties must be written by mutators
+	 * that take a primitive number or its wrapper; integral numbers are indexed as longs and others as doubles.
+	 */
+	public abstract boolean numeric() default false;
+	
+	/**
+	 * Whether the property is indexed by the words of its text rather than by its whole value, so that entities can be
+	 * searched by words, prefixes and phrases of it with {@link EntityManager#search}. Full text properties must be
+	 * written by mutators that take a String, and cannot also be unique or numeric.
+	 */
+	public abstract boolean fulltext() default false;
+}
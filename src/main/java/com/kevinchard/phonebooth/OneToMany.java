@@ -32,5 +32,10 @@ public @interface OneToMany {
 	public abstract Direction direction();
 	
 	public abstract CollectionAction action();
+	
+	/**
+	 * The number of related entities loaded at a time when the list returned by a READ method is accessed by index.
+	 */
+	public abstract int pageSize() default 100;
 
 }
@@ -18,12 +18,14 @@
 package com.kevinchard.phonebooth;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
 
 public class Persistence {
 
@@ -57,8 +59,12 @@ public class Persistence {
 			return this;
 		}
 		
-		@SuppressWarnings("unchecked")
 		public EntityManagerFactory build() {
+			return build(dbService, properties);
+		}
+		
+		@SuppressWarnings("unchecked")
+		private EntityManagerFactory build(GraphDatabaseService dbService, Map<String, Object> properties) {
 			
 			EntityManagerFactory emf = null;
 			try {
@@ -69,11 +75,35 @@ public class Persistence {
 				constructor.setAccessible(true);
 				emf = (EntityManagerFactory) constructor.newInstance(dbService, entityClasses, properties);
 				
+			} catch (InvocationTargetException e) {
+				if(e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			} 
 			
 			return emf;
 		}
+		
+		/**
+		 * Opens the store in the given directory for batch insertion and returns a {@link BulkEntityManager} that loads
+		 * the entities of this builder into it. The store must not be in use by any other database. This builder is left
+		 * unchanged, so it can still {@link #build()} a regular factory afterwards.
+		 */
+		public BulkEntityManager buildBulkEntityManager(String storeDir) {
+			
+			GraphDatabaseService batchDatabase = BatchInserters.batchDatabase(storeDir);
+			try {
+				Map<String, Object> bulkProperties = new HashMap<String, Object>(properties);
+				bulkProperties.put(PersistenceProperties.BULK_LOAD, true);
+				
+				return (BulkEntityManager) build(batchDatabase, bulkProperties).createEntityManager();
+			} catch (RuntimeException e) {
+				batchDatabase.shutdown();
+				throw e;
+			}
+		}
 	}
 }
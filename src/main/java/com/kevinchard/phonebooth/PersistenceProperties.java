@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth;
+
+/**
+ * The keys and values of the properties understood by the EntityManagerFactory implementations in this framework.
+ * Properties are passed to a factory with {@link Persistence.EntityManagerFactoryBuilder#withProperty(String, Object)}.
+ * 
+ * @author kchard
+ */
+public final class PersistenceProperties {
+
+	/**
+	 * Selects how the entity objects handed to application code are implemented. One of {@link #ENGINE_PROXY}
+	 * (the default) or {@link #ENGINE_GENERATED}.
+	 */
+	public static final String ENGINE = "phonebooth.engine";
+	
+	/**
+	 * Entities are implemented by java.lang.reflect.Proxy instances.
+	 */
+	public static final String ENGINE_PROXY = "proxy";
+	
+	/**
+	 * Entities are implemented by classes generated at runtime for each entity interface. This requires javassist on
+	 * the classpath; entity interfaces that are not public, or all of them if javassist is missing, fall back to
+	 * {@link #ENGINE_PROXY}.
+	 */
+	public static final String ENGINE_GENERATED = "generated";
+	
+	/**
+	 * Relationship writes first check whether the two entities are already related. An entity with up to this many
+	 * relationships of the type is scanned directly; above it, the check scans whichever of the two entities has fewer
+	 * relationships of the type. Defaults to 64.
+	 */
+	public static final String DEGREE_THRESHOLD = "phonebooth.degreeThreshold";
+	
+	/**
+	 * The number of entities written per transaction by the batch operations of an EntityManager, such as
+	 * {@link EntityManager#createAll(Class, int)} and {@link CollectionAction#ADD_ALL} methods. Larger batches commit
+	 * less often but hold more uncommitted state in memory. Defaults to 1000.
+	 */
+	public static final String BATCH_SIZE = "phonebooth.batchSize";
+	
+	/**
+	 * The number of bucket nodes the entities of a type are linked from. Every entity is linked to the graph from a node
+	 * of its type, and creating an entity locks that node until the creating transaction commits; with more than one
+	 * bucket, creates take turns between the buckets so that concurrent creates of a type rarely wait for each other
+	 * and no single node collects every entity of the type. Applies to the entity classes a factory adds to the
+	 * database; existing ones are converted by {@link EntityManagerFactory#migrateTypeBuckets(int)}. Defaults to 1,
+	 * which links entities from the node of their type itself like earlier versions did.
+	 */
+	public static final String TYPE_BUCKETS = "phonebooth.typeBuckets";
+	
+	/**
+	 * If "true", the writes made through the entities of an EntityManager are collected into a single transaction
+	 * that is committed by {@link EntityManager#flush()} or once {@link #FLUSH_THRESHOLD} writes are pending, instead
+	 * of each write being committed on its own. Writes that are not flushed yet are only visible to the thread that
+	 * made them, which is the only thread that may write through the EntityManager until it is flushed. Defaults to
+	 * "false".
+	 */
+	public static final String UNIT_OF_WORK = "phonebooth.unitOfWork";
+	
+	/**
+	 * The number of pending writes at which a unit of work is flushed, or 0 to only flush it explicitly. Defaults to
+	 * 1000.
+	 */
+	public static final String FLUSH_THRESHOLD = "phonebooth.flushThreshold";
+	
+	/**
+	 * If "true", the factory is built over a batch insertion database and creates {@link BulkEntityManager}s. Set by
+	 * {@link Persistence.EntityManagerFactoryBuilder#buildBulkEntityManager(String)}, which is the supported way to
+	 * bulk load. Defaults to "false".
+	 */
+	public static final String BULK_LOAD = "phonebooth.bulkLoad";
+	
+	/**
+	 * If "true", the property and relationship writes made through the mutators of entities are queued and committed
+	 * in the background by a writer thread shared by the EntityManagers of the factory, which groups the writes that
+	 * arrive together into one transaction. Mutator methods return before their write is committed; reads do not see
+	 * queued writes, and transactions begun with {@link EntityManager#beginTransaction()} do not include them.
+	 * {@link EntityManager#flushAsync()} returns a future that completes once the writes queued so far are committed,
+	 * or fails with the first of them that failed.
+	 * <p>
+	 * Only those writes are asynchronous. The create, createAll, getOrCreate and delete methods of an EntityManager go
+	 * through the same queue so that they are ordered with the writes before them, but block until their own write is
+	 * committed, since a created entity needs the id of its node: a loop of creates runs at the speed of one commit per
+	 * entity, and createAll should be used to create many. Cannot be combined with {@link #UNIT_OF_WORK}. Defaults to
+	 * "false".
+	 */
+	public static final String ASYNC_WRITES = "phonebooth.asyncWrites";
+	
+	/**
+	 * The largest number of asynchronous writes committed in one transaction. Defaults to 100.
+	 */
+	public static final String ASYNC_BATCH_SIZE = "phonebooth.asyncBatchSize";
+	
+	/**
+	 * How long, in milliseconds, the writer waits for more asynchronous writes to join a transaction before committing
+	 * it. Longer waits commit larger batches less often, at the cost of the latency of each write. Defaults to 1.
+	 */
+	public static final String ASYNC_LINGER_MILLIS = "phonebooth.asyncLingerMillis";
+	
+	/**
+	 * The number of asynchronous writes that may be queued before writing through an entity blocks until the writer
+	 * has caught up. Defaults to 10000.
+	 */
+	public static final String ASYNC_QUEUE_CAPACITY = "phonebooth.asyncQueueCapacity";
+	
+	private PersistenceProperties() {}
+}
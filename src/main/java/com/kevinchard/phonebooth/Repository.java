@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface of finder methods over the entities of the given entity interface, which phonebooth implements
+ * when it is passed to {@link EntityManager#getRepository(Class)}. Every method must be named findBy followed by one or
+ * more criteria joined by And, each the capitalized name of an accessor or mutator of the entity interface without its
+ * get, set, is, add or remove prefix, and take one argument per criterion. A property criterion matches entities whose
+ * property equals the argument, and a relationship criterion matches entities related to the argument. A criterion
+ * whose accessors map different properties or relationships, like getActive and isActive mapping two keys, is
+ * rejected. A method returns a List of the matching entities, or an entity interface for the first match or null.
+ * <p>
+ * At least one criterion of every method must be an {@link Indexed} property, other than a full text one, or a
+ * relationship, so that the matches are looked up in an index or reached from the argument rather than found by
+ * reading every entity of the class. For example:
+ * 
+ * <pre>
+ * &#064;Repository(Employee.class)
+ * public interface Employees {
+ *     List&lt;Employee&gt; findByNameAndManager(String name, Manager manager);
+ * }
+ * </pre>
+ * 
+ * @author kchard
+ */
+@Target(java.lang.annotation.ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Repository {
+
+	public abstract Class<?> value();
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.neo4j.graphdb.Transaction;
+
+import com.kevinchard.phonebooth.PersistenceProperties;
+import com.kevinchard.phonebooth.tx.TransactionManager;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * Commits the writes submitted from any number of threads on a single writer thread, grouping writes that arrive
+ * together into one Neo4j transaction so that they share the cost of a commit. The writer takes the first write from
+ * the queue, keeps taking writes until it has a full batch or the linger time has passed, and commits them together;
+ * the future of each write completes once its batch has committed. Submitting blocks while the queue is full.
+ * <p>
+ * A write that fails rolls back its whole batch, whose writes are then retried in a transaction each so that only the
+ * failing write fails.
+ * 
+ * @author kchard
+ */
+final class AsyncWriter {
+
+	static final int DEFAULT_BATCH_SIZE = 100;
+	static final int DEFAULT_LINGER_MILLIS = 1;
+	static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	
+	//marks the end of the writes, submitted by close()
+	private static final Write<Void> STOP = new Write<Void>() {
+		@Override
+		Void run() {
+			return null;
+		}
+	};
+	
+	private final TransactionManager txManager;
+	private final int batchSize;
+	private final long lingerNanos;
+	private final Queue<Write<?>> queue = new ConcurrentLinkedQueue<Write<?>>();
+	private final Semaphore capacity;
+	private final Semaphore queued = new Semaphore(0);
+	private final Thread thread;
+	
+	private volatile boolean closed;
+	
+	AsyncWriter(TransactionManager txManager, int batchSize, long lingerMillis, int queueCapacity) {
+		Assert.notNull(txManager, "txManager cannot be null!!!");
+		Assert.state(batchSize > 0, PersistenceProperties.ASYNC_BATCH_SIZE + " must be positive!!!");
+		Assert.state(lingerMillis >= 0, PersistenceProperties.ASYNC_LINGER_MILLIS + " cannot be negative!!!");
+		Assert.state(queueCapacity > 0, PersistenceProperties.ASYNC_QUEUE_CAPACITY + " must be positive!!!");
+		
+		this.txManager = txManager;
+		this.batchSize = batchSize;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		this.capacity = new Semaphore(queueCapacity);
+		
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "phonebooth-writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * Queues a write, blocking while the queue is full. A write submitted after the writer is closed fails.
+	 */
+	<W extends Write<?>> W submit(W write) {
+		Assert.state(!closed, "The writer is closed!!!");
+		
+		try {
+			capacity.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for room in the write queue", e);
+		}
+		
+		queue.offer(write);
+		queued.release();
+		
+		if(closed) {
+			//the write may have been queued behind the end of the writes, in which case nobody will take it
+			rejectRemaining();
+		}
+		
+		return write;
+	}
+	
+	/**
+	 * Commits the writes queued so far and stops the writer thread.
+	 */
+	synchronized void close() {
+		if(closed) {
+			return;
+		}
+		
+		closed = true;
+		queue.offer(STOP);
+		queued.release();
+		
+		rejectRemaining();
+	}
+	
+	private void rejectRemaining() {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		
+		for(Write<?> write = queue.poll(); write != null; write = queue.poll()) {
+			write.fail(new IllegalStateException("The writer was closed before the write was committed"));
+		}
+	}
+	
+	private void drain() {
+		List<Write<?>> batch = new ArrayList<Write<?>>(batchSize);
+		
+		try {
+			boolean stopping = false;
+			while(!stopping) {
+				queued.acquire();
+				Write<?> write = queue.poll();
+				long deadline = System.nanoTime() + lingerNanos;
+				
+				while(write != STOP) {
+					batch.add(write);
+					if(batch.size() == batchSize || !queued.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+						break;
+					}
+					write = queue.poll();
+				}
+				stopping = write == STOP;
+				
+				if(!batch.isEmpty()) {
+					commit(batch);
+					capacity.release(batch.size());
+					batch.clear();
+				}
+			}
+		} catch (InterruptedException e) {
+			//only close() stops the writer
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void commit(List<Write<?>> batch) {
+		if(!commitAll(batch)) {
+			for(Write<?> write : batch) {
+				commitAll(Collections.<Write<?>>singletonList(write));
+			}
+		}
+	}
+	
+	/**
+	 * Commits the writes in one transaction and completes them, or returns false if the transaction failed and there
+	 * was more than one write in it.
+	 */
+	private boolean commitAll(List<Write<?>> writes) {
+		Object[] results = new Object[writes.size()];
+		Throwable failure = null;
+		
+		Transaction tx = txManager.beginTx();
+		try {
+			for(int i = 0; i < results.length; i++) {
+				results[i] = writes.get(i).run();
+			}
+			tx.success();
+		} catch (Throwable t) {
+			tx.failure();
+			failure = t;
+		} finally {
+			try {
+				tx.finish();
+			} catch (RuntimeException e) {
+				if(failure == null) {
+					failure = e;
+				}
+			}
+		}
+		
+		if(failure == null) {
+			for(int i = 0; i < results.length; i++) {
+				writes.get(i).succeed(results[i]);
+			}
+			return true;
+		} else if(writes.size() == 1) {
+			writes.get(0).fail(failure);
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns a future of a write that has already been made.
+	 */
+	static <T> Future<T> completed(final T result) {
+		Write<T> write = new Write<T>() {
+			@Override
+			T run() {
+				return result;
+			}
+		};
+		write.succeed(result);
+		return write;
+	}
+	
+	/**
+	 * A write made on the writer thread, and the future of its result.
+	 */
+	abstract static class Write<T> implements Future<T> {
+		
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Object result;
+		private volatile Throwable failure;
+		
+		/**
+		 * Makes the write, within the transaction of its batch.
+		 */
+		abstract T run();
+		
+		/**
+		 * Completes the write once its batch has committed; result is what {@link #run()} returned.
+		 */
+		void succeed(Object result) {
+			this.result = result;
+			done.countDown();
+		}
+		
+		/**
+		 * Completes the write once it is known to have failed.
+		 */
+		void fail(Throwable failure) {
+			this.failure = failure;
+			done.countDown();
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+		
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+		
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+		
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			done.await();
+			return report();
+		}
+		
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if(!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return report();
+		}
+		
+		@SuppressWarnings("unchecked")
+		private T report() throws ExecutionException {
+			if(failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return (T) result;
+		}
+	}
+}
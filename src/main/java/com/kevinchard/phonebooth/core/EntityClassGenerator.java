@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.Modifier;
+
+import com.kevinchard.phonebooth.Action;
+
+/**
+ * Generates a concrete subclass of {@link GeneratedEntity} implementing an entity interface, and a
+ * {@link GeneratedEntity.Factory} creating its instances. Property accessors and the id accessor call straight into
+ * {@link GeneratedEntity} with their key as a constant, unboxing primitives themselves; relationship methods, and
+ * property mutators when writes are queued, are delegated to the method's {@link EntityMethod}. This is the only
+ * class that depends on javassist, which is an optional dependency.
+ * 
+ * @author kchard
+ */
+final class EntityClassGenerator {
+
+	static final String SUFFIX = "$$Phonebooth";
+	
+	private static final String FACTORY_SUFFIX = "$Factory";
+	
+	/**
+	 * Generates the implementation of entityInterface and returns the factory of its instances. The i-th element of
+	 * methods is the interface method whose {@link EntityMethod} the generated class will find at index i.
+	 */
+	GeneratedEntity.Factory generate(Class<?> entityInterface, Method[] methods, EntityMetamodel metamodel) throws Exception {
+		
+		ClassPool pool = new ClassPool(false);
+		pool.appendClassPath(new ClassClassPath(GeneratedEntity.class));
+		pool.appendClassPath(new LoaderClassPath(entityInterface.getClassLoader()));
+		pool.appendSystemPath();
+		
+		String className = entityInterface.getName() + SUFFIX;
+		CtClass implementation = pool.makeClass(className, pool.get(GeneratedEntity.class.getName()));
+		implementation.addInterface(pool.get(entityInterface.getName()));
+		
+		CtClass object = pool.get(Object.class.getName());
+		CtConstructor constructor = CtNewConstructor.make(new CtClass[] { object, object, object }, new CtClass[0], "super($1, $2, $3);", implementation);
+		implementation.addConstructor(constructor);
+		
+		for(int i = 0; i < methods.length; i++) {
+			Method method = methods[i];
+			
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			CtClass[] parameters = new CtClass[parameterTypes.length];
+			for(int j = 0; j < parameterTypes.length; j++) {
+				parameters[j] = toCtClass(pool, parameterTypes[j]);
+			}
+			
+			CtMethod ctMethod = new CtMethod(toCtClass(pool, method.getReturnType()), method.getName(), parameters, implementation);
+			ctMethod.setModifiers(Modifier.PUBLIC);
+			ctMethod.setBody(body(i, method, metamodel.getMethod(method)));
+			implementation.addMethod(ctMethod);
+		}
+		
+		CtClass factory = pool.makeClass(className + FACTORY_SUFFIX);
+		factory.addInterface(pool.get(GeneratedEntity.Factory.class.getName()));
+		factory.addConstructor(CtNewConstructor.defaultConstructor(factory));
+		factory.addMethod(CtNewMethod.make("public " + GeneratedEntity.class.getName() + " newInstance(Object entity, Object instantiator, Object methods) {" + 
+										   " return new " + className + "($1, $2, $3); }", factory));
+		
+		byte[] bytecode = implementation.toBytecode();
+		byte[] factoryBytecode = factory.toBytecode();
+		implementation.detach();
+		factory.detach();
+		
+		GeneratedClassLoader loader = new GeneratedClassLoader(entityInterface.getClassLoader());
+		loader.define(className, bytecode);
+		
+		return (GeneratedEntity.Factory) loader.define(className + FACTORY_SUFFIX, factoryBytecode).getConstructor().newInstance();
+	}
+	
+	private String body(int index, Method method, EntityMethod entityMethod) {
+		
+		boolean isVoid = method.getReturnType() == void.class;
+		int arity = method.getParameterTypes().length;
+		
+		if(entityMethod instanceof IdMethod && arity == 0 && !isVoid) {
+			return "{ return ($r) id(); }";
+		}
+		
+		if(entityMethod instanceof PropertyMethod) {
+			PropertyMethod propertyMethod = (PropertyMethod) entityMethod;
+			String key = literal(propertyMethod.getKey());
+			if(propertyMethod.getAction() == Action.READ && arity == 0 && !isVoid) {
+				return "{ return " + unbox(method.getReturnType(), "getProperty(" + key + ")") + "; }";
+			}
+			if(propertyMethod.getAction() == Action.WRITE && arity == 1 && isVoid) {
+				return "{ if(isQueued()) { invoke(" + index + ", $args); } else { setProperty(" + key + ", ($w) $1); } }";
+			}
+		}
+		
+		//Anything else goes through the EntityMethod, which also reports misuse exactly like the proxy does
+		String args = arity == 0 ? "(Object[]) null" : "$args";
+		String invocation = "invoke(" + index + ", " + args + ")";
+		
+		return isVoid ? "{ " + invocation + "; }" : "{ return ($r) " + invocation + "; }";
+	}
+	
+	//Casts the given Object expression to the given return type, unboxing it with the wrapper's accessor if primitive
+	private String unbox(Class<?> type, String expression) {
+		
+		if(!type.isPrimitive()) {
+			return "(" + sourceName(type) + ") " + expression;
+		}
+		
+		String wrapper;
+		if(type == boolean.class) {
+			wrapper = Boolean.class.getName();
+		} else if(type == char.class) {
+			wrapper = Character.class.getName();
+		} else if(type == byte.class) {
+			wrapper = Byte.class.getName();
+		} else if(type == short.class) {
+			wrapper = Short.class.getName();
+		} else if(type == int.class) {
+			wrapper = Integer.class.getName();
+		} else if(type == long.class) {
+			wrapper = Long.class.getName();
+		} else if(type == float.class) {
+			wrapper = Float.class.getName();
+		} else {
+			wrapper = Double.class.getName();
+		}
+		
+		return "((" + wrapper + ") " + expression + ")." + type.getName() + "Value()";
+	}
+	
+	private String sourceName(Class<?> type) {
+		return type.isArray() ? sourceName(type.getComponentType()) + "[]" : type.getName();
+	}
+	
+	//Quotes the given string as a source literal. Javassist has no unicode escapes, and reads any character but a line
+	//break as itself.
+	private String literal(String value) {
+		
+		StringBuilder literal = new StringBuilder("\"");
+		for(char c : value.toCharArray()) {
+			if(c == '\n') {
+				literal.append("\\n");
+			} else if(c == '\r') {
+				literal.append("\\r");
+			} else if(c == '"' || c == '\\') {
+				literal.append('\\').append(c);
+			} else {
+				literal.append(c);
+			}
+		}
+		
+		return literal.append('"').toString();
+	}
+	
+	private CtClass toCtClass(ClassPool pool, Class<?> type) throws Exception {
+		if(type.isArray()) {
+			return pool.get(type.getComponentType().getName() + "[]");
+		}
+		
+		return pool.get(type.getName());
+	}
+	
+	private static final class GeneratedClassLoader extends ClassLoader {
+		
+		GeneratedClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+		
+		Class<?> define(String className, byte[] bytecode) {
+			return defineClass(className, bytecode, 0, bytecode.length);
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.lucene.ValueContext;
+
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.IllegalRelationshipException;
+import com.kevinchard.phonebooth.metamodel.MethodDescriptor;
+import com.kevinchard.phonebooth.metamodel.StaticMetamodel;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * The mapping of an entity interface's methods to their pre-resolved {@link EntityMethod}s. A metamodel is built once
+ * per entity interface, normally when the {@link NeoEntityManagerFactory} is initialized, and shared by every entity
+ * of that interface afterwards. It is built from the {@link StaticMetamodel} generated at build time when there is one,
+ * and from the annotations of the interface otherwise.
+ * 
+ * @author kchard
+ */
+final class EntityMetamodel {
+
+	private static final String INDEX_SUFFIX = "_INDEX";
+	private static final String FULLTEXT_INDEX_SUFFIX = "_FULLTEXT";
+	private static final Map<String, String> FULLTEXT_CONFIG = MapUtil.stringMap(IndexManager.PROVIDER, "lucene", "type", "fulltext");
+	
+	private static final ConcurrentMap<Class<?>, EntityMetamodel> metamodels = new ConcurrentHashMap<Class<?>, EntityMetamodel>();
+	
+	private final Class<?> entityClass;
+	private final Map<Method, EntityMethod> methods;
+	private final Map<Class<? extends RelationshipMethod>, Map<String, RelationshipMethod>> relationships;
+	private final boolean staticMetamodel;
+	private final Set<String> indexedKeys;
+	private final Set<String> uniqueKeys;
+	private final Map<String, Class<? extends Number>> numericTypes;
+	private final Set<String> fulltextKeys;
+	private final String indexName;
+	private final String fulltextIndexName;
+	
+	private EntityMetamodel(Class<?> entityClass) {
+		this.entityClass = entityClass;
+		
+		StaticMetamodel staticMetamodel = loadStaticMetamodel(entityClass);
+		
+		Map<Method, EntityMethod> methods = new HashMap<Method, EntityMethod>();
+		if(staticMetamodel != null) {
+			for(MethodDescriptor descriptor : staticMetamodel.getMethods()) {
+				Method method = getMethod(entityClass, descriptor);
+				methods.put(method, EntityMethod.create(method, descriptor));
+			}
+		} else {
+			for(Method method : entityClass.getMethods()) {
+				EntityMethod entityMethod = EntityMethod.create(method);
+				if(entityMethod != null) {
+					methods.put(method, entityMethod);
+				}
+			}
+		}
+		
+		Map<Class<? extends RelationshipMethod>, Map<String, RelationshipMethod>> relationships = new HashMap<Class<? extends RelationshipMethod>, Map<String, RelationshipMethod>>();
+		for(Method method : entityClass.getMethods()) {
+			EntityMethod entityMethod = methods.get(method);
+			if(entityMethod instanceof RelationshipMethod) {
+				RelationshipMethod relationship = (RelationshipMethod) entityMethod;
+				
+				Map<String, RelationshipMethod> named = relationships.get(relationship.getClass());
+				if(named == null) {
+					named = new HashMap<String, RelationshipMethod>();
+					relationships.put(relationship.getClass(), named);
+				}
+				
+				if(!named.containsKey(relationship.getName())) {
+					named.put(relationship.getName(), relationship);
+				}
+			}
+		}
+		
+		Set<String> indexedKeys = new HashSet<String>();
+		Set<String> uniqueKeys = new HashSet<String>();
+		Map<String, Class<? extends Number>> numericTypes = new HashMap<String, Class<? extends Number>>();
+		Set<String> fulltextKeys = new HashSet<String>();
+		for(EntityMethod entityMethod : methods.values()) {
+			if(entityMethod instanceof PropertyMethod && ((PropertyMethod) entityMethod).isFulltext()) {
+				fulltextKeys.add(((PropertyMethod) entityMethod).getKey());
+			} else if(entityMethod instanceof PropertyMethod && ((PropertyMethod) entityMethod).isIndexed()) {
+				PropertyMethod property = (PropertyMethod) entityMethod;
+				indexedKeys.add(property.getKey());
+				if(property.isUnique()) {
+					uniqueKeys.add(property.getKey());
+				}
+				if(property.getNumericType() != null) {
+					numericTypes.put(property.getKey(), property.getNumericType());
+				}
+			}
+		}
+		
+		Entity annotation = entityClass.getAnnotation(Entity.class);
+		
+		this.methods = Collections.unmodifiableMap(methods);
+		this.relationships = relationships;
+		this.staticMetamodel = staticMetamodel != null;
+		this.indexedKeys = indexedKeys;
+		this.uniqueKeys = uniqueKeys;
+		this.numericTypes = numericTypes;
+		this.fulltextKeys = fulltextKeys;
+		this.indexName = indexedKeys.isEmpty() || annotation == null ? null : annotation.value() + INDEX_SUFFIX;
+		this.fulltextIndexName = fulltextKeys.isEmpty() || annotation == null ? null : annotation.value() + FULLTEXT_INDEX_SUFFIX;
+	}
+	
+	Class<?> getEntityClass() {
+		return entityClass;
+	}
+	
+	/**
+	 * Returns true if this metamodel was built from a {@link StaticMetamodel} generated at build time rather than from
+	 * the annotations of the entity interface.
+	 */
+	boolean isStatic() {
+		return staticMetamodel;
+	}
+	
+	EntityMethod getMethod(Method method) {
+		return methods.get(method);
+	}
+	
+	Collection<EntityMethod> getMethods() {
+		return methods.values();
+	}
+	
+	/**
+	 * Returns true if the property with the given key is written by an {@link com.kevinchard.phonebooth.Indexed}
+	 * mutator other than a full text one, and so kept in the node index named by {@link #getIndexName()}.
+	 */
+	boolean isIndexed(String key) {
+		return indexedKeys.contains(key);
+	}
+	
+	/**
+	 * Returns true if the property with the given key is indexed by the words of its text, and so kept in the full
+	 * text node index named by {@link #getFulltextIndexName()}.
+	 */
+	boolean isFulltext(String key) {
+		return fulltextKeys.contains(key);
+	}
+	
+	/**
+	 * Returns true if the property with the given key is indexed and no two entities of the class may share a value
+	 * of it.
+	 */
+	boolean isUnique(String key) {
+		return uniqueKeys.contains(key);
+	}
+	
+	/**
+	 * Returns the type the indexed property with the given key is indexed as if it is indexed as a number, either Long
+	 * or Double, or null otherwise.
+	 */
+	Class<? extends Number> getNumericType(String key) {
+		return numericTypes.get(key);
+	}
+	
+	/**
+	 * Converts a value of the indexed property with the given key to the value it is indexed as.
+	 */
+	Object getIndexValue(String key, Object value) {
+		Class<? extends Number> numericType = numericTypes.get(key);
+		if(numericType == null) {
+			return value;
+		} else if(!(value instanceof Number)) {
+			throw new IllegalArgumentException("'" + key + "' is a numeric property of " + entityClass.getName() + " and cannot have the value " + value);
+		}
+		
+		return ValueContext.numeric(toNumber(numericType, (Number) value));
+	}
+	
+	/**
+	 * Converts the lower or upper inclusive bound of a range of the numeric property with the given key to the type of
+	 * the property, returning null for null. Fractional bounds of integral properties are rounded into the range.
+	 */
+	Number getIndexBound(String key, Number value, boolean lower) {
+		Class<? extends Number> numericType = numericTypes.get(key);
+		if(value == null) {
+			return null;
+		} else if(numericType == Long.class && (value instanceof Double || value instanceof Float)) {
+			return Long.valueOf((long) (lower ? Math.ceil(value.doubleValue()) : Math.floor(value.doubleValue())));
+		}
+		
+		return toNumber(numericType, value);
+	}
+	
+	private static Number toNumber(Class<? extends Number> numericType, Number value) {
+		if(numericType == Double.class) {
+			return Double.valueOf(value.doubleValue());
+		}
+		
+		return Long.valueOf(value.longValue());
+	}
+	
+	/**
+	 * The name of the node index of the entity class, or null if none of its properties are indexed by value.
+	 */
+	String getIndexName() {
+		return indexName;
+	}
+	
+	/**
+	 * The name of the full text node index of the entity class, or null if none of its properties are full text.
+	 */
+	String getFulltextIndexName() {
+		return fulltextIndexName;
+	}
+	
+	/**
+	 * Returns true if any of the properties of the entity class are indexed.
+	 */
+	boolean hasIndexes() {
+		return indexName != null || fulltextIndexName != null;
+	}
+	
+	Index<Node> getIndex(GraphDatabaseService dbService) {
+		return dbService.index().forNodes(indexName);
+	}
+	
+	Index<Node> getFulltextIndex(GraphDatabaseService dbService) {
+		return dbService.index().forNodes(fulltextIndexName, FULLTEXT_CONFIG);
+	}
+	
+	/**
+	 * Returns the first relationship method of the given kind mapped with the given name, or null if there is none.
+	 */
+	RelationshipMethod getRelationship(Class<? extends RelationshipMethod> kind, String name) {
+		Map<String, RelationshipMethod> named = relationships.get(kind);
+		return named == null ? null : named.get(name);
+	}
+	
+	/**
+	 * Resolves the opposite side of every relationship mutator, throwing an {@link IllegalRelationshipException} for
+	 * the first one that is missing or declared with an incompatible direction.
+	 */
+	void validate() {
+		for(EntityMethod method : methods.values()) {
+			if(method instanceof RelationshipMethod) {
+				((RelationshipMethod) method).validate();
+			}
+		}
+	}
+	
+	private static StaticMetamodel loadStaticMetamodel(Class<?> entityClass) {
+		try {
+			Class<?> metamodelClass = Class.forName(entityClass.getName() + StaticMetamodel.SUFFIX, true, entityClass.getClassLoader());
+			if(!StaticMetamodel.class.isAssignableFrom(metamodelClass)) {
+				return null;
+			}
+			
+			StaticMetamodel metamodel = (StaticMetamodel) metamodelClass.getDeclaredConstructor().newInstance();
+			return metamodel.getEntityClass() == entityClass ? metamodel : null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Could not load the generated metamodel of " + entityClass.getName(), e.getCause());
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not load the generated metamodel of " + entityClass.getName(), e);
+		}
+	}
+	
+	private static Method getMethod(Class<?> entityClass, MethodDescriptor descriptor) {
+		try {
+			return entityClass.getMethod(descriptor.getMethodName(), descriptor.getParameterTypes());
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("The generated metamodel of " + entityClass.getName() + " is out of date, recompile it", e);
+		}
+	}
+	
+	static EntityMetamodel of(Class<?> entityClass) {
+		Assert.notNull(entityClass, "entityClass cannot be null!!!");
+		
+		EntityMetamodel metamodel = metamodels.get(entityClass);
+		if(metamodel == null) {
+			EntityMetamodel created = new EntityMetamodel(entityClass);
+			metamodel = metamodels.putIfAbsent(entityClass, created);
+			if(metamodel == null) {
+				metamodel = created;
+			}
+		}
+		
+		return metamodel;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.Indexed;
+import com.kevinchard.phonebooth.ManyToMany;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.OneToOne;
+import com.kevinchard.phonebooth.Property;
+import com.kevinchard.phonebooth.metamodel.MethodDescriptor;
+import com.kevinchard.phonebooth.metamodel.StaticMetamodel;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * The pre-resolved behavior of a single annotated entity interface method. Instances are created once per method when
+ * the {@link EntityMetamodel} of an entity interface is built, so that invoking an entity method never has to inspect
+ * annotations again.
+ * 
+ * @author kchard
+ */
+abstract class EntityMethod {
+
+	private final Method method;
+	
+	EntityMethod(Method method) {
+		this.method = method;
+	}
+	
+	Method getMethod() {
+		return method;
+	}
+	
+	abstract Object invoke(EntityInstantiator instantiator, EntityNode entity, Object[] args);
+	
+	/**
+	 * Whether invoking the method writes to the graph.
+	 */
+	boolean isWrite() {
+		return false;
+	}
+	
+	/**
+	 * Invokes the method on behalf of an entity object, queueing the invocation instead if it is a write to an entity
+	 * that is written asynchronously.
+	 */
+	final Object dispatch(EntityInstantiator instantiator, EntityNode entity, Object[] args) {
+		WriteQueue writeQueue = entity.getWriteQueue();
+		if(writeQueue != null && isWrite()) {
+			writeQueue.submit(this, instantiator, entity, args);
+			return null;
+		}
+		
+		return invoke(instantiator, entity, args);
+	}
+	
+	/**
+	 * Resolves the annotation of the given method into an {@link EntityMethod}, or returns null if the method is not
+	 * annotated with one of the phonebooth annotations.
+	 */
+	static EntityMethod create(Method method) {
+		
+		if(method.isAnnotationPresent(Id.class)) {
+			return new IdMethod(method);
+		}
+		
+		Property property = method.getAnnotation(Property.class);
+		if(property != null) {
+			Indexed indexed = method.getAnnotation(Indexed.class);
+			if(indexed == null) {
+				return new PropertyMethod(method, property.name(), property.action());
+			}
+			return new PropertyMethod(method, property.name(), property.action(), true, indexed.unique(), indexed.numeric(), indexed.fulltext());
+		}
+		
+		OneToOne oneToOne = method.getAnnotation(OneToOne.class);
+		if(oneToOne != null) {
+			return new OneToOneMethod(method, oneToOne.name(), oneToOne.direction(), oneToOne.action());
+		}
+		
+		OneToMany oneToMany = method.getAnnotation(OneToMany.class);
+		if(oneToMany != null) {
+			return new OneToManyMethod(method, oneToMany.name(), oneToMany.direction(), oneToMany.action(), oneToMany.pageSize());
+		}
+		
+		ManyToOne manyToOne = method.getAnnotation(ManyToOne.class);
+		if(manyToOne != null) {
+			return new ManyToOneMethod(method, manyToOne.name(), manyToOne.direction(), manyToOne.action());
+		}
+		
+		ManyToMany manyToMany = method.getAnnotation(ManyToMany.class);
+		if(manyToMany != null) {
+			return new ManyToManyMethod(method, manyToMany.name(), manyToMany.direction(), manyToMany.action(), manyToMany.pageSize());
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Creates the {@link EntityMethod} described by a descriptor of a generated {@link StaticMetamodel}.
+	 */
+	static EntityMethod create(Method method, MethodDescriptor descriptor) {
+		
+		switch(descriptor.getKind()) {
+			case ID:
+				return new IdMethod(method);
+			case PROPERTY:
+				return new PropertyMethod(method, descriptor.getName(), (Action) descriptor.getAction(), descriptor.isIndexed(), descriptor.isUnique(), descriptor.isNumeric(), descriptor.isFulltext());
+			case ONE_TO_ONE:
+				return new OneToOneMethod(method, descriptor.getName(), descriptor.getDirection(), (Action) descriptor.getAction());
+			case ONE_TO_MANY:
+				return new OneToManyMethod(method, descriptor.getName(), descriptor.getDirection(), (CollectionAction) descriptor.getAction(), descriptor.getPageSize());
+			case MANY_TO_ONE:
+				return new ManyToOneMethod(method, descriptor.getName(), descriptor.getDirection(), (Action) descriptor.getAction());
+			case MANY_TO_MANY:
+				return new ManyToManyMethod(method, descriptor.getName(), descriptor.getDirection(), (CollectionAction) descriptor.getAction(), descriptor.getPageSize());
+			default:
+				throw new InternalError("Unexpected Kind: " + descriptor.getKind());
+		}
+	}
+	
+	static void checkReadArgs(Object[] args) {
+		Assert.isNull(args, "Accessor methods mush take zero arguments!!!");
+	}
+	
+	static void checkWriteArgs(Object[] args) {
+		String message = "Mutator methods must have one arguments!!!";
+		Assert.notNull(args, message);
+		Assert.state(args.length == 1, message);
+	}
+}
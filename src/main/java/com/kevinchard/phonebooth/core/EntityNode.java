@@ -22,30 +22,94 @@ import java.util.List;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
 
+import com.kevinchard.phonebooth.UniqueConstraintException;
 import com.kevinchard.phonebooth.util.Assert;
 
 final class EntityNode {
 
-	public static final String CLASS_PROPERTY_KEY = EntityNode.class.getName() + "_CLASS";
+	public static final String RESERVED_KEY_PREFIX = EntityNode.class.getName() + "_";
+	//Holds the integer tag of the entity class, or its name for classes without one
+	public static final String CLASS_PROPERTY_KEY = RESERVED_KEY_PREFIX + "CLASS";
+	
+	private static final String DEGREE_KEY_PREFIX = RESERVED_KEY_PREFIX + "DEGREE_";
+	private static final String OUT = "OUT_";
+	private static final String IN = "IN_";
+	private static final String LOOP = "LOOP_";
 	
 	private final Node node;
+	private final Class<?> entityClass;
+	private final TopologyContext context;
+	private final UnitOfWork unitOfWork;
+	private final WriteQueue writeQueue;
 	
 	EntityNode(Node node, Class<?> entityClass) {
+		this(node, entityClass, TopologyContext.DEFAULTS);
+	}
+	
+	EntityNode(Node node, Class<?> entityClass, TopologyContext context) {
 		
 		Assert.notNull(node, "node is required to construct an EntityNode!!!");
-		Assert.notNull(EntityNode.getEntityClass(node), "entityClass is required to construct an EntityNode!!!");
-		Assert.state(EntityNode.getEntityClass(node).equals(entityClass), "node must have an an entityClass property that matches entityClass!!!");
+		Class<?> storedClass = EntityNode.getEntityClass(node, context.getTypeRegistry());
+		Assert.notNull(storedClass, "entityClass is required to construct an EntityNode!!!");
+		Assert.state(storedClass.equals(entityClass), "node must have an an entityClass property that matches entityClass!!!");
 		
 		this.node = node;
+		this.entityClass = storedClass;
+		this.context = context;
+		this.unitOfWork = null;
+		this.writeQueue = null;
+	}
+	
+	private EntityNode(TopologyContext context, Node node, Class<?> entityClass, UnitOfWork unitOfWork, WriteQueue writeQueue) {
+		this.node = node;
+		this.entityClass = entityClass;
+		this.context = context;
+		this.unitOfWork = unitOfWork;
+		this.writeQueue = writeQueue;
+	}
+	
+	/**
+	 * Creates an EntityNode without reading the entity class back from the node, for callers that have just written
+	 * it or that know it from the way they reached the node.
+	 */
+	static EntityNode trusted(Node node, Class<?> entityClass, TopologyContext context) {
+		return new EntityNode(context, node, entityClass, null, null);
+	}
+	
+	/**
+	 * Returns an EntityNode for the same node whose writes, and those of the entities reached from it, are made in the
+	 * given unit of work rather than in a transaction of their own.
+	 */
+	EntityNode withUnitOfWork(UnitOfWork unitOfWork) {
+		return new EntityNode(context, node, entityClass, unitOfWork, writeQueue);
+	}
+	
+	/**
+	 * Returns an EntityNode for the same node whose mutator methods, and those of the entities reached from it, are
+	 * queued to the given write queue rather than invoked by the caller.
+	 */
+	EntityNode withWriteQueue(WriteQueue writeQueue) {
+		return new EntityNode(context, node, entityClass, unitOfWork, writeQueue);
+	}
+	
+	/**
+	 * The queue of the asynchronous writes to this entity, or null if it is written synchronously.
+	 */
+	WriteQueue getWriteQueue() {
+		return writeQueue;
 	}
 	
 	Class<?> getEntityClass() {
-		return EntityNode.getEntityClass(node);
+		return entityClass;
+	}
+	
+	TopologyContext getContext() {
+		return context;
 	}
 	
 	Node getNode() {
@@ -57,17 +121,33 @@ final class EntityNode {
 	}
 	
 	Object getPropertyOrNull(String key) {
-		return node.hasProperty(key) ? node.getProperty(key) : null;
+		return node.getProperty(key, null);
 	}
 	
 	void setProperty(String key, Object value) {
 		
-		if(CLASS_PROPERTY_KEY.equals(key)) {
+		if(key.startsWith(RESERVED_KEY_PREFIX)) {
 			throw new IllegalArgumentException("'" + key + "' is a reserved key");
 		}
 		
-		Transaction tx = node.getGraphDatabase().beginTx();
+		EntityMetamodel metamodel = EntityMetamodel.of(entityClass);
+		if(metamodel.isIndexed(key) || metamodel.isFulltext(key)) {
+			Assert.notNull(value, "Indexed properties cannot be set to null!!!");
+		}
+		
+		Transaction tx = beginTx();
 		try {
+			if(metamodel.isUnique(key)) {
+				putUnique(metamodel, key, value);
+			} else if(metamodel.isIndexed(key)) {
+				Index<Node> index = metamodel.getIndex(node.getGraphDatabase());
+				index.remove(node, key);
+				index.add(node, key, metamodel.getIndexValue(key, value));
+			} else if(metamodel.isFulltext(key)) {
+				Index<Node> index = metamodel.getFulltextIndex(node.getGraphDatabase());
+				index.remove(node, key);
+				index.add(node, key, value);
+			}
 			node.setProperty(key, value);
 			tx.success();
 		} finally {
@@ -75,6 +155,35 @@ final class EntityNode {
 		}
 	}
 	
+	/**
+	 * Claims the value of a unique property for this node before it is written. The claim locks the value until the
+	 * transaction finishes, so of two transactions writing the same value to different nodes only one succeeds.
+	 */
+	private void putUnique(EntityMetamodel metamodel, String key, Object value) {
+		
+		Object oldValue = node.getProperty(key, null);
+		if(value.equals(oldValue)) {
+			return;
+		}
+		
+		Index<Node> index = metamodel.getIndex(node.getGraphDatabase());
+		Node owner = index.putIfAbsent(node, key, metamodel.getIndexValue(key, value));
+		if(owner != null && !owner.equals(node)) {
+			throw new UniqueConstraintException("'" + key + "' is already " + value + " for " + entityClass.getName() + " " + owner.getId());
+		}
+		
+		if(oldValue != null) {
+			index.remove(node, key, metamodel.getIndexValue(key, oldValue));
+		}
+	}
+	
+	/**
+	 * Begins the transaction of a write to this node, which joins the unit of work of this EntityNode if it has one.
+	 */
+	Transaction beginTx() {
+		return unitOfWork == null ? node.getGraphDatabase().beginTx() : unitOfWork.beginTx();
+	}
+	
 	EntityNode getRelatedEntity(RelationshipType relationshipType, Direction direction) {
 		
 		Relationship relationship = node.getSingleRelationship(relationshipType, direction);
@@ -84,9 +193,10 @@ final class EntityNode {
 		}
 		
 		Node relatedNode = determineRelatedNode(relationship, direction);
-		Class<?> entityClass = EntityNode.getEntityClass(relatedNode);
+		Class<?> entityClass = EntityNode.getEntityClass(relatedNode, context.getTypeRegistry());
+		Assert.notNull(entityClass, "entityClass is required to construct an EntityNode!!!");
 		
-		return new EntityNode(relatedNode, entityClass);
+		return new EntityNode(context, relatedNode, entityClass, unitOfWork, writeQueue);
 	}
 	
 	List<EntityNode> getRelatedEntities(RelationshipType relationshipType, Direction direction) {
@@ -100,19 +210,49 @@ final class EntityNode {
 		List<EntityNode> relatedEntities = new ArrayList<EntityNode>();
 		
 		for(Relationship relationship : rels) {
-			Node relatedNode = determineRelatedNode(relationship, direction);
-			Class<?> entityClass = EntityNode.getEntityClass(relatedNode);
-			relatedEntities.add(new EntityNode(relatedNode, entityClass));
+			relatedEntities.add(getRelatedEntity(relationship, direction));
 		}
 		
 		return relatedEntities;
 	}
 	
+	Iterable<Relationship> getRelationships(RelationshipType relationshipType, Direction direction) {
+		return node.getRelationships(relationshipType, direction);
+	}
+	
+	EntityNode getRelatedEntity(Relationship relationship, Direction direction) {
+		
+		Node relatedNode = determineRelatedNode(relationship, direction);
+		Class<?> entityClass = EntityNode.getEntityClass(relatedNode, context.getTypeRegistry());
+		Assert.notNull(entityClass, "entityClass is required to construct an EntityNode!!!");
+		
+		return new EntityNode(context, relatedNode, entityClass, unitOfWork, writeQueue);
+	}
+	
+	/**
+	 * Returns true if there is a relationship of the given type and direction from this node to the other. Nodes with
+	 * more relationships of the type than the degree threshold are not scanned if the other node is known to have
+	 * fewer, the other node is scanned in the reverse direction instead. Relating a node to many nodes that are each
+	 * related to few is therefore linear rather than quadratic.
+	 */
 	boolean isRelatedTo(EntityNode entity, RelationshipType type, Direction direction) {
 		
+		long degree = getKnownDegree(node, type, direction);
+		if(degree < 0 || degree > context.getDegreeThreshold()) {
+			long otherDegree = getKnownDegree(entity.node, type, direction.reverse());
+			if(otherDegree >= 0 && (degree < 0 || otherDegree < degree)) {
+				return entity.scanFor(node, type, direction.reverse());
+			}
+		}
+		
+		return scanFor(entity.node, type, direction);
+	}
+	
+	private boolean scanFor(Node other, RelationshipType type, Direction direction) {
+		
 		for(Relationship relationship : node.getRelationships(type, direction)) {
 			Node relatedNode = determineRelatedNode(relationship, direction);
-			if(entity.getNode().equals(relatedNode)) {
+			if(other.equals(relatedNode)) {
 				return true;
 			}
 		}
@@ -122,17 +262,30 @@ final class EntityNode {
 	
 	void createRelationship(EntityNode entity, RelationshipType type, Direction direction) {
 		
-		Transaction tx = node.getGraphDatabase().beginTx();
+		Node startNode;
+		Node endNode;
+		if(direction.equals(Direction.OUTGOING)) {
+			startNode = node;
+			endNode = entity.node;
+		} else if(direction.equals(Direction.INCOMING)) {
+			startNode = entity.node;
+			endNode = node;
+		} else if(direction.equals(Direction.BOTH)) {
+			startNode = node;
+			endNode = entity.node;
+		} else {
+			throw new IllegalArgumentException("Direction must ne INCOMING, OUTGOING, or BOTH!!!");
+		}
+		
+		Transaction tx = beginTx();
 		try {
-			if(direction.equals(Direction.OUTGOING)) {
-				node.createRelationshipTo(entity.node, type);
-			} else if(direction.equals(Direction.INCOMING)) {
-				entity.node.createRelationshipTo(node, type);
-			} else if(direction.equals(Direction.BOTH)) {
-				node.createRelationshipTo(entity.node, type);
-			} else {
-				throw new IllegalArgumentException("Direction must ne INCOMING, OUTGOING, or BOTH!!!");
-			}
+			tx.acquireWriteLock(startNode);
+			tx.acquireWriteLock(endNode);
+			initializeDegrees(startNode, type);
+			initializeDegrees(endNode, type);
+			
+			startNode.createRelationshipTo(endNode, type);
+			updateDegrees(startNode, endNode, type, 1);
 			
 			tx.success();
 		} finally {
@@ -142,11 +295,11 @@ final class EntityNode {
 	
 	void deleteSingleRelationship(RelationshipType type, Direction direction) {
 		
-		Transaction tx = node.getGraphDatabase().beginTx();
+		Transaction tx = beginTx();
 		try {
 			Relationship relationship = node.getSingleRelationship(type, direction);
 			if(relationship != null) {
-				relationship.delete();
+				deleteRelationship(tx, relationship);
 			}
 			tx.success();
 		} finally {
@@ -156,12 +309,12 @@ final class EntityNode {
 	
 	void deleteRelationship(EntityNode entity, RelationshipType type, Direction direction) {
 		
-		Transaction tx = node.getGraphDatabase().beginTx();
+		Transaction tx = beginTx();
 		try {
 			for(Relationship relationship : node.getRelationships(type, direction)) {
 				Node relatedNode = determineRelatedNode(relationship, direction);
 				if(entity.getNode().equals(relatedNode)) {
-					relationship.delete();
+					deleteRelationship(tx, relationship);
 				}
 			}
 			tx.success();
@@ -172,11 +325,21 @@ final class EntityNode {
 	
 	void delete() {
 		
-		Transaction tx = node.getGraphDatabase().beginTx();
+		Transaction tx = beginTx();
 		try {
 			
+			SimpleTopologyManager.removeId(node, entityClass);
+			
 			for(Relationship rel : node.getRelationships()) {
-				rel.delete();
+				deleteRelationship(tx, rel);
+			}
+			
+			EntityMetamodel metamodel = EntityMetamodel.of(entityClass);
+			if(metamodel.getIndexName() != null) {
+				metamodel.getIndex(node.getGraphDatabase()).remove(node);
+			}
+			if(metamodel.getFulltextIndexName() != null) {
+				metamodel.getFulltextIndex(node.getGraphDatabase()).remove(node);
 			}
 			
 			node.delete();
@@ -187,6 +350,100 @@ final class EntityNode {
 		}
 	}
 	
+	/**
+	 * Returns the number of relationships of the given type and direction. Counters are kept on the node for every
+	 * relationship type it has been related with through phonebooth, so this is a constant time property read; nodes
+	 * that have no counter yet, such as nodes written before counters existed, are counted.
+	 */
+	long countRelationships(RelationshipType type, Direction direction) {
+		return getDegree(node, type, direction);
+	}
+	
+	private static long getDegree(Node node, RelationshipType type, Direction direction) {
+		
+		if(Direction.OUTGOING.equals(direction)) {
+			return getDegree(node, type, OUT);
+		} else if(Direction.INCOMING.equals(direction)) {
+			return getDegree(node, type, IN);
+		} else if(Direction.BOTH.equals(direction)) {
+			//a relationship from a node to itself is both outgoing and incoming, but is only related once
+			return getDegree(node, type, OUT) + getDegree(node, type, IN) - getDegree(node, type, LOOP);
+		} else {
+			throw new IllegalArgumentException("Direction must ne INCOMING, OUTGOING, or BOTH!!!");
+		}
+	}
+	
+	//Returns -1 rather than counting if the node has relationships of the type but no counters
+	private static long getKnownDegree(Node node, RelationshipType type, Direction direction) {
+		
+		if(!node.hasProperty(degreeKey(type, OUT))) {
+			return node.hasRelationship(type, direction) ? -1 : 0;
+		}
+		
+		return getDegree(node, type, direction);
+	}
+	
+	private static long getDegree(Node node, RelationshipType type, String end) {
+		
+		Object degree = node.getProperty(degreeKey(type, end), null);
+		
+		return degree == null ? countDegree(node, type, end) : (Long) degree;
+	}
+	
+	private static long countDegree(Node node, RelationshipType type, String end) {
+		
+		long count = 0;
+		for(Relationship relationship : node.getRelationships(type, LOOP.equals(end) || OUT.equals(end) ? Direction.OUTGOING : Direction.INCOMING)) {
+			if(!LOOP.equals(end) || relationship.getEndNode().equals(node)) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	//The node must be write locked by the current transaction
+	private static void initializeDegrees(Node node, RelationshipType type) {
+		if(!node.hasProperty(degreeKey(type, OUT))) {
+			node.setProperty(degreeKey(type, OUT), countDegree(node, type, OUT));
+			node.setProperty(degreeKey(type, IN), countDegree(node, type, IN));
+			node.setProperty(degreeKey(type, LOOP), countDegree(node, type, LOOP));
+		}
+	}
+	
+	//Counters that do not exist yet are left alone, they will be counted from the relationships when read
+	private static void updateDegrees(Node startNode, Node endNode, RelationshipType type, long delta) {
+		updateDegree(startNode, type, OUT, delta);
+		updateDegree(endNode, type, IN, delta);
+		if(startNode.equals(endNode)) {
+			updateDegree(startNode, type, LOOP, delta);
+		}
+	}
+	
+	private static void updateDegree(Node node, RelationshipType type, String end, long delta) {
+		String key = degreeKey(type, end);
+		Object degree = node.getProperty(key, null);
+		if(degree != null) {
+			node.setProperty(key, (Long) degree + delta);
+		}
+	}
+	
+	private static void deleteRelationship(Transaction tx, Relationship relationship) {
+		
+		Node startNode = relationship.getStartNode();
+		Node endNode = relationship.getEndNode();
+		RelationshipType type = relationship.getType();
+		tx.acquireWriteLock(startNode);
+		tx.acquireWriteLock(endNode);
+		
+		relationship.delete();
+		updateDegrees(startNode, endNode, type, -1);
+	}
+	
+	private static String degreeKey(RelationshipType type, String end) {
+		return DEGREE_KEY_PREFIX + end + type.name();
+	}
+	
 	private Node determineRelatedNode(Relationship relationship, Direction direction) {
 		
 		Node relatedNode;
@@ -227,17 +484,19 @@ final class EntityNode {
 	
 	//This must be called from within a transaction... I dont know if I like this???
 	static void setEntityClass(Node node, Class<?> entityClass) {
-		node.setProperty(CLASS_PROPERTY_KEY, entityClass.getName());
+		setEntityClass(node, entityClass, TopologyContext.DEFAULTS.getTypeRegistry());
+	}
+	
+	static void setEntityClass(Node node, Class<?> entityClass, EntityTypeRegistry typeRegistry) {
+		node.setProperty(CLASS_PROPERTY_KEY, typeRegistry.getIdentifier(entityClass));
 	}
 	
 	static Class<?> getEntityClass(Node node) {
-		try {
-			String className = (String) node.getProperty(CLASS_PROPERTY_KEY);
-			return Class.forName(className);
-		} catch(NotFoundException nfe) {
-			return null;
-		} catch (ClassNotFoundException e) {
-			throw new RuntimeException(e);
-		}
+		return getEntityClass(node, TopologyContext.DEFAULTS.getTypeRegistry());
+	}
+	
+	static Class<?> getEntityClass(Node node, EntityTypeRegistry typeRegistry) {
+		Object identifier = node.getProperty(CLASS_PROPERTY_KEY, null);
+		return identifier == null ? null : typeRegistry.resolve(identifier, node.getGraphDatabase());
 	}
 }
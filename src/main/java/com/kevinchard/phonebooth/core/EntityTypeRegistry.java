@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * Maps the type identifiers stored on entity nodes to entity classes. Nodes of a registered entity class are tagged
+ * with the small integer assigned to its entity definition; the dictionary of tags is persisted on the definition nodes
+ * and the entity classes of a factory are registered when it starts, so resolving the class of a node is a lock-free
+ * map lookup. Nodes of classes that are not registered, and nodes written by earlier versions, carry the class name
+ * instead, which is loaded the first time it is seen and remembered afterwards.
+ * 
+ * @author kchard
+ */
+final class EntityTypeRegistry {
+
+	private final ConcurrentMap<String, Class<?>> classesByName = new ConcurrentHashMap<String, Class<?>>();
+	private final ConcurrentMap<Integer, Class<?>> classesByTag = new ConcurrentHashMap<Integer, Class<?>>();
+	private final ConcurrentMap<Class<?>, Integer> tagsByClass = new ConcurrentHashMap<Class<?>, Integer>();
+	
+	/**
+	 * Registers the tag of an entity class. The tag must have been read from its committed entity definition.
+	 */
+	void register(Class<?> entityClass, int tag) {
+		Assert.notNull(entityClass, "entityClass cannot be null!!!");
+		
+		classesByName.put(entityClass.getName(), entityClass);
+		classesByTag.put(tag, entityClass);
+		tagsByClass.put(entityClass, tag);
+	}
+	
+	/**
+	 * Returns the identifier to store on the nodes of the given entity class: its tag if it is registered, its name
+	 * otherwise.
+	 */
+	Object getIdentifier(Class<?> entityClass) {
+		Integer tag = tagsByClass.get(entityClass);
+		return tag != null ? tag : entityClass.getName();
+	}
+	
+	/**
+	 * Returns the tag of the given entity class, or null if it is not registered.
+	 */
+	Integer getTag(Class<?> entityClass) {
+		return tagsByClass.get(entityClass);
+	}
+	
+	/**
+	 * Returns the entity class of a stored identifier. Tags that were assigned after this registry was populated are
+	 * looked up in the entity definitions of the given database.
+	 */
+	Class<?> resolve(Object identifier, GraphDatabaseService dbService) {
+		
+		if(identifier instanceof Integer) {
+			Class<?> entityClass = classesByTag.get(identifier);
+			return entityClass != null ? entityClass : lookup((Integer) identifier, dbService);
+		}
+		
+		return resolve((String) identifier);
+	}
+	
+	private Class<?> resolve(String className) {
+		
+		Class<?> entityClass = classesByName.get(className);
+		if(entityClass == null) {
+			try {
+				entityClass = Class.forName(className);
+			} catch (ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			
+			Class<?> existing = classesByName.putIfAbsent(className, entityClass);
+			if(existing != null) {
+				entityClass = existing;
+			}
+		}
+		
+		return entityClass;
+	}
+	
+	private Class<?> lookup(Integer tag, GraphDatabaseService dbService) {
+		
+		for(Relationship relationship : dbService.getReferenceNode().getRelationships(Direction.OUTGOING)) {
+			Node definitionNode = relationship.getEndNode();
+			if(tag.equals(definitionNode.getProperty(SimpleTopologyManager.ENTITY_TYPE_TAG, null))) {
+				Class<?> entityClass = resolve((String) definitionNode.getProperty(SimpleTopologyManager.ENTITY_REF_TYPE));
+				register(entityClass, tag);
+				return entityClass;
+			}
+		}
+		
+		throw new IllegalStateException("Unknown entity type tag: " + tag);
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import com.kevinchard.phonebooth.Repository;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * The query plan of a finder method of a {@link Repository} interface. The method name is parsed into criteria once,
+ * when the repository metamodel is built, along with the criterion whose matches are looked up first: a unique
+ * property, then any indexed property, and otherwise whichever relationship criterion reaches the fewest nodes from
+ * its argument. The matches of that criterion are then checked against the others.
+ * 
+ * @author kchard
+ */
+final class FinderMethod {
+
+	static final String PREFIX = "findBy";
+	private static final String AND = "And";
+	private static final String[] ACCESSOR_PREFIXES = { "get", "set", "is", "add", "remove" };
+	
+	private final Class<?> entityClass;
+	private final Criterion[] criteria;
+	private final int indexedCriterion;
+	private final boolean list;
+	
+	private FinderMethod(Class<?> entityClass, Criterion[] criteria, int indexedCriterion, boolean list) {
+		this.entityClass = entityClass;
+		this.criteria = criteria;
+		this.indexedCriterion = indexedCriterion;
+		this.list = list;
+	}
+	
+	/**
+	 * Whether the method returns every match rather than the first.
+	 */
+	boolean isList() {
+		return list;
+	}
+	
+	/**
+	 * Returns the at most limit entities that match the arguments of an invocation of the method.
+	 */
+	List<EntityNode> find(TopologyManager topologyManager, Object[] args, int limit) {
+		
+		String message = "finder arguments cannot be null!!!";
+		Assert.notNull(args, message);
+		for(Object arg : args) {
+			Assert.notNull(arg, message);
+		}
+		
+		int driver = indexedCriterion >= 0 ? indexedCriterion : chooseRelationship(args);
+		
+		List<EntityNode> matches = new ArrayList<EntityNode>();
+		for(EntityNode candidate : criteria[driver].candidates(topologyManager, entityClass, args[driver])) {
+			if(matches(candidate, args, driver)) {
+				matches.add(candidate);
+				if(matches.size() == limit) {
+					break;
+				}
+			}
+		}
+		
+		return matches;
+	}
+	
+	private boolean matches(EntityNode candidate, Object[] args, int driver) {
+		for(int i = 0; i < criteria.length; i++) {
+			if(i != driver && !criteria[i].matches(candidate, args[i])) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	//Relationship counts are kept on the nodes, so the cheapest relationship to start from costs a property read each
+	private int chooseRelationship(Object[] args) {
+		
+		int driver = -1;
+		long fewest = Long.MAX_VALUE;
+		for(int i = 0; i < criteria.length; i++) {
+			if(criteria[i].relationship != null) {
+				long degree = criteria[i].degree(args[i]);
+				if(degree < fewest) {
+					driver = i;
+					fewest = degree;
+				}
+			}
+		}
+		
+		return driver;
+	}
+	
+	/**
+	 * Parses a finder method of a repository of the given entity class, throwing an IllegalArgumentException if its
+	 * name, parameters or return type do not describe a query that can be answered without reading every entity.
+	 */
+	static FinderMethod create(Method method, EntityMetamodel metamodel) {
+		
+		String name = method.getName();
+		String description = method.getDeclaringClass().getName() + "." + name + "()";
+		if(!name.startsWith(PREFIX) || name.length() == PREFIX.length()) {
+			throw new IllegalArgumentException(description + " is not named " + PREFIX + " followed by criteria");
+		}
+		
+		Class<?> entityClass = metamodel.getEntityClass();
+		boolean list;
+		if(method.getReturnType() == List.class) {
+			list = true;
+		} else if(method.getReturnType() == entityClass) {
+			list = false;
+		} else {
+			throw new IllegalArgumentException(description + " must return a List of " + entityClass.getName() + " or a " + entityClass.getName());
+		}
+		
+		String[] names = name.substring(PREFIX.length()).split(AND);
+		if(names.length != method.getParameterTypes().length) {
+			throw new IllegalArgumentException(description + " has " + names.length + " criteria but " + method.getParameterTypes().length + " parameters");
+		}
+		
+		Set<String> ambiguous = new HashSet<String>();
+		Map<String, EntityMethod> accessors = getAccessors(metamodel, ambiguous);
+		Criterion[] criteria = new Criterion[names.length];
+		int indexedCriterion = -1;
+		boolean related = false;
+		for(int i = 0; i < names.length; i++) {
+			if(ambiguous.contains(names[i])) {
+				throw new IllegalArgumentException(description + " has a criterion '" + names[i] + "' that names more than one property or relationship of " + entityClass.getName());
+			}
+			
+			EntityMethod accessor = accessors.get(names[i]);
+			if(accessor instanceof PropertyMethod) {
+				String key = ((PropertyMethod) accessor).getKey();
+				criteria[i] = new Criterion(key, null);
+				if(metamodel.isUnique(key) || (metamodel.isIndexed(key) && indexedCriterion < 0)) {
+					indexedCriterion = i;
+				}
+			} else if(accessor instanceof RelationshipMethod) {
+				criteria[i] = new Criterion(null, (RelationshipMethod) accessor);
+				related = true;
+			} else {
+				throw new IllegalArgumentException(description + " has a criterion '" + names[i] + "' that is not a property or relationship of " + entityClass.getName());
+			}
+		}
+		
+		if(indexedCriterion < 0 && !related) {
+			throw new IllegalArgumentException(description + " has no indexed property or relationship criterion, and would read every " + entityClass.getName());
+		}
+		
+		return new FinderMethod(entityClass, criteria, indexedCriterion, list);
+	}
+	
+	/**
+	 * Maps the names of the accessors and mutators of the entity class without their prefixes to their methods, taking
+	 * the methods by prefix, in the order of ACCESSOR_PREFIXES, and then by name. A name is added to ambiguous if its
+	 * methods do not all map the same property or relationship, as getFoo and isFoo may not.
+	 */
+	private static Map<String, EntityMethod> getAccessors(EntityMetamodel metamodel, Set<String> ambiguous) {
+		
+		List<EntityMethod> entityMethods = new ArrayList<EntityMethod>(metamodel.getMethods());
+		Collections.sort(entityMethods, new Comparator<EntityMethod>() {
+			@Override
+			public int compare(EntityMethod one, EntityMethod other) {
+				return one.getMethod().getName().compareTo(other.getMethod().getName());
+			}
+		});
+		
+		Map<String, EntityMethod> accessors = new HashMap<String, EntityMethod>();
+		for(String prefix : ACCESSOR_PREFIXES) {
+			for(EntityMethod entityMethod : entityMethods) {
+				String name = entityMethod.getMethod().getName();
+				if(name.length() > prefix.length() && name.startsWith(prefix) && Character.isUpperCase(name.charAt(prefix.length()))) {
+					String criterion = name.substring(prefix.length());
+					EntityMethod accessor = accessors.get(criterion);
+					if(accessor == null) {
+						accessors.put(criterion, entityMethod);
+					} else if(!mapSame(accessor, entityMethod)) {
+						ambiguous.add(criterion);
+					}
+				}
+			}
+		}
+		
+		return accessors;
+	}
+	
+	//Whether the annotations of the given methods map the same property key, or the same relationship
+	private static boolean mapSame(EntityMethod one, EntityMethod other) {
+		
+		if(one instanceof PropertyMethod && other instanceof PropertyMethod) {
+			return ((PropertyMethod) one).getKey().equals(((PropertyMethod) other).getKey());
+		}
+		
+		if(one instanceof RelationshipMethod && other instanceof RelationshipMethod) {
+			RelationshipMethod relationship = (RelationshipMethod) one;
+			RelationshipMethod otherRelationship = (RelationshipMethod) other;
+			return relationship.getType().name().equals(otherRelationship.getType().name()) && 
+				   relationship.getDirection() == otherRelationship.getDirection();
+		}
+		
+		return one.getClass() == other.getClass();
+	}
+	
+	private static final class Criterion {
+		
+		private final String key;
+		private final RelationshipMethod relationship;
+		
+		Criterion(String key, RelationshipMethod relationship) {
+			this.key = key;
+			this.relationship = relationship;
+		}
+		
+		Iterable<EntityNode> candidates(TopologyManager topologyManager, Class<?> entityClass, Object arg) {
+			
+			if(key != null) {
+				return topologyManager.findBy(entityClass, key, arg);
+			}
+			
+			EntityNode other = EntityProxy.unwrap(arg);
+			Direction direction = relationship.getDirection().reverse();
+			EntityTypeRegistry typeRegistry = topologyManager.getContext().getTypeRegistry();
+			
+			List<EntityNode> candidates = new ArrayList<EntityNode>();
+			for(Relationship rel : other.getRelationships(relationship.getType(), direction)) {
+				Node node = rel.getOtherNode(other.getNode());
+				if(entityClass.equals(EntityNode.getEntityClass(node, typeRegistry))) {
+					candidates.add(EntityNode.trusted(node, entityClass, topologyManager.getContext()));
+				}
+			}
+			
+			return candidates.isEmpty() ? Collections.<EntityNode>emptyList() : candidates;
+		}
+		
+		long degree(Object arg) {
+			return EntityProxy.unwrap(arg).countRelationships(relationship.getType(), relationship.getDirection().reverse());
+		}
+		
+		boolean matches(EntityNode candidate, Object arg) {
+			
+			if(key != null) {
+				return equal(candidate.getPropertyOrNull(key), arg);
+			}
+			
+			return candidate.isRelatedTo(EntityProxy.unwrap(arg), relationship.getType(), relationship.getDirection());
+		}
+		
+		//Numbers of different types are equal if they have the same value, since finder parameters may be boxed differently
+		private static boolean equal(Object value, Object arg) {
+			if(value instanceof Number && arg instanceof Number && !value.getClass().equals(arg.getClass())) {
+				Number number = (Number) value;
+				Number other = (Number) arg;
+				return number.doubleValue() == other.doubleValue() && number.longValue() == other.longValue();
+			}
+			
+			return arg.equals(value);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Base class of the entity implementations generated by the {@link GeneratedEntityInstantiator}. Generated classes are
+ * defined in their own class loader, so everything they call on this class has to be public or protected. This class
+ * is not intended to be used by application code.
+ * 
+ * @author kchard
+ */
+public abstract class GeneratedEntity {
+
+	private final EntityNode entity;
+	private final EntityInstantiator instantiator;
+	private final EntityMethod[] methods;
+	
+	/**
+	 * The parameters are opaque to generated classes, which cannot name the types they are handed by the 
+	 * {@link GeneratedEntityInstantiator}.
+	 */
+	protected GeneratedEntity(Object entity, Object instantiator, Object methods) {
+		this.entity = (EntityNode) entity;
+		this.instantiator = (EntityInstantiator) instantiator;
+		this.methods = (EntityMethod[]) methods;
+	}
+	
+	protected final Object id() {
+		return entity.getId();
+	}
+	
+	protected final Object getProperty(String key) {
+		return entity.getPropertyOrNull(key);
+	}
+	
+	protected final void setProperty(String key, Object value) {
+		entity.setProperty(key, value);
+	}
+	
+	/**
+	 * True if the writes of this entity go through a write queue, in which case they have to be invoked.
+	 */
+	protected final boolean isQueued() {
+		return entity.getWriteQueue() != null;
+	}
+	
+	protected final Object invoke(int index, Object[] args) {
+		EntityMethod method = methods[index];
+		return method == null ? null : method.dispatch(instantiator, entity, args);
+	}
+	
+	EntityNode getEntityNode() {
+		return entity;
+	}
+	
+	@Override
+	public int hashCode() {
+		return entity.hashCode();
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if(o instanceof GeneratedEntity) {
+			return entity.equals(((GeneratedEntity) o).entity);
+		}
+		
+		if(o != null && Proxy.isProxyClass(o.getClass()) && Proxy.getInvocationHandler(o) instanceof EntityProxy) {
+			return entity.equals(EntityProxy.unwrap(o));
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public String toString() {
+		return entity.toString();
+	}
+	
+	/**
+	 * Creates instances of a generated class with new. A factory class is generated along with each generated class, so
+	 * that instances are not created reflectively.
+	 */
+	public interface Factory {
+		
+		GeneratedEntity newInstance(Object entity, Object instantiator, Object methods);
+	}
+}
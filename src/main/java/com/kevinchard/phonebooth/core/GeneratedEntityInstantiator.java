@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An {@link EntityInstantiator} that hands out instances of classes generated for each entity interface instead of
+ * reflective proxies. Calls on a generated instance do not go through an InvocationHandler, do not box their
+ * arguments into an array and can be inlined by the JIT, and instances are created with new by a generated factory. Entity interfaces that cannot be implemented from another
+ * class loader (non-public interfaces), or any interface at all if javassist is not on the classpath, fall back to
+ * reflective proxies.
+ * 
+ * @author kchard
+ */
+final class GeneratedEntityInstantiator implements EntityInstantiator {
+
+	private final ConcurrentMap<Class<?>, Implementation> implementations = new ConcurrentHashMap<Class<?>, Implementation>();
+	
+	@Override
+	public Object newInstance(EntityNode entity, Class<?> entityInterface) {
+		return implementationOf(entityInterface).newInstance(entity, this);
+	}
+	
+	@Override
+	public Object newInstance(EntityNode entity, Class<?> entityInterface, EntityInstantiator related) {
+		return implementationOf(entityInterface).newInstance(entity, related);
+	}
+	
+	/**
+	 * Returns true if instances of entityInterface are generated rather than proxied, generating the class if needed.
+	 */
+	boolean isGenerated(Class<?> entityInterface) {
+		return implementationOf(entityInterface) instanceof GeneratedImplementation;
+	}
+	
+	private Implementation implementationOf(Class<?> entityInterface) {
+		
+		Implementation implementation = implementations.get(entityInterface);
+		if(implementation == null) {
+			Implementation created = createImplementation(entityInterface);
+			implementation = implementations.putIfAbsent(entityInterface, created);
+			if(implementation == null) {
+				implementation = created;
+			}
+		}
+		
+		return implementation;
+	}
+	
+	private Implementation createImplementation(Class<?> entityInterface) {
+		
+		if(!isAccessible(entityInterface)) {
+			return new ProxyImplementation(entityInterface);
+		}
+		
+		EntityMetamodel metamodel = EntityMetamodel.of(entityInterface);
+		
+		List<Method> abstractMethods = new ArrayList<Method>();
+		for(Method method : entityInterface.getMethods()) {
+			if(Modifier.isAbstract(method.getModifiers())) {
+				abstractMethods.add(method);
+			}
+		}
+		
+		Method[] methods = abstractMethods.toArray(new Method[abstractMethods.size()]);
+		EntityMethod[] entityMethods = new EntityMethod[methods.length];
+		for(int i = 0; i < methods.length; i++) {
+			entityMethods[i] = metamodel.getMethod(methods[i]);
+		}
+		
+		try {
+			return new GeneratedImplementation(new EntityClassGenerator().generate(entityInterface, methods, metamodel), entityMethods);
+		} catch (Exception e) {
+			return new ProxyImplementation(entityInterface);
+		} catch (LinkageError e) {
+			//javassist is an optional dependency
+			return new ProxyImplementation(entityInterface);
+		}
+	}
+	
+	private boolean isAccessible(Class<?> entityInterface) {
+		for(Class<?> c = entityInterface; c != null; c = c.getDeclaringClass()) {
+			if(!Modifier.isPublic(c.getModifiers())) {
+				return false;
+			}
+		}
+		
+		return entityInterface.getClassLoader() != null;
+	}
+	
+	private interface Implementation {
+		
+		Object newInstance(EntityNode entity, EntityInstantiator instantiator);
+	}
+	
+	private static final class ProxyImplementation implements Implementation {
+		
+		private final Class<?> entityInterface;
+		
+		ProxyImplementation(Class<?> entityInterface) {
+			this.entityInterface = entityInterface;
+		}
+
+		@Override
+		public Object newInstance(EntityNode entity, EntityInstantiator instantiator) {
+			return EntityProxy.createProxy(entity, entityInterface, instantiator);
+		}
+	}
+	
+	private static final class GeneratedImplementation implements Implementation {
+		
+		private final GeneratedEntity.Factory factory;
+		private final EntityMethod[] methods;
+		
+		GeneratedImplementation(GeneratedEntity.Factory factory, EntityMethod[] methods) {
+			this.factory = factory;
+			this.methods = methods;
+		}
+
+		@Override
+		public Object newInstance(EntityNode entity, EntityInstantiator instantiator) {
+			return factory.newInstance(entity, instantiator, methods);
+		}
+	}
+}
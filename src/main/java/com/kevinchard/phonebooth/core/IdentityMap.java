@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * The first level cache of a {@link NeoEntityManager}. It resolves a node to the same instance for as long as the
+ * application holds on to that instance, whether it was created, found or reached through a relationship, so that
+ * repeated reads of the same entity do not allocate a new proxy each time. Instances are only weakly referenced and are
+ * forgotten once the application no longer uses them.
+ * 
+ * @author kchard
+ */
+final class IdentityMap implements EntityInstantiator {
+
+	private final EntityInstantiator delegate;
+	private final Map<Long, InstanceReference> instances = new HashMap<Long, InstanceReference>();
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	
+	IdentityMap(EntityInstantiator delegate) {
+		Assert.notNull(delegate, "delegate cannot be null!!!");
+		
+		this.delegate = delegate;
+	}
+	
+	@Override
+	public Object newInstance(EntityNode entity, Class<?> entityInterface) {
+		return newInstance(entity, entityInterface, this);
+	}
+	
+	@Override
+	public synchronized Object newInstance(EntityNode entity, Class<?> entityInterface, EntityInstantiator related) {
+		
+		if(related != this) {
+			return delegate.newInstance(entity, entityInterface, related);
+		}
+		
+		expunge();
+		
+		Long id = entity.getId();
+		InstanceReference reference = instances.get(id);
+		Object instance = reference == null ? null : reference.get();
+		if(instance == null || !entityInterface.isInstance(instance)) {
+			instance = delegate.newInstance(entity, entityInterface, this);
+			instances.put(id, new InstanceReference(id, instance, queue));
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * Forgets the instance of the node with the given id, if there is one. Called when the node is deleted because the
+	 * id may be reused afterwards.
+	 */
+	synchronized void evict(Long id) {
+		instances.remove(id);
+	}
+	
+	synchronized void clear() {
+		instances.clear();
+		expunge();
+	}
+	
+	synchronized int size() {
+		expunge();
+		return instances.size();
+	}
+	
+	private void expunge() {
+		for(Object polled = queue.poll(); polled != null; polled = queue.poll()) {
+			InstanceReference reference = (InstanceReference) polled;
+			if(instances.get(reference.id) == reference) {
+				instances.remove(reference.id);
+			}
+		}
+	}
+	
+	private static final class InstanceReference extends WeakReference<Object> {
+		
+		private final Long id;
+		
+		InstanceReference(Long id, Object instance, ReferenceQueue<Object> queue) {
+			super(instance, queue);
+			this.id = id;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import com.kevinchard.phonebooth.BulkEntityManager;
+import com.kevinchard.phonebooth.EntityCursor;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.EntityReducer;
+import com.kevinchard.phonebooth.EntityTraversal;
+import com.kevinchard.phonebooth.ScoredCursor;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * A {@link BulkEntityManager} over a batch insertion database. Entities are created, populated and related by the
+ * same code as those of a {@link NeoEntityManager}; the batch database simply has no transactions to commit and no
+ * locks to take, and only writes the store when it is shut down. The throughput counters are atomic, so
+ * {@link #getEntitiesPerSecond()} may be polled from a monitoring thread while the load runs.
+ * 
+ * @author kchard
+ */
+final class NeoBulkEntityManager implements BulkEntityManager {
+
+	private final EntityManager delegate;
+	private final GraphDatabaseService batchDatabase;
+	
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong firstCreated = new AtomicLong();
+	private volatile boolean closed;
+	
+	NeoBulkEntityManager(EntityManager delegate, GraphDatabaseService batchDatabase) {
+		Assert.notNull(delegate, "delegate cannot be null!!!");
+		Assert.notNull(batchDatabase, "batchDatabase cannot be null!!!");
+		
+		this.delegate = delegate;
+		this.batchDatabase = batchDatabase;
+	}
+	
+	@Override
+	public <T> T create(Class<T> clazz) {
+		checkOpen();
+		
+		if(firstCreated.get() == 0) {
+			firstCreated.compareAndSet(0, System.nanoTime());
+		}
+		
+		T entity = delegate.create(clazz);
+		created.incrementAndGet();
+		
+		return entity;
+	}
+	
+	@Override
+	public <T> List<T> createAll(Class<T> clazz, int count) {
+		checkOpen();
+		
+		if(firstCreated.get() == 0) {
+			firstCreated.compareAndSet(0, System.nanoTime());
+		}
+		
+		List<T> entities = delegate.createAll(clazz, count);
+		created.addAndGet(entities.size());
+		
+		return entities;
+	}
+	
+	@Override
+	public <T> List<T> findAll(Class<T> clazz) {
+		checkOpen();
+		return delegate.findAll(clazz);
+	}
+	
+	@Override
+	public <T> EntityCursor<T> cursor(Class<T> clazz) {
+		checkOpen();
+		return delegate.cursor(clazz);
+	}
+	
+	@Override
+	public <T> List<T> findPage(Class<T> clazz, Long afterId, int size) {
+		throw new UnsupportedOperationException("Entities cannot be paged while bulk loading");
+	}
+	
+	@Override
+	public <T> List<T> findBy(Class<T> clazz, String property, Object value) {
+		//batch databases have no indexes, the factory does not accept indexed entity classes for bulk loading
+		throw new UnsupportedOperationException("Entities cannot be found by property while bulk loading");
+	}
+	
+	@Override
+	public <T> T getOrCreate(Class<T> clazz, String property, Object value) {
+		throw new UnsupportedOperationException("Entities cannot be found by property while bulk loading");
+	}
+	
+	@Override
+	public <T> EntityCursor<T> findRange(Class<T> clazz, String property, Number from, Number to, int limit) {
+		throw new UnsupportedOperationException("Entities cannot be found by property while bulk loading");
+	}
+	
+	@Override
+	public <T> EntityCursor<T> findRange(Class<T> clazz, String property, Number from, Number to, String orderBy, boolean descending, int limit) {
+		throw new UnsupportedOperationException("Entities cannot be found by property while bulk loading");
+	}
+	
+	@Override
+	public <T> ScoredCursor<T> search(Class<T> clazz, String property, String query, int limit) {
+		throw new UnsupportedOperationException("Entities cannot be found by property while bulk loading");
+	}
+	
+	@Override
+	public <R> R getRepository(Class<R> repositoryClass) {
+		throw new UnsupportedOperationException("Repositories are not supported while bulk loading");
+	}
+	
+	@Override
+	public <T> EntityCursor<T> query(String cypher, Map<String, Object> params, Class<T> resultType) {
+		//Cypher runs on an embedded database, batch databases cannot execute queries
+		throw new UnsupportedOperationException("Queries cannot be run while bulk loading");
+	}
+	
+	@Override
+	public <T> EntityTraversal<T> traverse(Class<T> clazz) {
+		//the traversal framework does not see the relationships of a batch database
+		throw new UnsupportedOperationException("Entities cannot be traversed while bulk loading");
+	}
+	
+	@Override
+	public <T, A> A scan(Class<T> clazz, EntityReducer<T, A> reducer, int parallelism) {
+		checkOpen();
+		return delegate.scan(clazz, reducer, parallelism);
+	}
+	
+	@Override
+	public <T> T find(Long id, Class<T> clazz) {
+		checkOpen();
+		return delegate.find(id, clazz);
+	}
+	
+	@Override
+	public void delete(Long id, Class<?> clazz) {
+		throw new UnsupportedOperationException("Entities cannot be deleted while bulk loading");
+	}
+	
+	@Override
+	public void delete(Collection<Long> ids, Class<?> clazz) {
+		throw new UnsupportedOperationException("Entities cannot be deleted while bulk loading");
+	}
+	
+	@Override
+	public Transaction beginTransaction() {
+		checkOpen();
+		return delegate.beginTransaction();
+	}
+	
+	@Override
+	public void flush() {
+		//nothing is durable before close
+	}
+	
+	@Override
+	public Future<Void> flushAsync() {
+		return AsyncWriter.completed(null);
+	}
+	
+	@Override
+	public long getEntitiesCreated() {
+		return created.get();
+	}
+	
+	@Override
+	public double getEntitiesPerSecond() {
+		long count = created.get();
+		if(count == 0) {
+			return 0;
+		}
+		
+		long nanos = Math.max(1, System.nanoTime() - firstCreated.get());
+		return count / (nanos / 1e9);
+	}
+	
+	@Override
+	public void close() {
+		if(!closed) {
+			closed = true;
+			batchDatabase.shutdown();
+		}
+	}
+	
+	private void checkOpen() {
+		Assert.state(!closed, "The BulkEntityManager is closed!!!");
+	}
+}
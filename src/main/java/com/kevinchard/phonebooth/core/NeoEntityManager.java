@@ -18,64 +18,694 @@
 package com.kevinchard.phonebooth.core;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 
+import com.kevinchard.phonebooth.EntityCursor;
 import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.EntityReducer;
+import com.kevinchard.phonebooth.EntityTraversal;
+import com.kevinchard.phonebooth.ScoredCursor;
 import com.kevinchard.phonebooth.UnknownEntityException;
 import com.kevinchard.phonebooth.tx.TransactionManager;
+import com.kevinchard.phonebooth.util.Assert;
 
 
 final class NeoEntityManager implements EntityManager {
 
+	//for EntityManagers created without a factory, which owns the executor of its own
+	private static final ExecutorService DEFAULT_SCAN_EXECUTOR = newScanExecutor();
+	
 	private final TopologyManager topologyManager;
 	private final TransactionManager txManager;
+	private final EntityInstantiator instantiator;
+	private final IdentityMap identityMap;
+	private final UnitOfWork unitOfWork;
+	private final WriteQueue writeQueue;
+	private final ExecutorService scanExecutor;
 	
 	NeoEntityManager(TopologyManager database, TransactionManager txManager) {
+		this(database, txManager, EntityProxy.INSTANTIATOR);
+	}
+	
+	NeoEntityManager(TopologyManager database, TransactionManager txManager, EntityInstantiator instantiator) {
+		this(database, txManager, instantiator, null);
+	}
+	
+	/**
+	 * @param unitOfWork the unit of work that collects the writes made through this EntityManager, or null to commit
+	 * each write on its own
+	 */
+	NeoEntityManager(TopologyManager database, TransactionManager txManager, EntityInstantiator instantiator, UnitOfWork unitOfWork) {
+		this(database, txManager, instantiator, unitOfWork, null);
+	}
+	
+	/**
+	 * @param writeQueue the queue the writes made through this EntityManager are committed from asynchronously, or
+	 * null to make them on the calling thread
+	 */
+	NeoEntityManager(TopologyManager database, TransactionManager txManager, EntityInstantiator instantiator, UnitOfWork unitOfWork, WriteQueue writeQueue) {
+		this(database, txManager, instantiator, unitOfWork, writeQueue, DEFAULT_SCAN_EXECUTOR);
+	}
+	
+	/**
+	 * @param scanExecutor the threads that scans run on, shared by the EntityManagers of a factory
+	 */
+	NeoEntityManager(TopologyManager database, TransactionManager txManager, EntityInstantiator instantiator, UnitOfWork unitOfWork, WriteQueue writeQueue, ExecutorService scanExecutor) {
+		Assert.state(unitOfWork == null || writeQueue == null, "A unit of work cannot be written asynchronously!!!");
+		
 		this.topologyManager = database;
 		this.txManager = txManager;
+		this.instantiator = instantiator;
+		this.identityMap = new IdentityMap(instantiator);
+		this.unitOfWork = unitOfWork;
+		this.writeQueue = writeQueue;
+		this.scanExecutor = scanExecutor;
+	}
+	
+	/**
+	 * Returns a pool of daemon threads for scans to run on, which keeps its idle threads for a minute so that
+	 * consecutive scans do not start threads of their own.
+	 */
+	static ExecutorService newScanExecutor() {
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "phonebooth-scan");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
-	public <T> T create(Class<T> entityClass) {
+	public <T> T create(final Class<T> entityClass) {
 		
 		if(!topologyManager.entityDefinitionExists(entityClass)){
 			throw new UnknownEntityException();
 		}
 		
-		return (T) EntityProxy.createProxy(topologyManager.createNode(entityClass), entityClass);
+		if(writeQueue != null) {
+			EntityNode entityNode = writeQueue.await(new AsyncWriter.Write<EntityNode>() {
+				@Override
+				EntityNode run() {
+					return topologyManager.createNode(entityClass);
+				}
+			});
+			return (T) identityMap.newInstance(bind(entityNode), entityClass);
+		}
+		
+		if(unitOfWork == null) {
+			return (T) identityMap.newInstance(topologyManager.createNode(entityClass), entityClass);
+		}
+		
+		EntityNode entityNode;
+		Transaction tx = unitOfWork.beginTx();
+		try {
+			entityNode = topologyManager.createNode(entityClass).withUnitOfWork(unitOfWork);
+			tx.success();
+		} finally {
+			tx.finish();
+		}
+		
+		return (T) identityMap.newInstance(entityNode, entityClass);
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> List<T> createAll(final Class<T> entityClass, final int count) {
+		
+		List<EntityNode> entityNodes;
+		if(writeQueue != null) {
+			entityNodes = writeQueue.await(new AsyncWriter.Write<List<EntityNode>>() {
+				@Override
+				List<EntityNode> run() {
+					return topologyManager.createNodes(entityClass, count);
+				}
+			});
+		} else if(unitOfWork == null) {
+			entityNodes = topologyManager.createNodes(entityClass, count);
+		} else {
+			Transaction tx = unitOfWork.beginTx();
+			try {
+				entityNodes = topologyManager.createNodes(entityClass, count);
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+		}
+		
+		List<T> entities = new ArrayList<T>(entityNodes.size());
+		for(EntityNode entityNode : entityNodes) {
+			entities.add((T) identityMap.newInstance(bind(entityNode), entityClass));
+		}
+		
+		return entities;
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> List<T> findAll(Class<T> entityClass) {
 		
 		List<T> entities = new ArrayList<T>();
 		for(EntityNode entityNode : topologyManager.getAll(entityClass)) {
-			entities.add((T) EntityProxy.createProxy(entityNode, entityClass));
+			entities.add((T) identityMap.newInstance(bind(entityNode), entityClass));
 		}
 		
 		return entities;
 	}
 
+	@Override
+	public <T> EntityCursor<T> cursor(Class<T> entityClass) {
+		return new Cursor<T>(topologyManager.iterate(entityClass), entityClass);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> List<T> findPage(Class<T> entityClass, Long afterId, int size) {
+		
+		List<T> entities = new ArrayList<T>(size);
+		for(EntityNode entityNode : topologyManager.getPage(entityClass, afterId, size)) {
+			entities.add((T) identityMap.newInstance(bind(entityNode), entityClass));
+		}
+		
+		return entities;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> List<T> findBy(Class<T> entityClass, String property, Object value) {
+		
+		Assert.notNull(property, "property cannot be null!!!");
+		Assert.notNull(value, "value cannot be null!!!");
+		
+		List<T> entities = new ArrayList<T>();
+		for(EntityNode entityNode : topologyManager.findBy(entityClass, property, value)) {
+			entities.add((T) identityMap.newInstance(bind(entityNode), entityClass));
+		}
+		
+		return entities;
+	}
+	
+	@Override
+	public <T> EntityCursor<T> findRange(Class<T> entityClass, String property, Number from, Number to, int limit) {
+		return findRange(entityClass, property, from, to, property, false, limit);
+	}
+	
+	@Override
+	public <T> EntityCursor<T> findRange(Class<T> entityClass, String property, Number from, Number to, String orderBy, boolean descending, int limit) {
+		
+		Assert.notNull(property, "property cannot be null!!!");
+		Assert.notNull(orderBy, "orderBy cannot be null!!!");
+		
+		return new Cursor<T>(topologyManager.findRange(entityClass, property, from, to, orderBy, descending, limit), entityClass);
+	}
+	
+	@Override
+	public <T> ScoredCursor<T> search(Class<T> entityClass, String property, String query, int limit) {
+		
+		Assert.notNull(property, "property cannot be null!!!");
+		Assert.notNull(query, "query cannot be null!!!");
+		
+		return new Scored<T>(topologyManager.search(entityClass, property, query, limit), entityClass);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R> R getRepository(Class<R> repositoryClass) {
+		
+		if(!topologyManager.entityDefinitionExists(RepositoryMetamodel.of(repositoryClass).getEntityClass())) {
+			throw new UnknownEntityException();
+		}
+		
+		return (R) RepositoryProxy.createProxy(this, topologyManager, repositoryClass);
+	}
+	
+	@Override
+	public <T> EntityTraversal<T> traverse(Class<T> entityClass) {
+		
+		if(!topologyManager.entityDefinitionExists(entityClass)) {
+			throw new UnknownEntityException();
+		}
+		
+		return new PathTraversal<T>(RelationshipPath.start(entityClass, topologyManager.getContext().getTypeRegistry()));
+	}
+	
+	@Override
+	public <T> EntityCursor<T> query(String cypher, Map<String, Object> params, Class<T> resultType) {
+		
+		Assert.notNull(cypher, "cypher cannot be null!!!");
+		Assert.notNull(resultType, "resultType cannot be null!!!");
+		
+		Map<String, Object> nodeParams = new HashMap<String, Object>();
+		if(params != null) {
+			for(Map.Entry<String, Object> param : params.entrySet()) {
+				nodeParams.put(param.getKey(), toNodes(param.getValue()));
+			}
+		}
+		
+		ExecutionResult result = topologyManager.query(cypher, nodeParams);
+		if(resultType == Map.class) {
+			return new QueryCursor<T>(result.iterator(), resultType);
+		}
+		
+		List<String> columns = result.columns();
+		if(columns.size() != 1) {
+			throw new IllegalArgumentException("The query returns the columns " + columns + ", only a query of a single column can return " + resultType.getName());
+		}
+		
+		return new QueryCursor<T>(result.columnAs(columns.get(0)), resultType);
+	}
+	
+	//Cypher parameters take nodes and their ids, an entity or a collection of them is passed as its nodes
+	private static Object toNodes(Object value) {
+		
+		if(EntityProxy.isEntity(value)) {
+			return EntityProxy.unwrap(value).getNode();
+		}
+		
+		if(value instanceof Collection) {
+			List<Object> nodes = new ArrayList<Object>();
+			for(Object element : (Collection<?>) value) {
+				nodes.add(toNodes(element));
+			}
+			return nodes;
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Returns the entity object of an entity found on behalf of a repository of this EntityManager.
+	 */
+	Object newInstance(EntityNode entityNode) {
+		return identityMap.newInstance(bind(entityNode), entityNode.getEntityClass());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T getOrCreate(final Class<T> entityClass, final String property, final Object value) {
+		
+		Assert.notNull(property, "property cannot be null!!!");
+		Assert.notNull(value, "value cannot be null!!!");
+		
+		EntityNode entityNode;
+		if(writeQueue != null) {
+			entityNode = writeQueue.await(new AsyncWriter.Write<EntityNode>() {
+				@Override
+				EntityNode run() {
+					return topologyManager.getOrCreate(entityClass, property, value);
+				}
+			});
+		} else if(unitOfWork == null) {
+			entityNode = topologyManager.getOrCreate(entityClass, property, value);
+		} else {
+			Transaction tx = unitOfWork.beginTx();
+			try {
+				entityNode = topologyManager.getOrCreate(entityClass, property, value);
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+		}
+		
+		return (T) identityMap.newInstance(bind(entityNode), entityClass);
+	}
+	
+	@Override
+	public <T, A> A scan(Class<T> entityClass, EntityReducer<T, A> reducer, int parallelism) {
+		
+		Assert.notNull(reducer, "reducer cannot be null!!!");
+		Assert.state(parallelism > 0, "parallelism must be positive!!!");
+		
+		List<Iterator<EntityNode>> partitions = topologyManager.partition(entityClass);
+		List<Future<A>> results = new ArrayList<Future<A>>();
+		//the executor is shared, a partition or batch is only submitted while fewer than parallelism of them run
+		Semaphore running = new Semaphore(parallelism);
+		try {
+			if(partitions.size() >= parallelism) {
+				for(Iterator<EntityNode> partition : partitions) {
+					running.acquireUninterruptibly();
+					results.add(scanExecutor.submit(new Scan<T, A>(partition, entityClass, reducer, running)));
+				}
+			} else {
+				//the calling thread reads the next batch while the others are reduced, so the batches read ahead stay bounded
+				int batchSize = topologyManager.getContext().getBatchSize();
+				for(Iterator<EntityNode> partition : partitions) {
+					while(partition.hasNext()) {
+						List<EntityNode> batch = new ArrayList<EntityNode>(batchSize);
+						while(batch.size() < batchSize && partition.hasNext()) {
+							batch.add(partition.next());
+						}
+						
+						running.acquireUninterruptibly();
+						results.add(scanExecutor.submit(new Scan<T, A>(batch.iterator(), entityClass, reducer, running)));
+					}
+				}
+			}
+			
+			A result = reducer.initial();
+			for(Future<A> partial : results) {
+				result = reducer.combine(result, join(partial));
+			}
+			
+			return result;
+		} finally {
+			//stops the rest of a scan that failed, the partials of one that completed are done already
+			for(Future<A> partial : results) {
+				partial.cancel(true);
+			}
+		}
+	}
+	
+	private static <A> A join(Future<A> partial) {
+		try {
+			return partial.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a scan", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T find(Long id, Class<T> clazz) {
 		
-		EntityNode entityNode = topologyManager.get(id, clazz);
+		EntityNode entityNode = bind(topologyManager.get(id, clazz));
 		
-		return (T) EntityProxy.createProxy(entityNode, clazz);
+		return (T) identityMap.newInstance(entityNode, clazz);
 	}
 
 	@Override
-	public void delete(Long id, Class<?> clazz) {
-		topologyManager.get(id, clazz).delete();
+	public void delete(final Long id, final Class<?> clazz) {
+		if(writeQueue != null) {
+			writeQueue.await(new AsyncWriter.Write<Void>() {
+				@Override
+				Void run() {
+					topologyManager.get(id, clazz).delete();
+					return null;
+				}
+			});
+		} else {
+			bind(topologyManager.get(id, clazz)).delete();
+		}
+		identityMap.evict(id);
+	}
+	
+	@Override
+	public void delete(final Collection<Long> ids, final Class<?> clazz) {
+		
+		try {
+			if(writeQueue != null) {
+				writeQueue.await(new AsyncWriter.Write<Void>() {
+					@Override
+					Void run() {
+						topologyManager.deleteAll(ids, clazz);
+						return null;
+					}
+				});
+			} else if(unitOfWork == null) {
+				topologyManager.deleteAll(ids, clazz);
+			} else {
+				Transaction tx = unitOfWork.beginTx();
+				try {
+					topologyManager.deleteAll(ids, clazz);
+					tx.success();
+				} finally {
+					tx.finish();
+				}
+			}
+		} finally {
+			for(Long id : ids) {
+				identityMap.evict(id);
+			}
+		}
 	}
 	
 	@Override
 	public Transaction beginTransaction() {
 		return txManager.beginTx();
 	}
+	
+	@Override
+	public void flush() {
+		if(unitOfWork != null) {
+			unitOfWork.flush();
+		} else if(writeQueue != null) {
+			WriteQueue.get(writeQueue.flush());
+		}
+	}
+	
+	@Override
+	public Future<Void> flushAsync() {
+		if(writeQueue != null) {
+			return writeQueue.flush();
+		}
+		
+		flush();
+		return AsyncWriter.completed(null);
+	}
+	
+	private EntityNode bind(EntityNode entityNode) {
+		if(writeQueue != null) {
+			return entityNode.withWriteQueue(writeQueue);
+		}
+		
+		return unitOfWork == null ? entityNode : entityNode.withUnitOfWork(unitOfWork);
+	}
+	
+	/**
+	 * Reduces a partition of a scan, reading its entities with an identity map of its own since the one of the
+	 * EntityManager would have every thread of the scan contend on it.
+	 */
+	private final class Scan<T, A> implements Callable<A> {
+		
+		private final Iterator<EntityNode> entityNodes;
+		private final Class<T> entityClass;
+		private final EntityReducer<T, A> reducer;
+		private final Semaphore running;
+		
+		Scan(Iterator<EntityNode> entityNodes, Class<T> entityClass, EntityReducer<T, A> reducer, Semaphore running) {
+			this.entityNodes = entityNodes;
+			this.entityClass = entityClass;
+			this.reducer = reducer;
+			this.running = running;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public A call() {
+			try {
+				IdentityMap readContext = new IdentityMap(instantiator);
+				A accumulator = reducer.initial();
+				while(entityNodes.hasNext()) {
+					accumulator = reducer.accumulate(accumulator, (T) readContext.newInstance(bind(entityNodes.next()), entityClass));
+				}
+				
+				return accumulator;
+			} finally {
+				running.release();
+			}
+		}
+	}
+	
+	private class Cursor<T> implements EntityCursor<T> {
+		
+		private final Class<T> entityClass;
+		private Iterator<EntityNode> entityNodes;
+		
+		Cursor(Iterator<EntityNode> entityNodes, Class<T> entityClass) {
+			this.entityNodes = entityNodes;
+			this.entityClass = entityClass;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return entityNodes != null && entityNodes.hasNext();
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			
+			return (T) identityMap.newInstance(bind(entityNodes.next()), entityClass);
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Iterator<T> iterator() {
+			return this;
+		}
+		
+		@Override
+		public void close() {
+			if(entityNodes instanceof EntityCursor) {
+				((EntityCursor<?>) entityNodes).close();
+			}
+			entityNodes = null;
+		}
+	}
+	
+	/**
+	 * Builds the {@link RelationshipPath} of a traversal, and runs it with this EntityManager.
+	 */
+	private final class PathTraversal<T> implements EntityTraversal<T> {
+		
+		private final RelationshipPath path;
+		
+		PathTraversal(RelationshipPath path) {
+			this.path = path;
+		}
+		
+		@Override
+		public <U> EntityTraversal<U> follow(String relationship, Class<U> entityClass) {
+			return new PathTraversal<U>(path.follow(relationship, null, entityClass));
+		}
+		
+		@Override
+		public <U> EntityTraversal<U> follow(String relationship, Direction direction, Class<U> entityClass) {
+			Assert.notNull(direction, "direction cannot be null!!!");
+			return new PathTraversal<U>(path.follow(relationship, direction, entityClass));
+		}
+		
+		@Override
+		public EntityTraversal<T> repeat(int maxHops) {
+			return new PathTraversal<T>(path.repeat(maxHops));
+		}
+		
+		@Override
+		public EntityTraversal<T> excludeVisited() {
+			return new PathTraversal<T>(path.excludeVisited());
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public EntityCursor<T> from(Object start) {
+			Assert.notNull(start, "start cannot be null!!!");
+			return new Cursor<T>(topologyManager.traverse(EntityProxy.unwrap(start), path), (Class<T>) path.getEntityClass());
+		}
+	}
+	
+	/**
+	 * Maps the rows or the single column of a query result as it is iterated, replacing the nodes of entities by their
+	 * entity objects. The engine has already read every row of the result, so closing the cursor drops the rows that
+	 * were not read.
+	 */
+	private final class QueryCursor<T> implements EntityCursor<T> {
+		
+		private final Class<T> resultType;
+		private Iterator<?> values;
+		
+		QueryCursor(Iterator<?> values, Class<T> resultType) {
+			this.values = values;
+			this.resultType = resultType;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return values != null && values.hasNext();
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			
+			Object value = values.next();
+			if(resultType == Map.class) {
+				Map<String, Object> row = new LinkedHashMap<String, Object>();
+				for(Map.Entry<String, Object> column : ((Map<String, Object>) value).entrySet()) {
+					row.put(column.getKey(), toEntity(column.getValue()));
+				}
+				return (T) row;
+			}
+			
+			value = toEntity(value);
+			if(value != null && !resultType.isInstance(value)) {
+				throw new ClassCastException("The query returned " + value + ", which is not a " + resultType.getName());
+			}
+			
+			return (T) value;
+		}
+		
+		private Object toEntity(Object value) {
+			
+			if(!(value instanceof Node)) {
+				return value;
+			}
+			
+			Node node = (Node) value;
+			Class<?> entityClass = EntityNode.getEntityClass(node, topologyManager.getContext().getTypeRegistry());
+			if(entityClass == null) {
+				return node;
+			}
+			
+			return identityMap.newInstance(bind(EntityNode.trusted(node, entityClass, topologyManager.getContext())), entityClass);
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Iterator<T> iterator() {
+			return this;
+		}
+		
+		@Override
+		public void close() {
+			values = null;
+		}
+	}
+	
+	private final class Scored<T> extends Cursor<T> implements ScoredCursor<T> {
+		
+		private final ScoredCursor<EntityNode> results;
+		
+		Scored(ScoredCursor<EntityNode> results, Class<T> entityClass) {
+			super(results, entityClass);
+			this.results = results;
+		}
+		
+		@Override
+		public float currentScore() {
+			return results.currentScore();
+		}
+	}
 }
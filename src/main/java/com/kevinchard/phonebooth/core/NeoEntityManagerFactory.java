@@ -19,41 +19,168 @@ package com.kevinchard.phonebooth.core;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Transaction;
 
 import com.kevinchard.phonebooth.EntityManager;
 import com.kevinchard.phonebooth.EntityManagerFactory;
+import com.kevinchard.phonebooth.PersistenceProperties;
 import com.kevinchard.phonebooth.tx.TransactionManager;
 import com.kevinchard.phonebooth.util.Assert;
 
 final class NeoEntityManagerFactory implements EntityManagerFactory {
 
+	static final int DEFAULT_FLUSH_THRESHOLD = 1000;
+
+	private final GraphDatabaseService dbService;
 	private final TopologyManager topologyManager;
+	private final EntityTypeRegistry typeRegistry;
+	private final List<Class<?>> entityClasses;
 	private final TransactionManager txManager;
+	private final EntityInstantiator instantiator;
+	private final boolean unitOfWork;
+	private final int flushThreshold;
+	private final boolean bulkLoad;
+	private final AsyncWriter asyncWriter;
+	private final ExecutorService scanExecutor = NeoEntityManager.newScanExecutor();
 	
 	NeoEntityManagerFactory(GraphDatabaseService dbService, List<Class<?>> entityClasses, Map<String, Object> properties) {
 		Assert.notNull(dbService, "dbSerivce cannot be null!!!");
 		Assert.notNull(entityClasses, "entityClasses cannot be null!!!");
 		
-		this.topologyManager = new SimpleTopologyManager(dbService);
+		this.dbService = dbService;
+		
+		TopologyContext context = createContext(properties);
+		this.topologyManager = new SimpleTopologyManager(dbService, context);
+		this.typeRegistry = context.getTypeRegistry();
+		this.entityClasses = entityClasses;
 		this.txManager = new SimpleTransactionManager(dbService);
+		this.instantiator = createInstantiator(getProperty(properties, PersistenceProperties.ENGINE, PersistenceProperties.ENGINE_PROXY));
+		this.unitOfWork = Boolean.parseBoolean(getProperty(properties, PersistenceProperties.UNIT_OF_WORK, "false"));
+		this.flushThreshold = getIntProperty(properties, PersistenceProperties.FLUSH_THRESHOLD, DEFAULT_FLUSH_THRESHOLD);
+		this.bulkLoad = Boolean.parseBoolean(getProperty(properties, PersistenceProperties.BULK_LOAD, "false"));
 		
 		initialize(entityClasses, properties);
+		
+		this.asyncWriter = createAsyncWriter(properties);
+	}
+	
+	private AsyncWriter createAsyncWriter(Map<String, Object> properties) {
+		if(!Boolean.parseBoolean(getProperty(properties, PersistenceProperties.ASYNC_WRITES, "false"))) {
+			return null;
+		} else if(unitOfWork || bulkLoad) {
+			throw new IllegalArgumentException(PersistenceProperties.ASYNC_WRITES + " cannot be combined with " + 
+											   (unitOfWork ? PersistenceProperties.UNIT_OF_WORK : PersistenceProperties.BULK_LOAD));
+		}
+		
+		return new AsyncWriter(txManager,
+							   getIntProperty(properties, PersistenceProperties.ASYNC_BATCH_SIZE, AsyncWriter.DEFAULT_BATCH_SIZE),
+							   getIntProperty(properties, PersistenceProperties.ASYNC_LINGER_MILLIS, AsyncWriter.DEFAULT_LINGER_MILLIS),
+							   getIntProperty(properties, PersistenceProperties.ASYNC_QUEUE_CAPACITY, AsyncWriter.DEFAULT_QUEUE_CAPACITY));
+	}
+	
+	private EntityInstantiator createInstantiator(String engine) {
+		if(PersistenceProperties.ENGINE_PROXY.equals(engine)) {
+			return EntityProxy.INSTANTIATOR;
+		} else if(PersistenceProperties.ENGINE_GENERATED.equals(engine)) {
+			return new GeneratedEntityInstantiator();
+		} else {
+			throw new IllegalArgumentException("Unknown " + PersistenceProperties.ENGINE + ": " + engine);
+		}
+	}
+	
+	private TopologyContext createContext(Map<String, Object> properties) {
+		return new TopologyContext(getIntProperty(properties, PersistenceProperties.DEGREE_THRESHOLD, TopologyContext.DEFAULT_DEGREE_THRESHOLD),
+								   getIntProperty(properties, PersistenceProperties.BATCH_SIZE, TopologyContext.DEFAULT_BATCH_SIZE),
+								   getIntProperty(properties, PersistenceProperties.TYPE_BUCKETS, TopologyContext.DEFAULT_TYPE_BUCKETS),
+								   new EntityTypeRegistry());
 	}
 	
 	private void initialize(List<Class<?>> entityClasses, Map<String, Object> properties) {
+		for(Class<?> entityClass : entityClasses) {
+			EntityMetamodel metamodel = EntityMetamodel.of(entityClass);
+			metamodel.validate();
+			if(bulkLoad && metamodel.hasIndexes()) {
+				//batch databases have no indexes to keep up to date
+				throw new IllegalArgumentException(entityClass.getName() + " has indexed properties and cannot be bulk loaded");
+			}
+		}
+		
 		for(Class<?> entityClass : entityClasses) {
 			if(!topologyManager.entityDefinitionExists(entityClass)) {
 				topologyManager.addEntityDefinition(entityClass);
 			}
+			
+			typeRegistry.register(entityClass, topologyManager.getTypeTag(entityClass));
+			topologyManager.cacheEntityDefinition(entityClass);
+			
+			if(instantiator instanceof GeneratedEntityInstantiator) {
+				((GeneratedEntityInstantiator) instantiator).isGenerated(entityClass);
+			}
 		}
 	}
 	
 	@Override
 	public EntityManager createEntityManager() {
-		return new NeoEntityManager(topologyManager, txManager);
+		if(bulkLoad) {
+			//batch databases have no transactions to collect writes into
+			return new NeoBulkEntityManager(new NeoEntityManager(topologyManager, txManager, instantiator, null, null, scanExecutor), dbService);
+		}
+		
+		if(asyncWriter != null) {
+			return new NeoEntityManager(topologyManager, txManager, instantiator, null, new WriteQueue(asyncWriter), scanExecutor);
+		}
+		
+		return new NeoEntityManager(topologyManager, txManager, instantiator, unitOfWork ? new UnitOfWork(txManager, flushThreshold) : null, null, scanExecutor);
+	}
+	
+	@Override
+	public long migrateTypeTags(int batchSize) {
+		long migrated = 0;
+		for(Class<?> entityClass : entityClasses) {
+			migrated += topologyManager.migrateTypeTags(entityClass, batchSize);
+		}
+		
+		return migrated;
+	}
+	
+	@Override
+	public long migrateTypeBuckets(int batchSize) {
+		long moved = 0;
+		for(Class<?> entityClass : entityClasses) {
+			moved += topologyManager.migrateTypeBuckets(entityClass, batchSize);
+		}
+		
+		return moved;
+	}
+	
+	@Override
+	public void close() {
+		if(asyncWriter != null) {
+			asyncWriter.close();
+		}
+		scanExecutor.shutdown();
+	}
+	
+	private static int getIntProperty(Map<String, Object> properties, String key, int defaultValue) {
+		String value = getProperty(properties, key, String.valueOf(defaultValue));
+		try {
+			int intValue = Integer.parseInt(value);
+			if(intValue >= 0) {
+				return intValue;
+			}
+		} catch (NumberFormatException e) {
+			//reported below
+		}
+		
+		throw new IllegalArgumentException("Invalid " + key + ": " + value);
+	}
+	
+	private static String getProperty(Map<String, Object> properties, String key, String defaultValue) {
+		Object value = properties == null ? null : properties.get(key);
+		return value == null ? defaultValue : value.toString();
 	}
 	
 
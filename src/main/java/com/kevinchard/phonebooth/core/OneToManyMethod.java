@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Transaction;
+
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.util.Assert;
+
+final class OneToManyMethod extends RelationshipMethod {
+
+	private final CollectionAction action;
+	private final int pageSize;
+	
+	OneToManyMethod(Method method, String name, Direction direction, CollectionAction action, int pageSize) {
+		super(method, name, direction);
+		Assert.state(pageSize > 0, "pageSize must be positive!!!");
+		if(action == CollectionAction.COUNT) {
+			checkCountReturnType(method);
+		} else if(action == CollectionAction.ADD_ALL) {
+			checkAddAllParameterType(method);
+		}
+		
+		this.action = action;
+		this.pageSize = pageSize;
+	}
+	
+	@Override
+	Class<? extends RelationshipMethod> getOppositeKind() {
+		return ManyToOneMethod.class;
+	}
+	
+	@Override
+	boolean isWrite() {
+		return action == CollectionAction.ADD || action == CollectionAction.REMOVE || action == CollectionAction.ADD_ALL;
+	}
+	
+	@Override
+	Object invoke(EntityInstantiator instantiator, EntityNode entity, Object[] args) {
+		
+		if(action == CollectionAction.READ) {
+			checkReadArgs(args);
+			return new RelatedEntityList(entity, getType(), getDirection(), instantiator, pageSize);
+		} else if(action == CollectionAction.COUNT) {
+			checkReadArgs(args);
+			return count(entity);
+		} else if (action == CollectionAction.ADD || action == CollectionAction.REMOVE) {
+			checkWriteArgs(args);
+			
+			if(args[0] == null) {
+				return null;
+			}
+				
+			EntityNode otherEntity = EntityProxy.unwrap(args[0]);
+			
+			RelationshipMethod manyToOne = getOpposite(otherEntity.getEntityClass());
+			
+			if(action == CollectionAction.ADD) {
+				add(entity, otherEntity);
+			} else if (action == CollectionAction.REMOVE) {
+				otherEntity.deleteSingleRelationship(getType(), manyToOne.getDirection());
+			}
+						
+			return null;
+				
+		} else if(action == CollectionAction.ADD_ALL) {
+			checkWriteArgs(args);
+			
+			if(args[0] != null) {
+				addAll(entity, (Iterable<?>) args[0]);
+			}
+			
+			return null;
+		} else {
+			throw new InternalError("Unexpected Action: " + action);
+		}
+	}
+	
+	@Override
+	void add(EntityNode entity, EntityNode otherEntity) {
+		
+		RelationshipMethod manyToOne = getOpposite(otherEntity.getEntityClass());
+		
+		if(!entity.isRelatedTo(otherEntity, getType(), getDirection())) {
+			
+			Transaction tx = entity.beginTx();
+			try {
+				otherEntity.deleteSingleRelationship(getType(), manyToOne.getDirection());
+				entity.createRelationship(otherEntity, getType(), getDirection());
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+		}
+	}
+}
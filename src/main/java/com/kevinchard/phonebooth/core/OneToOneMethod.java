@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Transaction;
+
+import com.kevinchard.phonebooth.Action;
+
+final class OneToOneMethod extends RelationshipMethod {
+
+	private final Action action;
+	
+	OneToOneMethod(Method method, String name, Direction direction, Action action) {
+		super(method, name, direction);
+		this.action = action;
+	}
+	
+	@Override
+	Class<? extends RelationshipMethod> getOppositeKind() {
+		return OneToOneMethod.class;
+	}
+	
+	@Override
+	boolean isWrite() {
+		return action == Action.WRITE;
+	}
+	
+	@Override
+	Object invoke(EntityInstantiator instantiator, EntityNode entity, Object[] args) {
+		
+		if(action == Action.READ) {
+			checkReadArgs(args);
+			EntityNode relatedEntity =  entity.getRelatedEntity(getType(), getDirection());
+			return relatedEntity == null ? null : instantiator.newInstance(relatedEntity, relatedEntity.getEntityClass());
+		} else if(action == Action.WRITE) {
+			checkWriteArgs(args);
+			
+			if(args[0] == null) {
+				entity.deleteSingleRelationship(getType(), getDirection());
+				return null;
+			}
+				
+			EntityNode otherEntity = EntityProxy.unwrap(args[0]);
+			RelationshipMethod oppositeOneToOne = getOpposite(otherEntity.getEntityClass());
+			
+			if(!entity.isRelatedTo(otherEntity, getType(), getDirection())) {
+				
+				Transaction tx = entity.beginTx();
+				try {
+					otherEntity.deleteSingleRelationship(getType(), oppositeOneToOne.getDirection());
+					entity.deleteSingleRelationship(getType(), getDirection());
+					entity.createRelationship(otherEntity, getType(), getDirection());
+					tx.success();
+				} finally {
+					tx.finish();
+				}
+			}
+			
+			return null;
+		} else {
+			throw new InternalError("Unexpected Action: " + action);
+		}
+	}
+}
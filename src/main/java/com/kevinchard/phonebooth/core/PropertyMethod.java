@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.util.Assert;
+
+final class PropertyMethod extends EntityMethod {
+
+	private final String key;
+	private final Action action;
+	private final boolean indexed;
+	private final boolean unique;
+	private final Class<? extends Number> numericType;
+	private final boolean fulltext;
+	
+	PropertyMethod(Method method, String key, Action action) {
+		this(method, key, action, false, false, false, false);
+	}
+	
+	PropertyMethod(Method method, String key, Action action, boolean indexed, boolean unique, boolean numeric, boolean fulltext) {
+		super(method);
+		Assert.state(!indexed || action == Action.WRITE, "Only property mutators can be indexed!!!");
+		Assert.state(indexed || !(unique || numeric || fulltext), "Only indexed properties can be unique, numeric or full text!!!");
+		Assert.state(!fulltext || !(unique || numeric), "Full text properties cannot be unique or numeric!!!");
+		Assert.state(!fulltext || (method.getParameterTypes().length == 1 && method.getParameterTypes()[0] == String.class), 
+					 "Full text properties must be written by mutators that take a String!!!");
+		this.key = key;
+		this.action = action;
+		this.indexed = indexed;
+		this.unique = unique;
+		this.numericType = numeric ? numericType(method) : null;
+		this.fulltext = fulltext;
+	}
+	
+	//Integral numbers are indexed as longs and others as doubles, so that every value of a property compares
+	private static Class<? extends Number> numericType(Method method) {
+		
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Class<?> type = parameterTypes.length == 1 ? parameterTypes[0] : null;
+		if(type == double.class || type == float.class || type == Double.class || type == Float.class) {
+			return Double.class;
+		} else if(type == long.class || type == int.class || type == short.class || type == byte.class || 
+				  type == Long.class || type == Integer.class || type == Short.class || type == Byte.class) {
+			return Long.class;
+		}
+		
+		throw new IllegalStateException("Numeric properties must be written by mutators that take a number!!!");
+	}
+	
+	String getKey() {
+		return key;
+	}
+	
+	Action getAction() {
+		return action;
+	}
+	
+	boolean isIndexed() {
+		return indexed;
+	}
+	
+	boolean isUnique() {
+		return unique;
+	}
+	
+	/**
+	 * The type numeric property values are indexed as, either Long or Double, or null if the property is not indexed
+	 * as a number.
+	 */
+	Class<? extends Number> getNumericType() {
+		return numericType;
+	}
+	
+	boolean isFulltext() {
+		return fulltext;
+	}
+	
+	@Override
+	boolean isWrite() {
+		return action == Action.WRITE;
+	}
+	
+	@Override
+	Object invoke(EntityInstantiator instantiator, EntityNode entity, Object[] args) {
+		
+		if (action == Action.READ) {
+			checkReadArgs(args);
+			return get(entity);
+		} else if (action == Action.WRITE) {
+			checkWriteArgs(args);
+			set(entity, args[0]);
+			return null;
+		} else {
+			throw new InternalError("Unexpected Action: " + action);
+		}
+	}
+	
+	Object get(EntityNode entity) {
+		return entity.getPropertyOrNull(key);
+	}
+	
+	void set(EntityNode entity, Object value) {
+		entity.setProperty(key, value);
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * The read-only list returned by the READ side of one to many and many to many relationships. Nothing is loaded when
+ * the list is created: iterating streams the relationships of the node one at a time, {@link #get(int)} loads the page
+ * of related entities that contains the index and keeps only that page, and {@link #size()} reads the relationship
+ * counters of the node without creating any entity. The size is read once, so the list reflects the relationships as
+ * they were when it was first read. Lists are not thread safe.
+ * 
+ * @author kchard
+ */
+final class RelatedEntityList extends AbstractList<Object> {
+
+	private final EntityNode entity;
+	private final RelationshipType type;
+	private final Direction direction;
+	private final EntityInstantiator instantiator;
+	private final int pageSize;
+	
+	private List<Object> page = Collections.emptyList();
+	private int pageStart;
+	private Iterator<Relationship> cursor;
+	private int cursorPosition;
+	private int size = -1;
+	
+	RelatedEntityList(EntityNode entity, RelationshipType type, Direction direction, EntityInstantiator instantiator, int pageSize) {
+		this.entity = entity;
+		this.type = type;
+		this.direction = direction;
+		this.instantiator = instantiator;
+		this.pageSize = pageSize;
+	}
+	
+	@Override
+	public Object get(int index) {
+		
+		if(index < 0 || (size >= 0 && index >= size)) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		
+		if(index < pageStart || index >= pageStart + page.size()) {
+			loadPage(index - index % pageSize);
+		}
+		
+		if(index >= pageStart + page.size()) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		
+		return page.get(index - pageStart);
+	}
+	
+	@Override
+	public int size() {
+		
+		if(size < 0) {
+			size = (int) entity.countRelationships(type, direction);
+		}
+		
+		return size;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return size >= 0 ? size == 0 : !entity.getRelationships(type, direction).iterator().hasNext();
+	}
+	
+	@Override
+	public Iterator<Object> iterator() {
+		
+		final Iterator<Relationship> relationships = entity.getRelationships(type, direction).iterator();
+		
+		return new Iterator<Object>() {
+			
+			public boolean hasNext() {
+				return relationships.hasNext();
+			}
+			
+			public Object next() {
+				if(!relationships.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return newInstance(relationships.next());
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	private void loadPage(int start) {
+		
+		if(cursor == null || start < cursorPosition) {
+			cursor = entity.getRelationships(type, direction).iterator();
+			cursorPosition = 0;
+		}
+		
+		while(cursorPosition < start && cursor.hasNext()) {
+			cursor.next();
+			cursorPosition++;
+		}
+		
+		List<Object> loaded = new ArrayList<Object>(pageSize);
+		while(loaded.size() < pageSize && cursor.hasNext()) {
+			loaded.add(newInstance(cursor.next()));
+			cursorPosition++;
+		}
+		
+		if(!cursor.hasNext()) {
+			size = cursorPosition;
+		}
+		
+		page = loaded;
+		pageStart = start;
+	}
+	
+	private Object newInstance(Relationship relationship) {
+		EntityNode related = entity.getRelatedEntity(relationship, direction);
+		return instantiator.newInstance(related, related.getEntityClass());
+	}
+}
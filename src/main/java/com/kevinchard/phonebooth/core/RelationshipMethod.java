@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Iterator;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import com.kevinchard.phonebooth.IllegalRelationshipException;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * Base class for the methods mapped by one of the relationship annotations. The {@link RelationshipType} is created
+ * once from the annotation's name rather than on every invocation, and the mapping on the opposite side of the
+ * relationship is resolved and validated once per entity class rather than on every write.
+ * 
+ * @author kchard
+ */
+abstract class RelationshipMethod extends EntityMethod {
+
+	private final String name;
+	private final RelationshipType type;
+	private final Direction direction;
+	
+	private volatile Opposite opposite;
+	
+	RelationshipMethod(Method method, String name, Direction direction) {
+		super(method);
+		this.name = name;
+		this.type = DynamicRelationshipType.withName(name);
+		this.direction = direction;
+	}
+	
+	String getName() {
+		return name;
+	}
+	
+	RelationshipType getType() {
+		return type;
+	}
+	
+	Direction getDirection() {
+		return direction;
+	}
+	
+	/**
+	 * The kind of relationship method that must be declared with the same name on the other side of this relationship.
+	 */
+	abstract Class<? extends RelationshipMethod> getOppositeKind();
+	
+	/**
+	 * Returns true if this method modifies the relationship, and therefore needs an opposite side to be declared.
+	 */
+	abstract boolean isWrite();
+	
+	/**
+	 * Returns the method mapping the other side of this relationship on otherClass, throwing an
+	 * {@link IllegalRelationshipException} if there is none or if its direction is not the reverse of this one.
+	 */
+	RelationshipMethod getOpposite(Class<?> otherClass) {
+		
+		Opposite resolved = opposite;
+		if(resolved == null || resolved.entityClass != otherClass) {
+			resolved = new Opposite(otherClass, EntityMetamodel.of(otherClass).getRelationship(getOppositeKind(), name));
+			opposite = resolved;
+		}
+		
+		if(resolved.method == null) {
+			throw new IllegalRelationshipException(describe() + " has no opposite relationship named '" + name + "' on " + otherClass.getName());
+		}
+		
+		if(!direction.equals(resolved.method.getDirection().reverse())) {
+			throw new IllegalRelationshipException(describe() + " has direction " + direction + " but its opposite on " + otherClass.getName() + " has direction " + resolved.method.getDirection());
+		}
+		
+		return resolved.method;
+	}
+	
+	/**
+	 * Resolves the opposite side of a mutator against the entity class it is declared to accept, so that mapping errors
+	 * are reported before the first write.
+	 */
+	void validate() {
+		Class<?> otherClass = getOtherClass();
+		if(isWrite() && otherClass != null) {
+			getOpposite(otherClass);
+		}
+	}
+	
+	//The entity class a mutator accepts, or null if it cannot be told from the signature and is checked on each write
+	private Class<?> getOtherClass() {
+		
+		Class<?>[] parameterTypes = getMethod().getParameterTypes();
+		if(parameterTypes.length != 1) {
+			return null;
+		}
+		
+		if(!Iterable.class.isAssignableFrom(parameterTypes[0])) {
+			return parameterTypes[0];
+		}
+		
+		Type parameterType = getMethod().getGenericParameterTypes()[0];
+		if(parameterType instanceof ParameterizedType) {
+			Type elementType = ((ParameterizedType) parameterType).getActualTypeArguments()[0];
+			if(elementType instanceof WildcardType) {
+				elementType = ((WildcardType) elementType).getUpperBounds()[0];
+			}
+			
+			if(elementType instanceof Class && elementType != Object.class) {
+				return (Class<?>) elementType;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Relates the entity to each entity of the given collection with {@link #add(EntityNode, EntityNode)}, committing
+	 * every batch size of them.
+	 */
+	void addAll(EntityNode entity, Iterable<?> others) {
+		
+		Iterator<?> iterator = others.iterator();
+		while(iterator.hasNext()) {
+			Transaction tx = entity.beginTx();
+			try {
+				for(int i = 0; i < entity.getContext().getBatchSize() && iterator.hasNext(); i++) {
+					Object other = iterator.next();
+					if(other != null) {
+						add(entity, EntityProxy.unwrap(other));
+					}
+				}
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+		}
+	}
+	
+	/**
+	 * Relates two entities the way an ADD method of this relationship does. Only collection methods support it.
+	 */
+	void add(EntityNode entity, EntityNode otherEntity) {
+		throw new UnsupportedOperationException(describe() + " is not a collection method");
+	}
+	
+	/**
+	 * Returns the number of relationships of this method's type and direction, as the int or long the method returns.
+	 */
+	Object count(EntityNode entity) {
+		
+		long count = entity.countRelationships(getType(), getDirection());
+		
+		Class<?> returnType = getMethod().getReturnType();
+		if(returnType == int.class || returnType == Integer.class) {
+			return Integer.valueOf((int) count);
+		}
+		
+		return Long.valueOf(count);
+	}
+	
+	static void checkCountReturnType(Method method) {
+		Class<?> returnType = method.getReturnType();
+		Assert.state(returnType == int.class || returnType == Integer.class || returnType == long.class || returnType == Long.class, "Count methods must return an int or a long!!!");
+	}
+	
+	static void checkAddAllParameterType(Method method) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Assert.state(parameterTypes.length == 1 && Iterable.class.isAssignableFrom(parameterTypes[0]), "ADD_ALL methods must take a collection of entities!!!");
+	}
+	
+	private String describe() {
+		return getMethod().getDeclaringClass().getName() + "." + getMethod().getName() + "()";
+	}
+	
+	private static final class Opposite {
+		
+		private final Class<?> entityClass;
+		private final RelationshipMethod method;
+		
+		Opposite(Class<?> entityClass, RelationshipMethod method) {
+			this.entityClass = entityClass;
+			this.method = method;
+		}
+	}
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Expander;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.Evaluator;
+import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.graphdb.traversal.UniquenessFactory;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.kernel.Traversal;
+
+import com.kevinchard.phonebooth.EntityTraversal;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * The steps of an {@link EntityTraversal}, resolved against the relationship methods of the entity interfaces along
+ * the path and compiled into a Neo4j {@link TraversalDescription} the first time the path is traversed.
+ * <p>
+ * The description expands every relationship type of the path at every node, so each branch is matched against the
+ * steps by its uniqueness filter before the traversal keeps it: branches that do not follow the steps, or whose node
+ * is not of the class of its step, are dropped without being marked as visited. Nodes are visited once per step
+ * rather than once per traversal, because a node reached by an earlier step still has a different rest of the path to
+ * follow, and breadth first order reaches every node of a repeated step with the fewest hops first.
+ * 
+ * @author kchard
+ */
+final class RelationshipPath {
+
+	private final Class<?> startClass;
+	private final Step[] steps;
+	private final boolean excludeVisited;
+	private final EntityTypeRegistry typeRegistry;
+	
+	private volatile TraversalDescription description;
+	
+	private RelationshipPath(Class<?> startClass, Step[] steps, boolean excludeVisited, EntityTypeRegistry typeRegistry) {
+		this.startClass = startClass;
+		this.steps = steps;
+		this.excludeVisited = excludeVisited;
+		this.typeRegistry = typeRegistry;
+	}
+	
+	/**
+	 * Returns the path with no steps from the entities of the given class.
+	 */
+	static RelationshipPath start(Class<?> startClass, EntityTypeRegistry typeRegistry) {
+		Assert.notNull(startClass, "startClass cannot be null!!!");
+		return new RelationshipPath(startClass, new Step[0], false, typeRegistry);
+	}
+	
+	Class<?> getStartClass() {
+		return startClass;
+	}
+	
+	/**
+	 * The entity class at the end of the path.
+	 */
+	Class<?> getEntityClass() {
+		return steps.length == 0 ? startClass : steps[steps.length - 1].entityClass;
+	}
+	
+	/**
+	 * Returns this path followed by the relationship with the given name declared by the entity class at its end, in
+	 * the given direction or, if direction is null, in the only direction it is declared in.
+	 */
+	RelationshipPath follow(String name, Direction direction, Class<?> entityClass) {
+		Assert.notNull(name, "relationship cannot be null!!!");
+		Assert.notNull(entityClass, "entityClass cannot be null!!!");
+		
+		Class<?> fromClass = getEntityClass();
+		RelationshipMethod relationship = null;
+		for(EntityMethod entityMethod : EntityMetamodel.of(fromClass).getMethods()) {
+			if(entityMethod instanceof RelationshipMethod && ((RelationshipMethod) entityMethod).getName().equals(name)) {
+				RelationshipMethod candidate = (RelationshipMethod) entityMethod;
+				if(direction != null && !candidate.getDirection().equals(direction)) {
+					continue;
+				}
+				
+				if(relationship != null && !relationship.getDirection().equals(candidate.getDirection())) {
+					throw new IllegalArgumentException(fromClass.getName() + " declares '" + name + "' in more than one direction, the direction to follow must be given");
+				}
+				relationship = candidate;
+			}
+		}
+		
+		if(relationship == null) {
+			throw new IllegalArgumentException(fromClass.getName() + " declares no relationship named '" + name + "'" + (direction == null ? "" : " in direction " + direction));
+		}
+		
+		if(steps.length > 0 && steps[steps.length - 1].maxHops > 1 && steps[steps.length - 1].type.name().equals(name)) {
+			throw new IllegalArgumentException("'" + name + "' cannot be followed right after it is repeated");
+		}
+		
+		Step[] followed = Arrays.copyOf(steps, steps.length + 1);
+		followed[steps.length] = new Step(relationship.getType(), relationship.getDirection(), entityClass, 1);
+		return new RelationshipPath(startClass, followed, excludeVisited, typeRegistry);
+	}
+	
+	/**
+	 * Returns this path with its last step followed from once up to maxHops times.
+	 */
+	RelationshipPath repeat(int maxHops) {
+		Assert.state(steps.length > 0, "only a step can be repeated!!!");
+		Assert.state(maxHops > 0, "maxHops must be positive!!!");
+		
+		Step last = steps[steps.length - 1];
+		Class<?> fromClass = steps.length == 1 ? startClass : steps[steps.length - 2].entityClass;
+		if(maxHops > 1 && !last.entityClass.equals(fromClass)) {
+			throw new IllegalArgumentException("'" + last.type.name() + "' leads from " + fromClass.getName() + " to " + last.entityClass.getName() + " and cannot be repeated");
+		}
+		
+		Step[] repeated = steps.clone();
+		repeated[steps.length - 1] = new Step(last.type, last.direction, last.entityClass, maxHops);
+		return new RelationshipPath(startClass, repeated, excludeVisited, typeRegistry);
+	}
+	
+	/**
+	 * Returns this path with nodes visited once per traversal rather than once per step.
+	 */
+	RelationshipPath excludeVisited() {
+		return new RelationshipPath(startClass, steps, true, typeRegistry);
+	}
+	
+	/**
+	 * Returns the nodes at the end of the path from the given node, found as the iterator advances.
+	 */
+	Iterator<Node> traverse(Node start) {
+		Assert.state(steps.length > 0, "a traversal must follow at least one relationship!!!");
+		
+		TraversalDescription compiled = description;
+		if(compiled == null) {
+			compiled = compile();
+			description = compiled;
+		}
+		
+		return compiled.traverse(start).nodes().iterator();
+	}
+	
+	private TraversalDescription compile() {
+		
+		Map<String, Direction> directions = new HashMap<String, Direction>();
+		Map<String, RelationshipType> types = new HashMap<String, RelationshipType>();
+		for(Step step : steps) {
+			Direction direction = directions.get(step.type.name());
+			directions.put(step.type.name(), direction == null || direction.equals(step.direction) ? step.direction : Direction.BOTH);
+			types.put(step.type.name(), step.type);
+		}
+		
+		Expander expander = Traversal.emptyExpander();
+		for(Map.Entry<String, Direction> entry : directions.entrySet()) {
+			expander = expander.add(types.get(entry.getKey()), entry.getValue());
+		}
+		
+		return Traversal.description()
+						.breadthFirst()
+						.expand(expander)
+						.uniqueness(new UniquenessFactory() {
+							@Override
+							public UniquenessFilter create(Object optionalParameter) {
+								return new StepUniqueness();
+							}
+						})
+						.evaluator(new StepEvaluator());
+	}
+	
+	/**
+	 * Returns the position of the end of the path in the steps, as the index of the step its last relationship was
+	 * followed by and the number of hops of that step so far, or null if the path does not follow the steps. Since a
+	 * repeated step is never followed by a step of the same relationship, a relationship that matches the step being
+	 * repeated always continues it.
+	 */
+	private int[] position(Path path) {
+		
+		int step = -1;
+		int hops = 0;
+		Node node = path.startNode();
+		for(Relationship relationship : path.relationships()) {
+			if(step >= 0 && hops < steps[step].maxHops && steps[step].matches(relationship, node)) {
+				hops++;
+			} else if(step + 1 < steps.length && steps[step + 1].matches(relationship, node)) {
+				step++;
+				hops = 1;
+			} else {
+				return null;
+			}
+			node = relationship.getOtherNode(node);
+		}
+		
+		return new int[] { step, hops };
+	}
+	
+	private static final class Step {
+		
+		private final RelationshipType type;
+		private final Direction direction;
+		private final Class<?> entityClass;
+		private final int maxHops;
+		
+		Step(RelationshipType type, Direction direction, Class<?> entityClass, int maxHops) {
+			this.type = type;
+			this.direction = direction;
+			this.entityClass = entityClass;
+			this.maxHops = maxHops;
+		}
+		
+		boolean matches(Relationship relationship, Node from) {
+			if(!relationship.isType(type)) {
+				return false;
+			} else if(direction.equals(Direction.OUTGOING)) {
+				return relationship.getStartNode().equals(from);
+			} else if(direction.equals(Direction.INCOMING)) {
+				return relationship.getEndNode().equals(from);
+			}
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * Keeps the branches that follow the steps to a node of the class of their step that has not been visited by
+	 * that step, or by any step if visited nodes are excluded.
+	 */
+	private final class StepUniqueness implements UniquenessFilter {
+		
+		private final List<Set<Long>> visited;
+		
+		StepUniqueness() {
+			int count = excludeVisited ? 1 : steps.length;
+			this.visited = new ArrayList<Set<Long>>(count);
+			for(int i = 0; i < count; i++) {
+				visited.add(new HashSet<Long>());
+			}
+		}
+		
+		@Override
+		public boolean checkFirst(TraversalBranch branch) {
+			if(excludeVisited) {
+				visited.get(0).add(branch.node().getId());
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public boolean check(TraversalBranch branch) {
+			
+			int[] position = position(branch.position());
+			if(position == null) {
+				return false;
+			}
+			
+			Node node = branch.node();
+			if(!steps[position[0]].entityClass.equals(EntityNode.getEntityClass(node, typeRegistry))) {
+				return false;
+			}
+			
+			return visited.get(excludeVisited ? 0 : position[0]).add(node.getId());
+		}
+	}
+	
+	/**
+	 * Includes the nodes reached by the last step, and stops at the last hop of the last step.
+	 */
+	private final class StepEvaluator implements Evaluator {
+		
+		@Override
+		public Evaluation evaluate(Path path) {
+			
+			if(path.length() == 0) {
+				return Evaluation.EXCLUDE_AND_CONTINUE;
+			}
+			
+			int[] position = position(path);
+			Step step = steps[position[0]];
+			if(position[0] < steps.length - 1) {
+				return Evaluation.EXCLUDE_AND_CONTINUE;
+			}
+			
+			return position[1] < step.maxHops ? Evaluation.INCLUDE_AND_CONTINUE : Evaluation.INCLUDE_AND_PRUNE;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.kevinchard.phonebooth.Repository;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * The mapping of a {@link Repository} interface's finder methods to their {@link FinderMethod} query plans. Like an
+ * {@link EntityMetamodel}, a repository metamodel is built once per interface, the first time a repository of it is
+ * requested, and shared by every repository of that interface afterwards.
+ * 
+ * @author kchard
+ */
+final class RepositoryMetamodel {
+
+	private static final ConcurrentMap<Class<?>, RepositoryMetamodel> metamodels = new ConcurrentHashMap<Class<?>, RepositoryMetamodel>();
+	
+	private final Class<?> entityClass;
+	private final Map<Method, FinderMethod> methods;
+	
+	private RepositoryMetamodel(Class<?> repositoryClass) {
+		
+		if(!repositoryClass.isInterface()) {
+			throw new IllegalArgumentException(repositoryClass.getName() + " is not an interface");
+		}
+		
+		Repository annotation = repositoryClass.getAnnotation(Repository.class);
+		if(annotation == null) {
+			throw new IllegalArgumentException(repositoryClass.getName() + " is not annotated with @" + Repository.class.getSimpleName());
+		}
+		
+		EntityMetamodel metamodel = EntityMetamodel.of(annotation.value());
+		Map<Method, FinderMethod> methods = new HashMap<Method, FinderMethod>();
+		for(Method method : repositoryClass.getMethods()) {
+			methods.put(method, FinderMethod.create(method, metamodel));
+		}
+		
+		this.entityClass = annotation.value();
+		this.methods = methods;
+	}
+	
+	Class<?> getEntityClass() {
+		return entityClass;
+	}
+	
+	FinderMethod getMethod(Method method) {
+		return methods.get(method);
+	}
+	
+	static RepositoryMetamodel of(Class<?> repositoryClass) {
+		Assert.notNull(repositoryClass, "repositoryClass cannot be null!!!");
+		
+		RepositoryMetamodel metamodel = metamodels.get(repositoryClass);
+		if(metamodel == null) {
+			RepositoryMetamodel created = new RepositoryMetamodel(repositoryClass);
+			metamodel = metamodels.putIfAbsent(repositoryClass, created);
+			if(metamodel == null) {
+				metamodel = created;
+			}
+		}
+		
+		return metamodel;
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.kevinchard.phonebooth.Repository;
+
+/**
+ * Implements a {@link Repository} interface by running the query plans of its {@link RepositoryMetamodel} against the
+ * topology of the entity manager it was created by.
+ * 
+ * @author kchard
+ */
+final class RepositoryProxy implements InvocationHandler {
+
+	private static Method hashCodeMethod;
+	private static Method equalsMethod;
+	private static Method toStringMethod;
+	
+	static {
+		try {
+			hashCodeMethod = Object.class.getMethod("hashCode", (Class<?>[]) null);
+			equalsMethod = Object.class.getMethod("equals", new Class<?>[] { Object.class });
+			toStringMethod = Object.class.getMethod("toString", (Class<?>[]) null);
+		} catch (NoSuchMethodException e) {
+			throw new NoSuchMethodError(e.getMessage());
+		}
+	}
+	
+	private final NeoEntityManager entityManager;
+	private final TopologyManager topologyManager;
+	private final RepositoryMetamodel metamodel;
+	
+	private RepositoryProxy(NeoEntityManager entityManager, TopologyManager topologyManager, RepositoryMetamodel metamodel) {
+		this.entityManager = entityManager;
+		this.topologyManager = topologyManager;
+		this.metamodel = metamodel;
+	}
+	
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		
+		if (method.getDeclaringClass() == Object.class) {
+			return processObjectMethods(proxy, method, args);
+		}
+		
+		FinderMethod finderMethod = metamodel.getMethod(method);
+		if(finderMethod.isList()) {
+			List<Object> entities = new ArrayList<Object>();
+			for(EntityNode entityNode : finderMethod.find(topologyManager, args, Integer.MAX_VALUE)) {
+				entities.add(entityManager.newInstance(entityNode));
+			}
+			
+			return entities;
+		}
+		
+		List<EntityNode> first = finderMethod.find(topologyManager, args, 1);
+		return first.isEmpty() ? null : entityManager.newInstance(first.get(0));
+	}
+	
+	private Object processObjectMethods(Object proxy, Method method, Object[] args) {
+		if (method.equals(hashCodeMethod)) {
+			return System.identityHashCode(proxy);
+		} else if (method.equals(equalsMethod)) {
+			return proxy == args[0];
+		} else if (method.equals(toStringMethod)) {
+			return "Repository of " + metamodel.getEntityClass().getName();
+		} else {
+			throw new InternalError("unexpected Object method dispatched: " + method);
+		}
+	}
+	
+	static Object createProxy(NeoEntityManager entityManager, TopologyManager topologyManager, Class<?> repositoryClass) {
+		RepositoryProxy handler = new RepositoryProxy(entityManager, topologyManager, RepositoryMetamodel.of(repositoryClass));
+		return Proxy.newProxyInstance(RepositoryProxy.class.getClassLoader(), new Class<?>[] { repositoryClass }, handler);
+	}
+}
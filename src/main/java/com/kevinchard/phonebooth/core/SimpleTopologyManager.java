@@ -18,8 +18,20 @@
 package com.kevinchard.phonebooth.core;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -27,20 +39,57 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.index.lucene.ValueContext;
 
 import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityCursor;
+import com.kevinchard.phonebooth.ScoredCursor;
 import com.kevinchard.phonebooth.UnknownEntityException;
+import com.kevinchard.phonebooth.util.Assert;
 
 
 final class SimpleTopologyManager implements TopologyManager {
 	
-	private static final String ENTITY_REF_TYPE = "ENTITY_REF_TYPE";
+	static final String ENTITY_REF_TYPE = "ENTITY_REF_TYPE";
+	static final String ENTITY_TYPE_TAG = "ENTITY_TYPE_TAG";
+	//The ids of the bucket nodes new entities of a type are linked from, absent when they are linked from the entity
+	//definition node itself
+	static final String ENTITY_BUCKETS = "ENTITY_BUCKETS";
+	static final RelationshipType ENTITY_BUCKET = DynamicRelationshipType.withName("ENTITY_BUCKET");
+	//The node index of the ids of the entities of every type, keyed by type, that pages are read from
+	static final String ENTITY_ID_INDEX = "ENTITY_IDS";
+	//Set on the entity definition nodes of the types whose entities linked by the entity type are all in the id index,
+	//absent for types defined before the id index existed
+	static final String ENTITY_IDS_INDEXED = "ENTITY_IDS_INDEXED";
+	//New entities are also linked from their bucket by the entity type with this suffix, until a page of their type
+	//adds them to the id index
+	private static final String UNINDEXED_SUFFIX = "_UNINDEXED";
 	private static final String SUFFIX = "_REF";
 	
 	private final GraphDatabaseService dbService;
+	private final TopologyContext context;
+	private final AtomicInteger nextBucket = new AtomicInteger();
+	//the entity definitions resolved by cacheEntityDefinition, others are looked up in the graph on every use
+	private final ConcurrentMap<Class<?>, EntityDefinition> definitions = new ConcurrentHashMap<Class<?>, EntityDefinition>();
+	//created by the first query, its cache of execution plans is what makes later runs of a query skip parsing
+	private final Object executionEngineLock = new Object();
+	private volatile ExecutionEngine executionEngine;
 	
 	SimpleTopologyManager(GraphDatabaseService dbService) {
+		this(dbService, TopologyContext.DEFAULTS);
+	}
+	
+	SimpleTopologyManager(GraphDatabaseService dbService, TopologyContext context) {
 		this.dbService = dbService;
+		this.context = context;
+	}
+	
+	@Override
+	public TopologyContext getContext() {
+		return context;
 	}
 	
 	@Override
@@ -55,6 +104,10 @@ final class SimpleTopologyManager implements TopologyManager {
 	
 	@Override
 	public boolean entityDefinitionExists(Class<?> entityClass) {
+		if(definitions.containsKey(entityClass)) {
+			return true;
+		}
+		
 		Entity annotation = entityClass.getAnnotation(Entity.class);
 		if(annotation == null) {
 			return false;
@@ -65,13 +118,19 @@ final class SimpleTopologyManager implements TopologyManager {
 		return dbService.getReferenceNode().getSingleRelationship(type, Direction.OUTGOING) != null;
 	}
 	
+	@Override
+	public void cacheEntityDefinition(Class<?> entityClass) {
+		Node entityDefinitionNode = lookupEntityDefinitionNode(entityClass);
+		definitions.put(entityClass, new EntityDefinition(entityDefinitionNode.getId(), getEntityType(entityClass)));
+	}
+	
 	@Override
 	public RelationshipType addEntityDefinition(Class<?> entityClass) {
 		Transaction tx = dbService.beginTx();
 		
 		RelationshipType type = null;
 		try {
-			type = internalAddEntityDefinition(entityClass);
+			type = internalAddEntityDefinition(tx, entityClass);
 			tx.success();
 		} finally {
 			tx.finish();
@@ -101,46 +160,361 @@ final class SimpleTopologyManager implements TopologyManager {
 	@Override
 	public EntityNode createNode(Class<?> entityClass) {
 	
-		if(!entityDefinitionExists(entityClass)) {
-			throw new UnknownEntityException();
-		}
+		Node entityDefinitionNode = getEntityDefinitionNode(entityClass);
+		RelationshipType type = getEntityType(entityClass);
 		
 		Node node = null;
 		Transaction tx = dbService.beginTx();
 		try {
-			Entity annotation = entityClass.getAnnotation(Entity.class);
-			RelationshipType type = createRelationshipType(annotation.value());
 			node = dbService.createNode();
-			EntityNode.setEntityClass(node, entityClass);
-			Node entityDefinitionNode = dbService.getReferenceNode().getSingleRelationship(type, Direction.OUTGOING).getEndNode();
-			entityDefinitionNode.createRelationshipTo(node, DynamicRelationshipType.withName(annotation.value()));
+			EntityNode.setEntityClass(node, entityClass, context.getTypeRegistry());
+			link(chooseBucket(entityDefinitionNode), node, type);
 			tx.success();
 		} finally {
 			tx.finish();
 		}
 		
-		return new EntityNode(node, entityClass);
+		return EntityNode.trusted(node, entityClass, context);
+	}
+	
+	@Override
+	public List<EntityNode> createNodes(Class<?> entityClass, int count) {
+		
+		Assert.state(count >= 0, "count cannot be negative!!!");
+		
+		Node entityDefinitionNode = getEntityDefinitionNode(entityClass);
+		RelationshipType type = getEntityType(entityClass);
+		
+		List<EntityNode> entities = new ArrayList<EntityNode>(count);
+		while(entities.size() < count) {
+			Transaction tx = dbService.beginTx();
+			try {
+				for(int i = 0; i < context.getBatchSize() && entities.size() < count; i++) {
+					Node node = dbService.createNode();
+					EntityNode.setEntityClass(node, entityClass, context.getTypeRegistry());
+					link(chooseBucket(entityDefinitionNode), node, type);
+					entities.add(EntityNode.trusted(node, entityClass, context));
+				}
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+		}
+		
+		return entities;
 	}
 	
 	@Override
 	public List<EntityNode> getAll(Class<?> entityClass) {
 		
+		List<EntityNode> entities = new ArrayList<EntityNode>();
+		for(Iterator<EntityNode> iterator = iterate(entityClass); iterator.hasNext(); ) {
+			entities.add(iterator.next());
+		}
+		
+		return entities;
+	}
+	
+	@Override
+	public Iterator<EntityNode> iterate(Class<?> entityClass) {
+		return iterate(entityClass, getBuckets(getEntityDefinitionNode(entityClass)));
+	}
+	
+	@Override
+	public List<Iterator<EntityNode>> partition(Class<?> entityClass) {
+		
+		List<Iterator<EntityNode>> partitions = new ArrayList<Iterator<EntityNode>>();
+		for(Node bucket : getBuckets(getEntityDefinitionNode(entityClass))) {
+			partitions.add(iterate(entityClass, Collections.singletonList(bucket)));
+		}
+		
+		return partitions;
+	}
+	
+	private Iterator<EntityNode> iterate(final Class<?> entityClass, List<Node> bucketList) {
+		
+		final Iterator<Node> buckets = bucketList.iterator();
+		final RelationshipType type = getEntityType(entityClass);
+		
+		return new Iterator<EntityNode>() {
+			
+			private Iterator<Relationship> relationships = Collections.<Relationship>emptyList().iterator();
+			
+			@Override
+			public boolean hasNext() {
+				while(!relationships.hasNext() && buckets.hasNext()) {
+					relationships = buckets.next().getRelationships(type, Direction.OUTGOING).iterator();
+				}
+				
+				return relationships.hasNext();
+			}
+			
+			@Override
+			public EntityNode next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				
+				return EntityNode.trusted(relationships.next().getEndNode(), entityClass, context);
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	@Override
+	public List<EntityNode> getPage(Class<?> entityClass, Long afterId, int size) {
+		
+		Assert.state(size > 0, "size must be positive!!!");
+		
+		RelationshipType type = getEntityType(entityClass);
+		indexIds(type, getEntityDefinitionNode(entityClass));
+		
+		QueryContext query = QueryContext.numericRange(type.name(), afterId == null ? 0L : afterId + 1, null, true, true)
+										 .sort(new Sort(new SortField(type.name(), SortField.LONG)))
+										 .top(size);
+		
+		List<EntityNode> entities = new ArrayList<EntityNode>(size);
+		IndexHits<Node> hits = getIdIndex().query(query);
+		try {
+			for(Node node : hits) {
+				entities.add(EntityNode.trusted(node, entityClass, context));
+			}
+		} finally {
+			hits.close();
+		}
+		
+		return entities;
+	}
+	
+	/**
+	 * Adds the entities of a type that are not in the id index yet to it: those linked by the unindexed type, whose
+	 * link is deleted once they are, and, the first time, all of those of a type defined before the id index existed.
+	 * New entities are only indexed here, so that creating one does not write the index.
+	 */
+	private synchronized void indexIds(RelationshipType type, Node entityDefinitionNode) {
+		
+		Index<Node> index = getIdIndex();
+		RelationshipType unindexedType = getUnindexedType(type);
+		
+		if(!entityDefinitionNode.hasProperty(ENTITY_IDS_INDEXED)) {
+			for(Node bucket : getBuckets(entityDefinitionNode)) {
+				Iterator<Relationship> relationships = bucket.getRelationships(type, Direction.OUTGOING).iterator();
+				while(relationships.hasNext()) {
+					Transaction tx = dbService.beginTx();
+					try {
+						for(int i = 0; i < context.getBatchSize() && relationships.hasNext(); i++) {
+							Node node = relationships.next().getEndNode();
+							index.remove(node, type.name());
+							index.add(node, type.name(), ValueContext.numeric(node.getId()));
+							
+							Relationship unindexed = node.getSingleRelationship(unindexedType, Direction.INCOMING);
+							if(unindexed != null) {
+								unindexed.delete();
+							}
+						}
+						tx.success();
+					} finally {
+						tx.finish();
+					}
+				}
+			}
+			
+			Transaction tx = dbService.beginTx();
+			try {
+				entityDefinitionNode.setProperty(ENTITY_IDS_INDEXED, true);
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+		}
+		
+		for(Node bucket : getBuckets(entityDefinitionNode)) {
+			boolean indexed = !bucket.hasRelationship(Direction.OUTGOING, unindexedType);
+			while(!indexed) {
+				Transaction tx = dbService.beginTx();
+				try {
+					//linking an entity locks its bucket, so none is linked while the bucket is caught up
+					tx.acquireWriteLock(bucket);
+					int count = 0;
+					for(Relationship relationship : bucket.getRelationships(unindexedType, Direction.OUTGOING)) {
+						if(count++ == context.getBatchSize()) {
+							break;
+						}
+						
+						Node node = relationship.getEndNode();
+						index.add(node, type.name(), ValueContext.numeric(node.getId()));
+						relationship.delete();
+					}
+					indexed = count <= context.getBatchSize();
+					tx.success();
+				} finally {
+					tx.finish();
+				}
+			}
+		}
+	}
+	
+	private Index<Node> getIdIndex() {
+		return dbService.index().forNodes(ENTITY_ID_INDEX);
+	}
+	
+	/**
+	 * Removes the given entity node from the id index unless it is still linked as unindexed.
+	 */
+	static void removeId(Node node, Class<?> entityClass) {
+		
 		Entity annotation = entityClass.getAnnotation(Entity.class);
-		if(annotation == null) {
-			throw new UnknownEntityException();
+		if(annotation != null && !node.hasRelationship(getUnindexedType(DynamicRelationshipType.withName(annotation.value())), Direction.INCOMING)) {
+			node.getGraphDatabase().index().forNodes(ENTITY_ID_INDEX).remove(node);
 		}
+	}
+	
+	private static void link(Node bucket, Node node, RelationshipType type) {
+		bucket.createRelationshipTo(node, type);
+		bucket.createRelationshipTo(node, getUnindexedType(type));
+	}
+	
+	@Override
+	public List<EntityNode> findBy(Class<?> entityClass, String key, Object value) {
 		
-		RelationshipType type = createRelationshipType(annotation.value());
-		Node entityRefNode = dbService.getReferenceNode().getSingleRelationship(type, Direction.OUTGOING).getEndNode();
+		EntityMetamodel metamodel = getIndexedMetamodel(entityClass, key);
 		
 		List<EntityNode> entities = new ArrayList<EntityNode>();
-		for(Relationship relationship : entityRefNode.getRelationships(DynamicRelationshipType.withName(annotation.value()), Direction.OUTGOING)) {
-			entities.add(new EntityNode(relationship.getEndNode(), entityClass));
+		IndexHits<Node> hits = getIndex(metamodel).get(key, metamodel.getIndexValue(key, value));
+		try {
+			for(Node node : hits) {
+				entities.add(EntityNode.trusted(node, entityClass, context));
+			}
+		} finally {
+			hits.close();
 		}
 		
 		return entities;
 	}
 	
+	@Override
+	public EntityNode getOrCreate(Class<?> entityClass, String key, Object value) {
+		
+		EntityMetamodel metamodel = getIndexedMetamodel(entityClass, key);
+		if(!metamodel.isUnique(key)) {
+			throw new IllegalArgumentException("'" + key + "' is not a unique property of " + entityClass.getName());
+		}
+		
+		Index<Node> index = getIndex(metamodel);
+		Object indexValue = metamodel.getIndexValue(key, value);
+		Node node = index.get(key, indexValue).getSingle();
+		if(node != null) {
+			return EntityNode.trusted(node, entityClass, context);
+		}
+		
+		//create the node optimistically, the value is only locked when it is claimed for the node
+		Transaction tx = dbService.beginTx();
+		try {
+			EntityNode created = createNode(entityClass);
+			node = index.putIfAbsent(created.getNode(), key, indexValue);
+			if(node == null) {
+				created.getNode().setProperty(key, value);
+			} else {
+				created.delete();
+			}
+			tx.success();
+			
+			return node == null ? created : EntityNode.trusted(node, entityClass, context);
+		} finally {
+			tx.finish();
+		}
+	}
+	
+	@Override
+	public EntityCursor<EntityNode> findRange(Class<?> entityClass, String key, Number from, Number to, String orderBy, boolean descending, int limit) {
+		
+		EntityMetamodel metamodel = getNumericMetamodel(entityClass, key);
+		getNumericMetamodel(entityClass, orderBy);
+		Assert.state(limit > 0, "limit must be positive!!!");
+		
+		Number min = metamodel.getIndexBound(key, from, true);
+		Number max = metamodel.getIndexBound(key, to, false);
+		if(min == null && max == null) {
+			//the type of an open range is taken from its bounds
+			min = metamodel.getIndexBound(key, Long.MIN_VALUE, true);
+		}
+		
+		int sortType = metamodel.getNumericType(orderBy) == Double.class ? SortField.DOUBLE : SortField.LONG;
+		QueryContext query = QueryContext.numericRange(key, min, max, true, true)
+										 .sort(new Sort(new SortField(orderBy, sortType, descending)))
+										 .top(limit);
+		
+		return new IndexCursor(getIndex(metamodel).query(query), entityClass);
+	}
+	
+	@Override
+	public ScoredCursor<EntityNode> search(Class<?> entityClass, String key, String query, int limit) {
+		
+		Entity annotation = entityClass.getAnnotation(Entity.class);
+		if(annotation == null) {
+			throw new UnknownEntityException();
+		}
+		
+		EntityMetamodel metamodel = EntityMetamodel.of(entityClass);
+		if(!metamodel.isFulltext(key)) {
+			throw new IllegalArgumentException("'" + key + "' is not a full text property of " + entityClass.getName());
+		}
+		Assert.state(limit > 0, "limit must be positive!!!");
+		
+		IndexHits<Node> hits = metamodel.getFulltextIndex(dbService).query(key, new QueryContext(query).sortByScore().top(limit));
+		return new IndexCursor(hits, entityClass);
+	}
+	
+	@Override
+	public ExecutionResult query(String query, Map<String, Object> params) {
+		
+		ExecutionEngine engine = executionEngine;
+		if(engine == null) {
+			synchronized(executionEngineLock) {
+				engine = executionEngine;
+				if(engine == null) {
+					engine = new ExecutionEngine(dbService);
+					executionEngine = engine;
+				}
+			}
+		}
+		
+		return engine.execute(query, params);
+	}
+	
+	@Override
+	public Iterator<EntityNode> traverse(EntityNode start, RelationshipPath path) {
+		
+		if(!start.getEntityClass().equals(path.getStartClass())) {
+			throw new IllegalArgumentException("The traversal starts from " + path.getStartClass().getName() + " and cannot be run from " + start.getEntityClass().getName());
+		}
+		
+		final Iterator<Node> nodes = path.traverse(start.getNode());
+		final Class<?> entityClass = path.getEntityClass();
+		
+		return new Iterator<EntityNode>() {
+			
+			@Override
+			public boolean hasNext() {
+				return nodes.hasNext();
+			}
+			
+			@Override
+			public EntityNode next() {
+				return EntityNode.trusted(nodes.next(), entityClass, context);
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
 	@Override
 	public EntityNode get(Long id, Class<?> entityClass) {
 		
@@ -149,10 +523,318 @@ final class SimpleTopologyManager implements TopologyManager {
 			throw new UnknownEntityException();
 		}
 		
-		return new EntityNode(dbService.getNodeById(id), entityClass);
+		return new EntityNode(dbService.getNodeById(id), entityClass, context);
+	}
+	
+	@Override
+	public void deleteAll(Collection<Long> ids, Class<?> entityClass) {
+		
+		Iterator<Long> iterator = ids.iterator();
+		while(iterator.hasNext()) {
+			Transaction tx = dbService.beginTx();
+			try {
+				for(int i = 0; i < context.getBatchSize() && iterator.hasNext(); i++) {
+					get(iterator.next(), entityClass).delete();
+				}
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+		}
 	}
 	
-	private RelationshipType internalAddEntityDefinition(Class<?> entityClass) {
+	@Override
+	public int getTypeTag(Class<?> entityClass) {
+		
+		Node entityDefinitionNode = getEntityDefinitionNode(entityClass);
+		Integer tag = (Integer) entityDefinitionNode.getProperty(ENTITY_TYPE_TAG, null);
+		if(tag != null) {
+			return tag;
+		}
+		
+		//entity definitions added by earlier versions have no tag
+		Transaction tx = dbService.beginTx();
+		try {
+			tx.acquireWriteLock(entityDefinitionNode);
+			tag = (Integer) entityDefinitionNode.getProperty(ENTITY_TYPE_TAG, null);
+			if(tag == null) {
+				tag = assignTypeTag(tx, entityDefinitionNode);
+			}
+			tx.success();
+		} finally {
+			tx.finish();
+		}
+		
+		return tag;
+	}
+	
+	@Override
+	public long migrateTypeTags(Class<?> entityClass, int batchSize) {
+		
+		Assert.state(batchSize > 0, "batchSize must be positive!!!");
+		
+		Integer tag = context.getTypeRegistry().getTag(entityClass);
+		Assert.notNull(tag, "entityClass must be registered before its nodes can be migrated!!!");
+		
+		RelationshipType type = getEntityType(entityClass);
+		
+		long migrated = 0;
+		for(Node bucket : getBuckets(getEntityDefinitionNode(entityClass))) {
+			Iterator<Relationship> relationships = bucket.getRelationships(type, Direction.OUTGOING).iterator();
+			while(relationships.hasNext()) {
+				Transaction tx = dbService.beginTx();
+				try {
+					for(int i = 0; i < batchSize && relationships.hasNext(); ) {
+						Node node = relationships.next().getEndNode();
+						if(node.getProperty(EntityNode.CLASS_PROPERTY_KEY, null) instanceof String) {
+							tx.acquireWriteLock(node);
+							node.setProperty(EntityNode.CLASS_PROPERTY_KEY, tag);
+							i++;
+							migrated++;
+						}
+					}
+					tx.success();
+				} finally {
+					tx.finish();
+				}
+			}
+		}
+		
+		return migrated;
+	}
+	
+	@Override
+	public long migrateTypeBuckets(Class<?> entityClass, int batchSize) {
+		
+		Assert.state(batchSize > 0, "batchSize must be positive!!!");
+		
+		RelationshipType type = getEntityType(entityClass);
+		Node entityDefinitionNode = getEntityDefinitionNode(entityClass);
+		
+		//new entities go to the new buckets from here on, the others are emptied into them
+		List<Node> buckets;
+		Transaction tx = dbService.beginTx();
+		try {
+			tx.acquireWriteLock(entityDefinitionNode);
+			buckets = resizeBuckets(entityDefinitionNode, context.getTypeBuckets());
+			tx.success();
+		} finally {
+			tx.finish();
+		}
+		
+		long moved = 0;
+		for(Node bucket : getBuckets(entityDefinitionNode)) {
+			if(!buckets.contains(bucket)) {
+				moved += emptyBucket(bucket, type, buckets, batchSize);
+			}
+		}
+		
+		return moved;
+	}
+	
+	/**
+	 * Returns the nodes the entities of a type are linked from: the entity definition node and its bucket nodes.
+	 */
+	private List<Node> getBuckets(Node entityDefinitionNode) {
+		List<Node> buckets = new ArrayList<Node>();
+		buckets.add(entityDefinitionNode);
+		for(Relationship relationship : entityDefinitionNode.getRelationships(ENTITY_BUCKET, Direction.OUTGOING)) {
+			buckets.add(relationship.getEndNode());
+		}
+		
+		return buckets;
+	}
+	
+	/**
+	 * Returns the node to link a new entity of a type from, taking turns between the buckets of the type.
+	 */
+	private Node chooseBucket(Node entityDefinitionNode) {
+		long[] ids = (long[]) entityDefinitionNode.getProperty(ENTITY_BUCKETS, null);
+		if(ids == null) {
+			return entityDefinitionNode;
+		}
+		
+		return dbService.getNodeById(ids[(nextBucket.getAndIncrement() & Integer.MAX_VALUE) % ids.length]);
+	}
+	
+	/**
+	 * Makes count buckets the ones new entities of a type are linked from, keeping as many of the current ones as
+	 * possible, and returns them.
+	 */
+	private List<Node> resizeBuckets(Node entityDefinitionNode, int count) {
+		
+		List<Node> buckets = new ArrayList<Node>(count);
+		if(count == 1) {
+			entityDefinitionNode.removeProperty(ENTITY_BUCKETS);
+			buckets.add(entityDefinitionNode);
+			return buckets;
+		}
+		
+		long[] ids = (long[]) entityDefinitionNode.getProperty(ENTITY_BUCKETS, new long[0]);
+		for(int i = 0; i < ids.length && i < count; i++) {
+			buckets.add(dbService.getNodeById(ids[i]));
+		}
+		while(buckets.size() < count) {
+			Node bucket = dbService.createNode();
+			entityDefinitionNode.createRelationshipTo(bucket, ENTITY_BUCKET);
+			buckets.add(bucket);
+		}
+		
+		long[] bucketIds = new long[count];
+		for(int i = 0; i < count; i++) {
+			bucketIds[i] = buckets.get(i).getId();
+		}
+		entityDefinitionNode.setProperty(ENTITY_BUCKETS, bucketIds);
+		
+		return buckets;
+	}
+	
+	/**
+	 * Relinks the entities linked from a bucket that new entities are no longer linked from to the given buckets, and
+	 * deletes the bucket if it is not the entity definition node.
+	 */
+	private long emptyBucket(Node bucket, RelationshipType type, List<Node> buckets, int batchSize) {
+		
+		RelationshipType unindexedType = getUnindexedType(type);
+		long moved = 0;
+		boolean empty = false;
+		while(!empty) {
+			Transaction tx = dbService.beginTx();
+			try {
+				List<Relationship> relationships = new ArrayList<Relationship>(batchSize);
+				for(Relationship relationship : bucket.getRelationships(type, Direction.OUTGOING)) {
+					if(relationships.size() == batchSize) {
+						break;
+					}
+					relationships.add(relationship);
+				}
+				
+				for(Relationship relationship : relationships) {
+					Node node = relationship.getEndNode();
+					Node target = buckets.get((int) (moved++ % buckets.size()));
+					relationship.delete();
+					target.createRelationshipTo(node, type);
+					
+					Relationship unindexed = node.getSingleRelationship(unindexedType, Direction.INCOMING);
+					if(unindexed != null) {
+						unindexed.delete();
+						target.createRelationshipTo(node, unindexedType);
+					}
+				}
+				
+				//creates still linking entities from the bucket hold a lock on it, so once it is locked and empty
+				//nothing will be linked from it anymore
+				if(relationships.size() < batchSize) {
+					tx.acquireWriteLock(bucket);
+					empty = !bucket.hasRelationship(type, Direction.OUTGOING);
+					if(empty && bucket.hasRelationship(ENTITY_BUCKET, Direction.INCOMING)) {
+						bucket.getSingleRelationship(ENTITY_BUCKET, Direction.INCOMING).delete();
+						bucket.delete();
+					}
+				}
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+		}
+		
+		return moved;
+	}
+	
+	private EntityMetamodel getIndexedMetamodel(Class<?> entityClass, String key) {
+		
+		Entity annotation = entityClass.getAnnotation(Entity.class);
+		if(annotation == null) {
+			throw new UnknownEntityException();
+		}
+		
+		EntityMetamodel metamodel = EntityMetamodel.of(entityClass);
+		if(!metamodel.isIndexed(key)) {
+			throw new IllegalArgumentException("'" + key + "' is not an indexed property of " + entityClass.getName());
+		}
+		
+		return metamodel;
+	}
+	
+	private EntityMetamodel getNumericMetamodel(Class<?> entityClass, String key) {
+		
+		EntityMetamodel metamodel = getIndexedMetamodel(entityClass, key);
+		if(metamodel.getNumericType(key) == null) {
+			throw new IllegalArgumentException("'" + key + "' is not a numeric property of " + entityClass.getName());
+		}
+		
+		return metamodel;
+	}
+	
+	private Index<Node> getIndex(EntityMetamodel metamodel) {
+		return metamodel.getIndex(dbService);
+	}
+	
+	private Node getEntityDefinitionNode(Class<?> entityClass) {
+		
+		EntityDefinition definition = definitions.get(entityClass);
+		if(definition != null) {
+			return dbService.getNodeById(definition.nodeId);
+		}
+		
+		return lookupEntityDefinitionNode(entityClass);
+	}
+	
+	private Node lookupEntityDefinitionNode(Class<?> entityClass) {
+		
+		Entity annotation = entityClass.getAnnotation(Entity.class);
+		if(annotation == null) {
+			throw new UnknownEntityException();
+		}
+		
+		Relationship relationship = dbService.getReferenceNode().getSingleRelationship(createRelationshipType(annotation.value()), Direction.OUTGOING);
+		if(relationship == null) {
+			throw new UnknownEntityException();
+		}
+		
+		return relationship.getEndNode();
+	}
+	
+	/**
+	 * Returns the type of the relationships the entities of a class are linked from their type with.
+	 */
+	private RelationshipType getEntityType(Class<?> entityClass) {
+		
+		EntityDefinition definition = definitions.get(entityClass);
+		if(definition != null) {
+			return definition.entityType;
+		}
+		
+		Entity annotation = entityClass.getAnnotation(Entity.class);
+		if(annotation == null) {
+			throw new UnknownEntityException();
+		}
+		
+		return DynamicRelationshipType.withName(annotation.value());
+	}
+	
+	private static RelationshipType getUnindexedType(RelationshipType type) {
+		return DynamicRelationshipType.withName(type.name() + UNINDEXED_SUFFIX);
+	}
+	
+	private int assignTypeTag(Transaction tx, Node entityDefinitionNode) {
+		
+		Node referenceNode = dbService.getReferenceNode();
+		tx.acquireWriteLock(referenceNode);
+		
+		//the reference node itself is not written, batch insertion databases cannot add properties to it
+		int tag = 0;
+		for(Relationship relationship : referenceNode.getRelationships(Direction.OUTGOING)) {
+			tag = Math.max(tag, (Integer) relationship.getEndNode().getProperty(ENTITY_TYPE_TAG, 0));
+		}
+		
+		tag++;
+		entityDefinitionNode.setProperty(ENTITY_TYPE_TAG, tag);
+		
+		return tag;
+	}
+	
+	private RelationshipType internalAddEntityDefinition(Transaction tx, Class<?> entityClass) {
 		
 		Entity annotation = entityClass.getAnnotation(Entity.class);
 		if(annotation == null) {
@@ -163,6 +845,11 @@ final class SimpleTopologyManager implements TopologyManager {
 		if(!entityDefinitionExists(entityClass)) {
 			Node node = dbService.createNode();
 			node.setProperty(ENTITY_REF_TYPE, entityClass.getName());
+			assignTypeTag(tx, node);
+			if(context.getTypeBuckets() > 1) {
+				resizeBuckets(node, context.getTypeBuckets());
+			}
+			node.setProperty(ENTITY_IDS_INDEXED, true);
 			dbService.getReferenceNode().createRelationshipTo(node, type);
 		}
 		
@@ -176,4 +863,74 @@ final class SimpleTopologyManager implements TopologyManager {
 			}
 		};
 	}
+	
+	/**
+	 * Reads the nodes of index hits as it is iterated, closing the hits once they are exhausted.
+	 */
+	private final class IndexCursor implements ScoredCursor<EntityNode> {
+		
+		private final IndexHits<Node> hits;
+		private final Class<?> entityClass;
+		private boolean closed;
+		private float score;
+		
+		IndexCursor(IndexHits<Node> hits, Class<?> entityClass) {
+			this.hits = hits;
+			this.entityClass = entityClass;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if(!closed && !hits.hasNext()) {
+				close();
+			}
+			
+			return !closed;
+		}
+		
+		@Override
+		public EntityNode next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			
+			EntityNode entityNode = EntityNode.trusted(hits.next(), entityClass, context);
+			score = hits.currentScore();
+			return entityNode;
+		}
+		
+		@Override
+		public float currentScore() {
+			return score;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Iterator<EntityNode> iterator() {
+			return this;
+		}
+		
+		@Override
+		public void close() {
+			if(!closed) {
+				closed = true;
+				hits.close();
+			}
+		}
+	}
+	
+	private static final class EntityDefinition {
+		
+		private final long nodeId;
+		private final RelationshipType entityType;
+		
+		EntityDefinition(long nodeId, RelationshipType entityType) {
+			this.nodeId = nodeId;
+			this.entityType = entityType;
+		}
+	}
 }
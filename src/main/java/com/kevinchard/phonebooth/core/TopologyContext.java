@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import com.kevinchard.phonebooth.PersistenceProperties;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * The state of a {@link NeoEntityManagerFactory} that entity nodes need to read and write the graph: the settings read
+ * from the factory's properties and the registry of its entity types. Every {@link EntityNode} carries the context of
+ * the factory it was loaded by.
+ * 
+ * @author kchard
+ */
+final class TopologyContext {
+
+	static final int DEFAULT_DEGREE_THRESHOLD = 64;
+	static final int DEFAULT_BATCH_SIZE = 1000;
+	static final int DEFAULT_TYPE_BUCKETS = 1;
+	
+	/**
+	 * The context of entity nodes created outside of a factory.
+	 */
+	static final TopologyContext DEFAULTS = new TopologyContext(DEFAULT_DEGREE_THRESHOLD, new EntityTypeRegistry());
+	
+	private final int degreeThreshold;
+	private final int batchSize;
+	private final int typeBuckets;
+	private final EntityTypeRegistry typeRegistry;
+	
+	TopologyContext(int degreeThreshold, EntityTypeRegistry typeRegistry) {
+		this(degreeThreshold, DEFAULT_BATCH_SIZE, typeRegistry);
+	}
+	
+	TopologyContext(int degreeThreshold, int batchSize, EntityTypeRegistry typeRegistry) {
+		this(degreeThreshold, batchSize, DEFAULT_TYPE_BUCKETS, typeRegistry);
+	}
+	
+	TopologyContext(int degreeThreshold, int batchSize, int typeBuckets, EntityTypeRegistry typeRegistry) {
+		Assert.state(degreeThreshold >= 0, PersistenceProperties.DEGREE_THRESHOLD + " cannot be negative!!!");
+		Assert.state(batchSize > 0, PersistenceProperties.BATCH_SIZE + " must be positive!!!");
+		Assert.state(typeBuckets > 0, PersistenceProperties.TYPE_BUCKETS + " must be positive!!!");
+		Assert.notNull(typeRegistry, "typeRegistry cannot be null!!!");
+		
+		this.degreeThreshold = degreeThreshold;
+		this.batchSize = batchSize;
+		this.typeBuckets = typeBuckets;
+		this.typeRegistry = typeRegistry;
+	}
+	
+	/**
+	 * The number of relationships of a type up to which a node is scanned directly when checking whether it is related
+	 * to another node, see {@link PersistenceProperties#DEGREE_THRESHOLD}.
+	 */
+	int getDegreeThreshold() {
+		return degreeThreshold;
+	}
+	
+	/**
+	 * The number of entities written per transaction by batch operations, see {@link PersistenceProperties#BATCH_SIZE}.
+	 */
+	int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * The number of bucket nodes the entities of a new type are linked from, see
+	 * {@link PersistenceProperties#TYPE_BUCKETS}.
+	 */
+	int getTypeBuckets() {
+		return typeBuckets;
+	}
+	
+	EntityTypeRegistry getTypeRegistry() {
+		return typeRegistry;
+	}
+}
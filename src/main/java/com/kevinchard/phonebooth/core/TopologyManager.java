@@ -17,10 +17,17 @@
 
 package com.kevinchard.phonebooth.core;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.RelationshipType;
 
+import com.kevinchard.phonebooth.EntityCursor;
+import com.kevinchard.phonebooth.ScoredCursor;
+
 
 /**
  * Implementations of this interface are responsible for maintaining the structure of the graph. 
@@ -29,17 +36,112 @@ import org.neo4j.graphdb.RelationshipType;
  */
 interface TopologyManager {
 	
+	TopologyContext getContext();
+	
 	List<RelationshipType> entityDefinitions();
 	
 	boolean entityDefinitionExists(Class<?> entityClass);
 	
+	/**
+	 * Resolves the entity definition of the given class once, so that creating and reading its entities no longer
+	 * looks the definition up in the graph. The definition must already be committed, since a cached definition
+	 * outlives the rollback of the transaction that added it.
+	 */
+	void cacheEntityDefinition(Class<?> entityClass);
+	
 	RelationshipType addEntityDefinition(Class<?> entityClass);
 	
 	List<RelationshipType> addEntityDefinitions(Class<?> ... entityClasses);
 	
 	EntityNode createNode(Class<?> entityClass);
 	
+	/**
+	 * Creates count nodes of the given entity class, committing every batch size of them.
+	 */
+	List<EntityNode> createNodes(Class<?> entityClass, int count);
+	
 	List<EntityNode> getAll(Class<?> entityClass);
 	
+	/**
+	 * Returns an iterator over the nodes of the given entity class that reads their relationships to their type as it
+	 * advances.
+	 */
+	Iterator<EntityNode> iterate(Class<?> entityClass);
+	
+	/**
+	 * Returns an iterator like {@link #iterate(Class)} for each of the buckets the nodes of the given entity class are
+	 * linked from.
+	 */
+	List<Iterator<EntityNode>> partition(Class<?> entityClass);
+	
+	/**
+	 * Returns the at most size nodes of the given entity class with the lowest ids greater than afterId, or than none
+	 * if afterId is null, in ascending id order. A page is read from an index of the node ids of each type, so it
+	 * only reads its own nodes. Nodes are not indexed when they are created: a page first indexes those of its type
+	 * created since the last one, and the first page of a type written before the index existed indexes all of them.
+	 */
+	List<EntityNode> getPage(Class<?> entityClass, Long afterId, int size);
+	
+	/**
+	 * Returns the nodes of the given entity class whose indexed property with the given key has the given value, from
+	 * the index of the class rather than by reading its nodes.
+	 */
+	List<EntityNode> findBy(Class<?> entityClass, String key, Object value);
+	
+	/**
+	 * Returns the node of the given entity class whose unique property with the given key has the given value,
+	 * creating it with that value if there is none. Concurrent calls for the same value return the same node.
+	 */
+	EntityNode getOrCreate(Class<?> entityClass, String key, Object value);
+	
+	/**
+	 * Returns a cursor over the at most limit nodes of the given entity class whose numeric property with the given key
+	 * is between from and to inclusive, either of which may be null for an open range, ordered by the numeric property
+	 * orderBy. Only the nodes of the limit are read from the index.
+	 */
+	EntityCursor<EntityNode> findRange(Class<?> entityClass, String key, Number from, Number to, String orderBy, boolean descending, int limit);
+	
+	/**
+	 * Returns a cursor over the at most limit nodes of the given entity class whose full text property with the given
+	 * key best matches the given Lucene query, best match first.
+	 */
+	ScoredCursor<EntityNode> search(Class<?> entityClass, String key, String query, int limit);
+	
+	/**
+	 * Runs the given Cypher query with the given parameters. The execution engine is created once per database, and
+	 * keeps the execution plans of the queries it has run so that running a query again does not parse it again. The
+	 * result holds no resources: the engine reads all of its rows into memory when the first one is asked for.
+	 */
+	ExecutionResult query(String query, Map<String, Object> params);
+	
+	/**
+	 * Returns an iterator over the nodes at the end of the given path from the given node, which traverses the graph
+	 * as it advances.
+	 */
+	Iterator<EntityNode> traverse(EntityNode start, RelationshipPath path);
+	
 	EntityNode get(Long id, Class<?> entityClass);
+	
+	/**
+	 * Deletes the nodes with the given ids and their relationships, committing every batch size of them.
+	 */
+	void deleteAll(Collection<Long> ids, Class<?> entityClass);
+	
+	/**
+	 * Returns the tag stored on the nodes of the given entity class, assigning one to its entity definition if it
+	 * has none yet.
+	 */
+	int getTypeTag(Class<?> entityClass);
+	
+	/**
+	 * Replaces the class names stored on the nodes of the given entity class by earlier versions with its registered
+	 * tag, committing every batchSize rewritten nodes. Returns the number of nodes rewritten.
+	 */
+	long migrateTypeTags(Class<?> entityClass, int batchSize);
+	
+	/**
+	 * Relinks the nodes of the given entity class to the number of buckets of the topology context, committing every
+	 * batchSize relinked nodes. Returns the number of nodes relinked.
+	 */
+	long migrateTypeBuckets(Class<?> entityClass, int batchSize);
 }
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import org.neo4j.graphdb.Lock;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+
+import com.kevinchard.phonebooth.tx.TransactionManager;
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * Collects the writes made through the entities of a {@link NeoEntityManager} into a single Neo4j transaction. The
+ * transaction is begun by the first write and committed by {@link #flush()}, or once the flush threshold is reached,
+ * so that populating an entity costs one commit rather than one per setter. Neo4j keeps the uncommitted writes in
+ * memory and they are visible to reads on the thread that made them; other threads do not see them until they are
+ * flushed. Because Neo4j transactions are bound to a thread, a unit of work may only be written to from the thread
+ * that began it.
+ * 
+ * @author kchard
+ */
+final class UnitOfWork {
+
+	private final TransactionManager txManager;
+	private final int flushThreshold;
+	
+	private Transaction tx;
+	private Thread owner;
+	private int depth;
+	private int pending;
+	private boolean failed;
+	
+	/**
+	 * @param flushThreshold the number of writes after which the unit of work is flushed, or 0 to only flush when
+	 * asked to
+	 */
+	UnitOfWork(TransactionManager txManager, int flushThreshold) {
+		Assert.notNull(txManager, "txManager cannot be null!!!");
+		Assert.state(flushThreshold >= 0, "flushThreshold cannot be negative!!!");
+		
+		this.txManager = txManager;
+		this.flushThreshold = flushThreshold;
+	}
+	
+	/**
+	 * Begins a write. The returned transaction joins the transaction of the unit of work; finishing it without marking
+	 * it successful marks the whole unit of work for rollback, like a nested Neo4j transaction.
+	 */
+	synchronized Transaction beginTx() {
+		
+		if(tx == null) {
+			tx = txManager.beginTx();
+			owner = Thread.currentThread();
+		} else {
+			Assert.state(owner == Thread.currentThread(), "A unit of work can only be written to from the thread that began it!!!");
+		}
+		
+		depth++;
+		return new Write();
+	}
+	
+	/**
+	 * Commits the pending writes, if there are any.
+	 */
+	synchronized void flush() {
+		
+		if(tx == null) {
+			return;
+		}
+		
+		Assert.state(owner == Thread.currentThread(), "A unit of work can only be flushed from the thread that began it!!!");
+		Assert.state(depth == 0, "A unit of work cannot be flushed from within a write!!!");
+		
+		Transaction committing = tx;
+		boolean rollback = failed;
+		tx = null;
+		owner = null;
+		pending = 0;
+		failed = false;
+		
+		if(rollback) {
+			committing.failure();
+			committing.finish();
+			throw new TransactionFailureException("The unit of work was rolled back because one of its writes failed");
+		}
+		
+		committing.success();
+		committing.finish();
+	}
+	
+	/**
+	 * Returns the number of writes made since the last flush.
+	 */
+	synchronized int getPendingWrites() {
+		return pending;
+	}
+	
+	private synchronized void endWrite(boolean succeeded) {
+		
+		depth--;
+		failed |= !succeeded;
+		
+		if(depth == 0) {
+			pending++;
+			//a failed write is still propagating its exception, it is reported by the next explicit flush
+			if(flushThreshold > 0 && pending >= flushThreshold && !failed) {
+				flush();
+			}
+		}
+	}
+	
+	private final class Write implements Transaction {
+		
+		private boolean succeeded;
+		private boolean failed;
+		private boolean finished;
+		
+		@Override
+		public void success() {
+			succeeded = true;
+		}
+		
+		@Override
+		public void failure() {
+			failed = true;
+		}
+		
+		@Override
+		public void finish() {
+			if(!finished) {
+				finished = true;
+				endWrite(succeeded && !failed);
+			}
+		}
+		
+		@Override
+		public Lock acquireWriteLock(PropertyContainer entity) {
+			return tx.acquireWriteLock(entity);
+		}
+		
+		@Override
+		public Lock acquireReadLock(PropertyContainer entity) {
+			return tx.acquireReadLock(entity);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.core;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.kevinchard.phonebooth.util.Assert;
+
+/**
+ * The asynchronous writes of one {@link NeoEntityManager}, which are committed by the {@link AsyncWriter} its factory
+ * shares between all of its EntityManagers. Writes made through entities return before they are committed and do not
+ * report their failures to their caller; the first write that failed since the last flush fails the future returned by
+ * {@link #flush()} instead. Writes are made in the order they are queued, and reads do not see the writes that are
+ * still queued.
+ * 
+ * @author kchard
+ */
+final class WriteQueue {
+
+	private final AsyncWriter writer;
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	
+	WriteQueue(AsyncWriter writer) {
+		Assert.notNull(writer, "writer cannot be null!!!");
+		this.writer = writer;
+	}
+	
+	/**
+	 * Queues the invocation of a mutator method of an entity.
+	 */
+	void submit(final EntityMethod method, final EntityInstantiator instantiator, final EntityNode entity, final Object[] args) {
+		writer.submit(new AsyncWriter.Write<Object>() {
+			@Override
+			Object run() {
+				return method.invoke(instantiator, entity, args);
+			}
+			
+			@Override
+			void fail(Throwable t) {
+				failure.compareAndSet(null, t);
+				super.fail(t);
+			}
+		});
+	}
+	
+	/**
+	 * Queues a write and waits for it to be committed, rethrowing its failure.
+	 */
+	<T> T await(AsyncWriter.Write<T> write) {
+		return get(writer.submit(write));
+	}
+	
+	/**
+	 * Returns a future that completes once the writes queued so far are committed.
+	 */
+	Future<Void> flush() {
+		return writer.submit(new AsyncWriter.Write<Void>() {
+			@Override
+			Void run() {
+				return null;
+			}
+			
+			@Override
+			void succeed(Object result) {
+				Throwable t = failure.getAndSet(null);
+				if(t == null) {
+					super.succeed(result);
+				} else {
+					super.fail(t);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Waits for a write, rethrowing its failure.
+	 */
+	static <T> T get(Future<T> write) {
+		try {
+			return write.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a write to commit", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+}
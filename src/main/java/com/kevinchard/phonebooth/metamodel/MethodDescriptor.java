@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.metamodel;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+
+/**
+ * Describes the mapping of one entity interface method, as recorded at build time from its annotation.
+ * 
+ * @author kchard
+ */
+public final class MethodDescriptor {
+
+	public enum Kind {
+		ID, PROPERTY, ONE_TO_ONE, ONE_TO_MANY, MANY_TO_ONE, MANY_TO_MANY
+	}
+	
+	/**
+	 * How a property mutator indexes its property: {@link #INDEXED} for any {@link com.kevinchard.phonebooth.Indexed} property, along with the
+	 * attributes set on its annotation.
+	 */
+	public enum IndexOption {
+		INDEXED, UNIQUE, NUMERIC, FULLTEXT
+	}
+	
+	private final Kind kind;
+	private final String methodName;
+	private final Class<?>[] parameterTypes;
+	private final String name;
+	private final Direction direction;
+	private final Enum<?> action;
+	private final int pageSize;
+	private final Set<IndexOption> indexOptions;
+	
+	private MethodDescriptor(Kind kind, String methodName, Class<?>[] parameterTypes, String name, Direction direction, Enum<?> action, int pageSize) {
+		this(kind, methodName, parameterTypes, name, direction, action, pageSize, EnumSet.noneOf(IndexOption.class));
+	}
+	
+	private MethodDescriptor(Kind kind, String methodName, Class<?>[] parameterTypes, String name, Direction direction, Enum<?> action, int pageSize, Set<IndexOption> indexOptions) {
+		this.kind = kind;
+		this.methodName = methodName;
+		this.parameterTypes = parameterTypes.clone();
+		this.name = name;
+		this.direction = direction;
+		this.action = action;
+		this.pageSize = pageSize;
+		this.indexOptions = indexOptions;
+	}
+	
+	public static MethodDescriptor id(String methodName, Class<?>[] parameterTypes) {
+		return new MethodDescriptor(Kind.ID, methodName, parameterTypes, null, null, null, 0);
+	}
+	
+	/**
+	 * Describes a property accessor, indexed with the given options if it is a mutator of an
+	 * {@link com.kevinchard.phonebooth.Indexed} property.
+	 */
+	public static MethodDescriptor property(String methodName, Class<?>[] parameterTypes, String name, Action action, IndexOption ... indexOptions) {
+		EnumSet<IndexOption> options = EnumSet.noneOf(IndexOption.class);
+		Collections.addAll(options, indexOptions);
+		return new MethodDescriptor(Kind.PROPERTY, methodName, parameterTypes, name, null, action, 0, options);
+	}
+	
+	public static MethodDescriptor oneToOne(String methodName, Class<?>[] parameterTypes, String name, Direction direction, Action action) {
+		return new MethodDescriptor(Kind.ONE_TO_ONE, methodName, parameterTypes, name, direction, action, 0);
+	}
+	
+	public static MethodDescriptor oneToMany(String methodName, Class<?>[] parameterTypes, String name, Direction direction, CollectionAction action, int pageSize) {
+		return new MethodDescriptor(Kind.ONE_TO_MANY, methodName, parameterTypes, name, direction, action, pageSize);
+	}
+	
+	public static MethodDescriptor manyToOne(String methodName, Class<?>[] parameterTypes, String name, Direction direction, Action action) {
+		return new MethodDescriptor(Kind.MANY_TO_ONE, methodName, parameterTypes, name, direction, action, 0);
+	}
+	
+	public static MethodDescriptor manyToMany(String methodName, Class<?>[] parameterTypes, String name, Direction direction, CollectionAction action, int pageSize) {
+		return new MethodDescriptor(Kind.MANY_TO_MANY, methodName, parameterTypes, name, direction, action, pageSize);
+	}
+	
+	public Kind getKind() {
+		return kind;
+	}
+	
+	public String getMethodName() {
+		return methodName;
+	}
+	
+	public Class<?>[] getParameterTypes() {
+		return parameterTypes.clone();
+	}
+	
+	/**
+	 * The property key or relationship name, or null for an id method.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * The relationship direction, or null for id and property methods.
+	 */
+	public Direction getDirection() {
+		return direction;
+	}
+	
+	/**
+	 * Either an {@link Action} or a {@link CollectionAction}, depending on the kind, or null for an id method.
+	 */
+	public Enum<?> getAction() {
+		return action;
+	}
+	
+	/**
+	 * The page size of a one to many or many to many relationship, or 0 for any other kind of method.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	/**
+	 * Whether the method is a property mutator that keeps its property indexed.
+	 */
+	public boolean isIndexed() {
+		return indexOptions.contains(IndexOption.INDEXED);
+	}
+	
+	/**
+	 * Whether the method is a property mutator that keeps its property unique.
+	 */
+	public boolean isUnique() {
+		return indexOptions.contains(IndexOption.UNIQUE);
+	}
+	
+	/**
+	 * Whether the method is a property mutator that keeps its property indexed as a number.
+	 */
+	public boolean isNumeric() {
+		return indexOptions.contains(IndexOption.NUMERIC);
+	}
+	
+	/**
+	 * Whether the method is a property mutator that keeps its property indexed by the words of its text.
+	 */
+	public boolean isFulltext() {
+		return indexOptions.contains(IndexOption.FULLTEXT);
+	}
+}
\ No newline at end of file
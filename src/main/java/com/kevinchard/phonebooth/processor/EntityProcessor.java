@@ -0,0 +1,458 @@
+/**
+ * Copyright (c) 2012 Kevin Chard
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO 
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE 
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.kevinchard.phonebooth.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+import org.neo4j.graphdb.Direction;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.Indexed;
+import com.kevinchard.phonebooth.ManyToMany;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.OneToOne;
+import com.kevinchard.phonebooth.Property;
+import com.kevinchard.phonebooth.metamodel.MethodDescriptor.IndexOption;
+import com.kevinchard.phonebooth.metamodel.StaticMetamodel;
+
+/**
+ * Validates the mappings of every {@link Entity} interface at build time and generates a {@link StaticMetamodel} for
+ * it, so that the framework does not need to read the annotations reflectively at runtime. The processor reports
+ * accessors that take arguments, mutators that do not take exactly one argument, property mutators that return a
+ * value, {@link Indexed} methods that are not property mutators, numeric properties that are not numbers, full text
+ * properties that are not strings, counts that do not return an int or a long, and relationship mutators whose
+ * opposite side is missing or declared with an incompatible direction.
+ * 
+ * @author kchard
+ */
+@SupportedAnnotationTypes("com.kevinchard.phonebooth.Entity")
+public class EntityProcessor extends AbstractProcessor {
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		
+		for(Element element : roundEnv.getElementsAnnotatedWith(Entity.class)) {
+			
+			if(element.getKind() != ElementKind.INTERFACE) {
+				processingEnv.getMessager().printMessage(Kind.WARNING, "@Entity should only be applied to interfaces", element);
+				continue;
+			}
+			
+			TypeElement entity = (TypeElement) element;
+			
+			List<String> descriptors = new ArrayList<String>();
+			boolean valid = true;
+			for(ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(entity))) {
+				String descriptor = describe(method);
+				if(descriptor != null) {
+					valid &= validate(entity, method);
+					descriptors.add(descriptor);
+				}
+			}
+			
+			if(valid && isAccessible(entity)) {
+				generate(entity, descriptors);
+			}
+		}
+		
+		return false;
+	}
+	
+	private String describe(ExecutableElement method) {
+		
+		String signature = quote(method.getSimpleName().toString()) + ", " + parameterTypes(method);
+		
+		if(method.getAnnotation(Id.class) != null) {
+			return "id(" + signature + ")";
+		}
+		
+		Property property = method.getAnnotation(Property.class);
+		if(property != null) {
+			return "property(" + signature + ", " + quote(property.name()) + ", " + constant(property.action()) + indexOptions(method.getAnnotation(Indexed.class)) + ")";
+		}
+		
+		OneToOne oneToOne = method.getAnnotation(OneToOne.class);
+		if(oneToOne != null) {
+			return "oneToOne(" + signature + ", " + relationship(oneToOne.name(), oneToOne.direction(), oneToOne.action()) + ")";
+		}
+		
+		OneToMany oneToMany = method.getAnnotation(OneToMany.class);
+		if(oneToMany != null) {
+			return "oneToMany(" + signature + ", " + relationship(oneToMany.name(), oneToMany.direction(), oneToMany.action()) + ", " + oneToMany.pageSize() + ")";
+		}
+		
+		ManyToOne manyToOne = method.getAnnotation(ManyToOne.class);
+		if(manyToOne != null) {
+			return "manyToOne(" + signature + ", " + relationship(manyToOne.name(), manyToOne.direction(), manyToOne.action()) + ")";
+		}
+		
+		ManyToMany manyToMany = method.getAnnotation(ManyToMany.class);
+		if(manyToMany != null) {
+			return "manyToMany(" + signature + ", " + relationship(manyToMany.name(), manyToMany.direction(), manyToMany.action()) + ", " + manyToMany.pageSize() + ")";
+		}
+		
+		return null;
+	}
+	
+	private boolean validate(TypeElement entity, ExecutableElement method) {
+		
+		Property property = method.getAnnotation(Property.class);
+		if(method.getAnnotation(Indexed.class) != null && (property == null || property.action() != Action.WRITE)) {
+			error(entity, method, "only property mutators can be indexed");
+			return false;
+		}
+		
+		if(property != null) {
+			boolean valid = validateArity(entity, method, property.action() == Action.WRITE);
+			if(property.action() == Action.WRITE && method.getReturnType().getKind() != TypeKind.VOID) {
+				error(entity, method, "property mutators must return void");
+				valid = false;
+			}
+			Indexed indexed = method.getAnnotation(Indexed.class);
+			if(indexed != null && indexed.numeric() && method.getParameters().size() == 1 && !isNumber(method.getParameters().get(0).asType())) {
+				error(entity, method, "numeric properties must take a number");
+				valid = false;
+			}
+			if(indexed != null && indexed.fulltext() && (indexed.unique() || indexed.numeric())) {
+				error(entity, method, "full text properties cannot be unique or numeric");
+				valid = false;
+			} else if(indexed != null && indexed.fulltext() && method.getParameters().size() == 1 && !isString(method.getParameters().get(0).asType())) {
+				error(entity, method, "full text properties must take a String");
+				valid = false;
+			}
+			return valid;
+		}
+		
+		OneToOne oneToOne = method.getAnnotation(OneToOne.class);
+		if(oneToOne != null) {
+			boolean write = oneToOne.action() == Action.WRITE;
+			return validateArity(entity, method, write) && (!write || validateOpposite(entity, method, oneToOne.name(), oneToOne.direction(), OneToOne.class, false));
+		}
+		
+		OneToMany oneToMany = method.getAnnotation(OneToMany.class);
+		if(oneToMany != null) {
+			boolean write = oneToMany.action() == CollectionAction.ADD || oneToMany.action() == CollectionAction.REMOVE || oneToMany.action() == CollectionAction.ADD_ALL;
+			boolean valid = validatePageSize(entity, method, oneToMany.pageSize()) & (oneToMany.action() != CollectionAction.COUNT || validateCount(entity, method));
+			return validateArity(entity, method, write) && (!write || validateOpposite(entity, method, oneToMany.name(), oneToMany.direction(), ManyToOne.class, oneToMany.action() == CollectionAction.ADD_ALL)) && valid;
+		}
+		
+		ManyToOne manyToOne = method.getAnnotation(ManyToOne.class);
+		if(manyToOne != null) {
+			boolean write = manyToOne.action() == Action.WRITE;
+			return validateArity(entity, method, write) && (!write || validateOpposite(entity, method, manyToOne.name(), manyToOne.direction(), OneToMany.class, false));
+		}
+		
+		ManyToMany manyToMany = method.getAnnotation(ManyToMany.class);
+		if(manyToMany != null) {
+			boolean write = manyToMany.action() == CollectionAction.ADD || manyToMany.action() == CollectionAction.REMOVE || manyToMany.action() == CollectionAction.ADD_ALL;
+			boolean valid = validatePageSize(entity, method, manyToMany.pageSize()) & (manyToMany.action() != CollectionAction.COUNT || validateCount(entity, method));
+			return validateArity(entity, method, write) && (!write || validateOpposite(entity, method, manyToMany.name(), manyToMany.direction(), ManyToMany.class, manyToMany.action() == CollectionAction.ADD_ALL)) && valid;
+		}
+		
+		return validateArity(entity, method, false);
+	}
+	
+	private boolean validateArity(TypeElement entity, ExecutableElement method, boolean write) {
+		
+		int arity = method.getParameters().size();
+		if(write && arity != 1) {
+			error(entity, method, "mutators must take exactly one argument");
+			return false;
+		} else if(!write && arity != 0) {
+			error(entity, method, "accessors must not take any arguments");
+			return false;
+		}
+		
+		return true;
+	}
+	
+	private boolean validateCount(TypeElement entity, ExecutableElement method) {
+		
+		TypeMirror returnType = method.getReturnType();
+		if(returnType.getKind() == TypeKind.DECLARED) {
+			try {
+				returnType = processingEnv.getTypeUtils().unboxedType(returnType);
+			} catch (IllegalArgumentException e) {
+				//not a wrapper type
+			}
+		}
+		
+		if(returnType.getKind() != TypeKind.INT && returnType.getKind() != TypeKind.LONG) {
+			error(entity, method, "count methods must return an int or a long");
+			return false;
+		}
+		
+		return true;
+	}
+	
+	private boolean validatePageSize(TypeElement entity, ExecutableElement method, int pageSize) {
+		
+		if(pageSize < 1) {
+			error(entity, method, "pageSize must be positive");
+			return false;
+		}
+		
+		return true;
+	}
+	
+	private boolean validateOpposite(TypeElement entity, ExecutableElement method, String name, Direction direction, Class<? extends Annotation> oppositeKind, boolean collection) {
+		
+		TypeMirror otherType = method.getParameters().get(0).asType();
+		if(collection) {
+			otherType = elementTypeOf(otherType);
+			if(otherType == null) {
+				error(entity, method, "ADD_ALL methods must take a collection of an entity interface");
+				return false;
+			}
+		}
+		
+		if(otherType.getKind() != TypeKind.DECLARED) {
+			error(entity, method, "relationship mutators must take an entity interface");
+			return false;
+		}
+		
+		TypeElement other = (TypeElement) ((DeclaredType) otherType).asElement();
+		
+		boolean found = false;
+		for(ExecutableElement otherMethod : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(other))) {
+			Annotation opposite = otherMethod.getAnnotation(oppositeKind);
+			if(opposite == null || !name.equals(nameOf(opposite))) {
+				continue;
+			}
+			
+			found = true;
+			if(!direction.equals(directionOf(opposite).reverse())) {
+				error(entity, method, "relationship '" + name + "' has direction " + direction + " but " + other.getQualifiedName() + "." + otherMethod.getSimpleName() + "() has direction " + directionOf(opposite));
+				return false;
+			}
+		}
+		
+		if(!found) {
+			error(entity, method, "no @" + oppositeKind.getSimpleName() + " named '" + name + "' on " + other.getQualifiedName());
+		}
+		
+		return found;
+	}
+	
+	private boolean isString(TypeMirror type) {
+		return processingEnv.getTypeUtils().isSameType(type, processingEnv.getElementUtils().getTypeElement(String.class.getName()).asType());
+	}
+	
+	//Returns true for primitive numbers other than char and their wrappers
+	private boolean isNumber(TypeMirror type) {
+		
+		if(type.getKind() == TypeKind.DECLARED) {
+			try {
+				type = processingEnv.getTypeUtils().unboxedType(type);
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+		}
+		
+		switch(type.getKind()) {
+			case BYTE:
+			case SHORT:
+			case INT:
+			case LONG:
+			case FLOAT:
+			case DOUBLE:
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	//Returns the element type of an Iterable type, or null if the type is not an Iterable of a declared type
+	private TypeMirror elementTypeOf(TypeMirror type) {
+		
+		Types types = processingEnv.getTypeUtils();
+		TypeMirror iterable = types.erasure(processingEnv.getElementUtils().getTypeElement(Iterable.class.getName()).asType());
+		if(type.getKind() != TypeKind.DECLARED || !types.isAssignable(types.erasure(type), iterable)) {
+			return null;
+		}
+		
+		List<? extends TypeMirror> typeArguments = ((DeclaredType) type).getTypeArguments();
+		if(typeArguments.size() != 1) {
+			return null;
+		}
+		
+		TypeMirror elementType = typeArguments.get(0);
+		if(elementType.getKind() == TypeKind.WILDCARD) {
+			elementType = ((WildcardType) elementType).getExtendsBound();
+		}
+		
+		return elementType != null && elementType.getKind() == TypeKind.DECLARED ? elementType : null;
+	}
+	
+	private void generate(TypeElement entity, List<String> descriptors) {
+		
+		String packageName = processingEnv.getElementUtils().getPackageOf(entity).getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(entity).toString();
+		String simpleName = (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1)) + StaticMetamodel.SUFFIX;
+		
+		try {
+			PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(binaryName + StaticMetamodel.SUFFIX, entity).openWriter());
+			try {
+				if(packageName.length() > 0) {
+					out.println("package " + packageName + ";");
+					out.println();
+				}
+				out.println("/**");
+				out.println(" * Generated by " + EntityProcessor.class.getName() + " from " + entity.getQualifiedName() + ". Do not edit.");
+				out.println(" */");
+				out.println("public final class " + simpleName + " implements " + StaticMetamodel.class.getName() + " {");
+				out.println();
+				out.println("\tprivate static final java.util.List<com.kevinchard.phonebooth.metamodel.MethodDescriptor> METHODS = java.util.Arrays.asList(");
+				for(int i = 0; i < descriptors.size(); i++) {
+					out.println("\t\tcom.kevinchard.phonebooth.metamodel.MethodDescriptor." + descriptors.get(i) + (i < descriptors.size() - 1 ? "," : ""));
+				}
+				out.println("\t);");
+				out.println();
+				out.println("\tpublic Class<?> getEntityClass() {");
+				out.println("\t\treturn " + entity.getQualifiedName() + ".class;");
+				out.println("\t}");
+				out.println();
+				out.println("\tpublic java.util.List<com.kevinchard.phonebooth.metamodel.MethodDescriptor> getMethods() {");
+				out.println("\t\treturn METHODS;");
+				out.println("\t}");
+				out.println("}");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "Could not generate the metamodel: " + e.getMessage(), entity);
+		}
+	}
+	
+	private boolean isAccessible(TypeElement entity) {
+		for(Element e = entity; e.getKind().isClass() || e.getKind().isInterface(); e = e.getEnclosingElement()) {
+			if(e.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private String parameterTypes(ExecutableElement method) {
+		StringBuilder types = new StringBuilder("new Class<?>[] {");
+		for(VariableElement parameter : method.getParameters()) {
+			types.append(types.charAt(types.length() - 1) == '{' ? " " : ", ");
+			types.append(processingEnv.getTypeUtils().erasure(parameter.asType())).append(".class");
+		}
+		
+		return types.append(method.getParameters().isEmpty() ? "}" : " }").toString();
+	}
+	
+	private String relationship(String name, Direction direction, Enum<?> action) {
+		return quote(name) + ", " + constant(direction) + ", " + constant(action);
+	}
+	
+	private String constant(Enum<?> value) {
+		return value.getDeclaringClass().getCanonicalName() + "." + value.name();
+	}
+	
+	//The trailing index option arguments of a property descriptor, none if the property is not indexed
+	private String indexOptions(Indexed indexed) {
+		
+		List<IndexOption> options = new ArrayList<IndexOption>();
+		if(indexed != null) {
+			options.add(IndexOption.INDEXED);
+			if(indexed.unique()) {
+				options.add(IndexOption.UNIQUE);
+			}
+			if(indexed.numeric()) {
+				options.add(IndexOption.NUMERIC);
+			}
+			if(indexed.fulltext()) {
+				options.add(IndexOption.FULLTEXT);
+			}
+		}
+		
+		StringBuilder arguments = new StringBuilder();
+		for(IndexOption option : options) {
+			arguments.append(", ").append(constant(option));
+		}
+		
+		return arguments.toString();
+	}
+	
+	private String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+	
+	private void error(TypeElement entity, ExecutableElement method, String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, entity.getQualifiedName() + "." + method.getSimpleName() + "(): " + message, method);
+	}
+	
+	private static String nameOf(Annotation relationship) {
+		if(relationship instanceof OneToOne) {
+			return ((OneToOne) relationship).name();
+		} else if(relationship instanceof OneToMany) {
+			return ((OneToMany) relationship).name();
+		} else if(relationship instanceof ManyToOne) {
+			return ((ManyToOne) relationship).name();
+		} else {
+			return ((ManyToMany) relationship).name();
+		}
+	}
+	
+	private static Direction directionOf(Annotation relationship) {
+		if(relationship instanceof OneToOne) {
+			return ((OneToOne) relationship).direction();
+		} else if(relationship instanceof OneToMany) {
+			return ((OneToMany) relationship).direction();
+		} else if(relationship instanceof ManyToOne) {
+			return ((ManyToOne) relationship).direction();
+		} else {
+			return ((ManyToMany) relationship).direction();
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.kevinchard.phonebooth;
 import static org.junit.Assert.assertNotNull;
 
 import org.junit.Test;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.test.ImpermanentGraphDatabase;
 
 import com.kevinchard.phonebooth.EntityManagerFactory;
@@ -30,4 +31,27 @@ public class PersistenceTest {
 		
 		assertNotNull(emf);
 	}
+	
+	@Test(expected = IllegalRelationshipException.class)
+	public void testCreateEntityManagerFactoryWithMismatchedRelationship() {
+		Persistence.create("com.kevinchard.phonebooth.core.NeoEntityManagerFactory")
+				   .withGraphDatabaseService(new ImpermanentGraphDatabase())
+				   .forEntity(Parent.class)
+				   .forEntity(Child.class)
+				   .build();
+	}
+	
+	@Entity(value = "PARENT")
+	public interface Parent {
+		
+		@OneToMany(name = "CHILD_OF", direction = Direction.INCOMING, action = CollectionAction.ADD)
+		void addChild(Child child);
+	}
+	
+	@Entity(value = "CHILD")
+	public interface Child {
+		
+		@ManyToOne(name = "CHILD_OF", direction = Direction.INCOMING, action = Action.WRITE)
+		void setParent(Parent parent);
+	}
 }
@@ -0,0 +1,57 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+
+/**
+ * Compares creating, relating and deleting employees one call at a time with the batch operations of the
+ * EntityManager and of ADD_ALL methods.
+ */
+public class BatchWriteBenchmark extends Benchmark {
+
+	private static final int EMPLOYEES = 10000;
+	
+	public static void main(String[] args) {
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			final EntityManager em = officeSpace(db).createEntityManager();
+			
+			run("create + addEmployee + delete (one by one)", 1, 3, EMPLOYEES, new Runnable() {
+				public void run() {
+					Manager manager = em.create(Manager.class);
+					List<Employee> employees = new ArrayList<Employee>();
+					for(int i = 0; i < EMPLOYEES; i++) {
+						employees.add(em.create(Employee.class));
+					}
+					for(Employee employee : employees) {
+						manager.addEmployee(employee);
+					}
+					for(Employee employee : employees) {
+						em.delete(employee.getId(), Employee.class);
+					}
+				}
+			});
+			
+			run("createAll + addEmployees + delete(ids)", 1, 3, EMPLOYEES, new Runnable() {
+				public void run() {
+					Manager manager = em.create(Manager.class);
+					List<Employee> employees = em.createAll(Employee.class, EMPLOYEES);
+					manager.addEmployees(employees);
+					
+					List<Long> ids = new ArrayList<Long>();
+					for(Employee employee : employees) {
+						ids.add(employee.getId());
+					}
+					em.delete(ids, Employee.class);
+				}
+			});
+		} finally {
+			db.shutdown();
+		}
+	}
+}
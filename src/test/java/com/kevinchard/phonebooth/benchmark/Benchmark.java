@@ -0,0 +1,63 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import java.io.File;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import com.kevinchard.phonebooth.EntityManagerFactory;
+import com.kevinchard.phonebooth.Persistence;
+import com.kevinchard.phonebooth.Persistence.EntityManagerFactoryBuilder;
+
+/**
+ * Minimal timing harness shared by the benchmarks in this package. These are plain main() programs rather than
+ * unit tests so that surefire never picks them up; run them with the test classpath.
+ */
+abstract class Benchmark {
+
+	/**
+	 * Builds a factory for the Manager/Employee model, with properties given as alternating keys and values.
+	 */
+	static EntityManagerFactory officeSpace(GraphDatabaseService db, Object ... properties) {
+		return officeSpace(properties).withGraphDatabaseService(db).build();
+	}
+	
+	static EntityManagerFactoryBuilder officeSpace(Object ... properties) {
+		EntityManagerFactoryBuilder builder = Persistence.create("com.kevinchard.phonebooth.core.NeoEntityManagerFactory")
+														 .forEntity(Manager.class)
+														 .forEntity(Employee.class);
+		
+		for(int i = 0; i < properties.length; i += 2) {
+			builder.withProperty((String) properties[i], properties[i + 1]);
+		}
+		
+		return builder;
+	}
+	
+	/**
+	 * Returns a new directory for an on-disk store under target.
+	 */
+	static String storeDir(String name) {
+		return new File("target/benchmark-data/" + name + "-" + System.nanoTime()).getAbsolutePath();
+	}
+	
+	static void run(String label, int warmups, int iterations, long opsPerIteration, Runnable body) {
+		
+		for(int i = 0; i < warmups; i++) {
+			body.run();
+		}
+		
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			body.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		
+		report(label, opsPerIteration, best);
+	}
+	
+	static void report(String label, long ops, long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.println(String.format("%-48s %12.1f ns/op %14.0f ops/s", label, (double) nanos / ops, ops / seconds));
+	}
+}
@@ -0,0 +1,70 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+import com.kevinchard.phonebooth.BulkEntityManager;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Loads an office of employees into an on-disk store through a regular EntityManager, committing every write and with
+ * a unit of work, and through a BulkEntityManager, and reports the employees loaded per second. Pass the number of
+ * employees as the first argument (default 100000); committing every write only loads a tenth of them.
+ */
+public class BulkLoadBenchmark extends Benchmark {
+
+	private static final int EMPLOYEES_PER_MANAGER = 100;
+	
+	public static void main(String[] args) {
+		int employees = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		
+		transactional(employees / 10, false);
+		transactional(employees, true);
+		bulk(employees);
+	}
+	
+	private static void transactional(int employees, boolean unitOfWork) {
+		
+		EmbeddedGraphDatabase db = new EmbeddedGraphDatabase(storeDir("transactional"));
+		try {
+			EntityManager em = officeSpace(db, PersistenceProperties.UNIT_OF_WORK, unitOfWork).createEntityManager();
+			
+			long start = System.nanoTime();
+			load(em, employees);
+			em.flush();
+			
+			report("load " + employees + " employees (" + (unitOfWork ? "unit of work" : "per write") + ")", employees, System.nanoTime() - start);
+		} finally {
+			db.shutdown();
+		}
+	}
+	
+	private static void bulk(int employees) {
+		
+		long start = System.nanoTime();
+		BulkEntityManager em = officeSpace().buildBulkEntityManager(storeDir("bulk"));
+		try {
+			load(em, employees);
+			System.out.println(String.format("%-48s %12.0f entities/s before close", "bulk load", em.getEntitiesPerSecond()));
+		} finally {
+			em.close();
+		}
+		
+		report("load " + employees + " employees (bulk, with close)", employees, System.nanoTime() - start);
+	}
+	
+	private static void load(EntityManager em, int employees) {
+		
+		Manager manager = null;
+		for(int i = 0; i < employees; i++) {
+			if(i % EMPLOYEES_PER_MANAGER == 0) {
+				manager = em.create(Manager.class);
+				manager.setName("Manager " + i / EMPLOYEES_PER_MANAGER);
+			}
+			
+			Employee employee = em.create(Employee.class);
+			employee.setName("Employee " + i);
+			employee.setManager(manager);
+		}
+	}
+}
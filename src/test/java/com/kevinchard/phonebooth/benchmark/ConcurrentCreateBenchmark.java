@@ -0,0 +1,67 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.EntityManagerFactory;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Creates employees of an on-disk store from an increasing number of threads, with every employee linked from the
+ * node of its type and with the type split into buckets, and reports the create throughput.
+ */
+public class ConcurrentCreateBenchmark extends Benchmark {
+
+	private static final int CREATES_PER_THREAD = 1000;
+	
+	public static void main(String[] args) throws Exception {
+		//warm up
+		run(1, 4);
+		
+		for(int buckets : new int[] { 1, 8 }) {
+			for(int threads : new int[] { 1, 2, 4, 8 }) {
+				run(buckets, threads);
+			}
+		}
+	}
+	
+	private static void run(int buckets, int threads) throws Exception {
+		
+		EmbeddedGraphDatabase db = new EmbeddedGraphDatabase(storeDir("concurrent-create"));
+		try {
+			EntityManagerFactory emf = officeSpace(db, PersistenceProperties.TYPE_BUCKETS, buckets);
+			
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] creators = new Thread[threads];
+			for(int t = 0; t < threads; t++) {
+				final EntityManager em = emf.createEntityManager();
+				creators[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for(int i = 0; i < CREATES_PER_THREAD; i++) {
+								em.create(Employee.class);
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				};
+				creators[t].start();
+			}
+			
+			long begin = System.nanoTime();
+			start.countDown();
+			for(Thread creator : creators) {
+				creator.join();
+			}
+			
+			report(buckets + " buckets, " + threads + " threads", threads * CREATES_PER_THREAD, System.nanoTime() - begin);
+		} finally {
+			db.shutdown();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.Indexed;
+import com.kevinchard.phonebooth.Property;
+
+@Entity(value = "CONTRACTOR")
+public interface Contractor {
+
+	@Id
+	Long getId();
+
+	@Property(name = "NAME", action = Action.READ)
+	String getName();
+
+	@Indexed(fulltext = true)
+	@Property(name = "NAME", action = Action.WRITE)
+	void setName(String name);
+
+	@Property(name = "HIRED", action = Action.READ)
+	Long getHired();
+
+	@Indexed(numeric = true)
+	@Property(name = "HIRED", action = Action.WRITE)
+	void setHired(long hired);
+
+	@Property(name = "SALARY", action = Action.READ)
+	Double getSalary();
+
+	@Indexed(numeric = true)
+	@Property(name = "SALARY", action = Action.WRITE)
+	void setSalary(double salary);
+}
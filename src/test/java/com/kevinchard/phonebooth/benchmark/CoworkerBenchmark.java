@@ -0,0 +1,56 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Measures adding n coworkers to a single employee, where every ADD first checks that the two are not already
+ * related. Pass "1m" to also run with a million edges, which needs a large heap. The unbounded threshold reproduces
+ * the old behaviour of always scanning the hub and is only run for the smallest size since it is quadratic.
+ */
+public class CoworkerBenchmark extends Benchmark {
+
+	private static final int BATCH = 10000;
+	
+	public static void main(String[] args) {
+		boolean million = args.length > 0 && "1m".equals(args[0]);
+		
+		run(10000, Integer.MAX_VALUE);
+		run(10000, 64);
+		run(100000, 64);
+		if(million) {
+			run(1000000, 64);
+		}
+	}
+	
+	private static void run(int edges, int threshold) {
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			EntityManager em = officeSpace(db, PersistenceProperties.DEGREE_THRESHOLD, threshold).createEntityManager();
+			
+			Employee hub = em.create(Employee.class);
+			
+			long start = System.nanoTime();
+			for(int i = 0; i < edges; i += BATCH) {
+				Transaction tx = em.beginTransaction();
+				try {
+					for(int j = i; j < Math.min(edges, i + BATCH); j++) {
+						hub.addCoworker(em.create(Employee.class));
+					}
+					tx.success();
+				} finally {
+					tx.finish();
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			
+			report("addCoworker, " + edges + " edges, threshold " + (threshold == Integer.MAX_VALUE ? "none" : threshold), edges, elapsed);
+		} finally {
+			db.shutdown();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Measures the cost of EntityManager.create() on an in-memory database, with each create committed on its own and
+ * with the creates collected into a unit of work, where the lookup of the entity type is a larger part of the cost.
+ */
+public class CreateBenchmark extends Benchmark {
+
+	private static final int CREATES = 20000;
+	
+	public static void main(String[] args) {
+		run("per write", false);
+		run("unit of work", true);
+	}
+	
+	private static void run(String label, boolean unitOfWork) {
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			final EntityManager em = officeSpace(db, PersistenceProperties.UNIT_OF_WORK, unitOfWork, 
+													 PersistenceProperties.FLUSH_THRESHOLD, 0).createEntityManager();
+			
+			run("create (" + label + ")", 3, 5, CREATES, new Runnable() {
+				public void run() {
+					for(int i = 0; i < CREATES; i++) {
+						em.create(Employee.class);
+					}
+					em.flush();
+				}
+			});
+		} finally {
+			db.shutdown();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Measures the cost of dispatching accessor calls on the README's Manager/Employee model, once for each engine, or
+ * only for the engine given as the argument. The engines share the call sites of the benchmark, so whichever runs
+ * second is measured with the profile of the first; run each engine in its own JVM to compare them.
+ */
+public class DispatchBenchmark extends Benchmark {
+
+	private static final int CALLS = 1000000;
+	
+	//Consumes what the calls return so that the JIT cannot eliminate them
+	static volatile long sink;
+	
+	public static void main(String[] args) {
+		if(args.length > 0) {
+			run(args[0]);
+		} else {
+			run(PersistenceProperties.ENGINE_PROXY);
+			run(PersistenceProperties.ENGINE_GENERATED);
+		}
+	}
+	
+	private static void run(String engine) {
+		
+		System.out.println("engine = " + engine);
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			EntityManager em = officeSpace(db, PersistenceProperties.ENGINE, engine).createEntityManager();
+			
+			final Manager lumbergh = em.create(Manager.class);
+			lumbergh.setName("Bill Lumbergh");
+			
+			final Employee peter = em.create(Employee.class);
+			peter.setName("Peter Gibbons");
+			peter.setManager(lumbergh);
+			
+			run("Employee.getName()", 5, 10, CALLS, new Runnable() {
+				public void run() {
+					long sum = 0;
+					for(int i = 0; i < CALLS; i++) {
+						sum += peter.getName().length();
+					}
+					sink = sum;
+				}
+			});
+			
+			run("Employee.getId()", 5, 10, CALLS, new Runnable() {
+				public void run() {
+					long sum = 0;
+					for(int i = 0; i < CALLS; i++) {
+						sum += peter.getId();
+					}
+					sink = sum;
+				}
+			});
+			
+			run("Employee.getManager().getName()", 5, 10, CALLS / 10, new Runnable() {
+				public void run() {
+					long sum = 0;
+					for(int i = 0; i < CALLS / 10; i++) {
+						sum += peter.getManager().getName().length();
+					}
+					sink = sum;
+				}
+			});
+		} finally {
+			db.shutdown();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import java.util.List;
+
+import org.neo4j.graphdb.Direction;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.ManyToMany;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.Property;
+
+@Entity(value = "EMPLOYEE")
+public interface Employee {
+
+	@Id
+	Long getId();
+
+	@Property(name = "NAME", action = Action.READ)
+	String getName();
+
+	@Property(name = "NAME", action = Action.WRITE)
+	void setName(String name);
+
+	@ManyToOne(name = "WORKS_FOR", direction = Direction.OUTGOING, action = Action.READ)
+	Manager getManager();
+
+	@ManyToOne(name = "WORKS_FOR", direction = Direction.OUTGOING, action = Action.WRITE)
+	Manager setManager(Manager manager);
+
+	@ManyToMany(name = "WORKS_WITH", direction = Direction.BOTH, action = CollectionAction.READ)
+	List<Employee> getCoworkers();
+
+	@ManyToMany(name = "WORKS_WITH", direction = Direction.BOTH, action = CollectionAction.ADD)
+	List<Employee> addCoworker(Employee employee);
+
+	@ManyToMany(name = "WORKS_WITH", direction = Direction.BOTH, action = CollectionAction.REMOVE)
+	List<Employee> removeCoworker(Employee employee);
+}
@@ -0,0 +1,84 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.EntityManagerFactory;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Renames employees of an on-disk store from several threads, each thread waiting for every write to be committed as
+ * a request handler would, and reports the throughput and the latency of the writes with each write committed by its
+ * own thread and with asynchronous writes grouped into transactions at several linger times. Pass the number of
+ * threads as the first argument (default 8).
+ */
+public class GroupCommitBenchmark extends Benchmark {
+
+	private static final int WRITES_PER_THREAD = 500;
+	
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		
+		run("per write", threads, PersistenceProperties.ASYNC_WRITES, false);
+		for(int linger : new int[] { 0, 1, 5 }) {
+			run("async, linger " + linger + "ms", threads, PersistenceProperties.ASYNC_WRITES, true, PersistenceProperties.ASYNC_LINGER_MILLIS, linger);
+		}
+	}
+	
+	private static void run(String label, int threads, Object ... properties) throws Exception {
+		
+		EmbeddedGraphDatabase db = new EmbeddedGraphDatabase(storeDir("group-commit"));
+		EntityManagerFactory emf = officeSpace(db, properties);
+		try {
+			final long[][] latencies = new long[threads][WRITES_PER_THREAD];
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] writers = new Thread[threads];
+			
+			for(int t = 0; t < threads; t++) {
+				final long[] own = latencies[t];
+				final EntityManager em = emf.createEntityManager();
+				final Employee employee = em.create(Employee.class);
+				
+				writers[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for(int i = 0; i < own.length; i++) {
+								long begin = System.nanoTime();
+								employee.setName("Employee " + i);
+								em.flush();
+								own[i] = System.nanoTime() - begin;
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				};
+				writers[t].start();
+			}
+			
+			long begin = System.nanoTime();
+			start.countDown();
+			for(Thread writer : writers) {
+				writer.join();
+			}
+			long elapsed = System.nanoTime() - begin;
+			
+			long[] all = new long[threads * WRITES_PER_THREAD];
+			for(int t = 0; t < threads; t++) {
+				System.arraycopy(latencies[t], 0, all, t * WRITES_PER_THREAD, WRITES_PER_THREAD);
+			}
+			Arrays.sort(all);
+			
+			report(threads + " threads, " + label, all.length, elapsed);
+			System.out.println(String.format("%-48s %12.2f ms p50 %11.2f ms p99", "", all[all.length / 2] / 1e6, all[all.length * 99 / 100] / 1e6));
+		} finally {
+			emf.close();
+			db.shutdown();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.neo4j.graphdb.Direction;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.Property;
+
+@Entity(value = "MANAGER")
+public interface Manager {
+
+	@Id
+	Long getId();
+
+	@Property(name = "NAME", action = Action.READ)
+	String getName();
+
+	@Property(name = "NAME", action = Action.WRITE)
+	void setName(String name);
+
+	@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.READ)
+	List<Employee> getEmployees();
+
+	@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.ADD)
+	List<Employee> addEmployee(Employee employee);
+
+	@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.REMOVE)
+	List<Employee> removeEmployee(Employee employee);
+
+	@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.COUNT)
+	int countEmployees();
+	
+	@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.ADD_ALL)
+	void addEmployees(Collection<Employee> employees);
+}
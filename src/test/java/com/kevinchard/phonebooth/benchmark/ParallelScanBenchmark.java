@@ -0,0 +1,64 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.EntityReducer;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Sums the name lengths of every employee with EntityManager.scan at 1, 2, 4, 8 and 16 threads, with the employees
+ * linked from a single type node, which the calling thread splits into batches, and from 16 buckets, which are
+ * scanned by a thread each. Pass the number of employees as the first argument (default 100000).
+ */
+public class ParallelScanBenchmark extends Benchmark {
+
+	private static final EntityReducer<Employee, Long> NAME_LENGTH = new EntityReducer<Employee, Long>() {
+		
+		@Override
+		public Long initial() {
+			return 0L;
+		}
+		
+		@Override
+		public Long accumulate(Long accumulator, Employee employee) {
+			return accumulator + employee.getName().length();
+		}
+		
+		@Override
+		public Long combine(Long left, Long right) {
+			return left + right;
+		}
+	};
+	
+	public static void main(String[] args) {
+		int employees = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		
+		run(employees, 1);
+		run(employees, 16);
+	}
+	
+	private static void run(final int employees, int buckets) {
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			final EntityManager em = officeSpace(db, PersistenceProperties.TYPE_BUCKETS, buckets,
+													 PersistenceProperties.UNIT_OF_WORK, true).createEntityManager();
+			int i = 0;
+			for(Employee employee : em.createAll(Employee.class, employees)) {
+				employee.setName("Employee " + i++);
+			}
+			em.flush();
+			
+			for(final int threads : new int[] { 1, 2, 4, 8, 16 }) {
+				run(buckets + " buckets, " + threads + " threads", 3, 3, employees, new Runnable() {
+					public void run() {
+						em.scan(Employee.class, NAME_LENGTH, threads);
+					}
+				});
+			}
+		} finally {
+			db.shutdown();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.Persistence;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Finds the 50 best paid contractors hired in a tenth of the hiring period, once with findAll and an in-memory filter
+ * and sort and once with EntityManager.findRange. Pass the number of contractors as the first argument (default
+ * 50000).
+ */
+public class RangeQueryBenchmark extends Benchmark {
+
+	private static final Comparator<Contractor> BY_SALARY_DESCENDING = new Comparator<Contractor>() {
+		@Override
+		public int compare(Contractor left, Contractor right) {
+			return right.getSalary().compareTo(left.getSalary());
+		}
+	};
+	
+	public static void main(String[] args) {
+		final int contractors = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		final long from = contractors * 4L;
+		final long to = contractors * 5L;
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			final EntityManager em = Persistence.create("com.kevinchard.phonebooth.core.NeoEntityManagerFactory")
+												.forEntity(Contractor.class)
+												.withProperty(PersistenceProperties.UNIT_OF_WORK, true)
+												.withGraphDatabaseService(db)
+												.build()
+												.createEntityManager();
+			
+			Random random = new Random(42);
+			for(Contractor contractor : em.createAll(Contractor.class, contractors)) {
+				contractor.setHired(random.nextInt(contractors * 10));
+				contractor.setSalary(random.nextInt(100000) / 100.0);
+			}
+			em.flush();
+			
+			run("findAll, filter and sort", 2, 5, 1, new Runnable() {
+				public void run() {
+					List<Contractor> hired = new ArrayList<Contractor>();
+					for(Contractor contractor : em.findAll(Contractor.class)) {
+						if(contractor.getHired() >= from && contractor.getHired() <= to) {
+							hired.add(contractor);
+						}
+					}
+					Collections.sort(hired, BY_SALARY_DESCENDING);
+					hired.subList(0, Math.min(50, hired.size())).size();
+				}
+			});
+			
+			run("findRange", 2, 5, 1, new Runnable() {
+				public void run() {
+					for(Contractor contractor : em.findRange(Contractor.class, "HIRED", from, to, "SALARY", true, 50)) {
+						contractor.getSalary();
+					}
+				}
+			});
+		} finally {
+			db.shutdown();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.Persistence;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Finds the first 20 contractors with a surname starting with a given prefix, once by reading every contractor with
+ * findAll and matching the words of its name and once with EntityManager.search. Pass the number of contractors as
+ * the first argument (default 50000).
+ */
+public class SearchBenchmark extends Benchmark {
+
+	private static final String[] FIRST_NAMES = { "John", "Jane", "Waylon", "Lisa", "Homer", "Marge", "Ned", "Edna" };
+	
+	public static void main(String[] args) {
+		final int contractors = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			final EntityManager em = Persistence.create("com.kevinchard.phonebooth.core.NeoEntityManagerFactory")
+												.forEntity(Contractor.class)
+												.withProperty(PersistenceProperties.UNIT_OF_WORK, true)
+												.withGraphDatabaseService(db)
+												.build()
+												.createEntityManager();
+			
+			Random random = new Random(42);
+			for(Contractor contractor : em.createAll(Contractor.class, contractors)) {
+				contractor.setName(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + surname(random));
+			}
+			em.flush();
+			
+			run("findAll and match", 2, 5, 1, new Runnable() {
+				public void run() {
+					List<Contractor> found = new ArrayList<Contractor>();
+					for(Contractor contractor : em.findAll(Contractor.class)) {
+						for(String word : contractor.getName().toLowerCase().split(" ")) {
+							if(word.startsWith("smi")) {
+								found.add(contractor);
+								break;
+							}
+						}
+						if(found.size() == 20) {
+							break;
+						}
+					}
+				}
+			});
+			
+			run("search", 2, 5, 1, new Runnable() {
+				public void run() {
+					for(Contractor contractor : em.search(Contractor.class, "NAME", "smi*", 20)) {
+						contractor.getName();
+					}
+				}
+			});
+		} finally {
+			db.shutdown();
+		}
+	}
+	
+	//Random five letter surnames, about one in four thousand of which start with Smi
+	private static String surname(Random random) {
+		char[] letters = new char[5];
+		letters[0] = (char) ('A' + random.nextInt(26));
+		for(int i = 1; i < letters.length; i++) {
+			letters[i] = (char) ('a' + random.nextInt(i < 3 ? 13 : 26));
+		}
+		return new String(letters);
+	}
+}
@@ -0,0 +1,53 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+
+/**
+ * Measures walking relationships: iterating a manager's employees, and going from each employee back to the manager.
+ * Both resolve the entity class of every node they reach.
+ */
+public class TraversalBenchmark extends Benchmark {
+
+	private static final int EMPLOYEES = 1000;
+	
+	public static void main(String[] args) {
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			EntityManager em = officeSpace(db).createEntityManager();
+			
+			final Manager lumbergh = em.create(Manager.class);
+			
+			Transaction tx = em.beginTransaction();
+			try {
+				for(int i = 0; i < EMPLOYEES; i++) {
+					lumbergh.addEmployee(em.create(Employee.class));
+				}
+				tx.success();
+			} finally {
+				tx.finish();
+			}
+			
+			run("Manager.getEmployees(), per employee", 20, 20, EMPLOYEES, new Runnable() {
+				public void run() {
+					for(Employee employee : lumbergh.getEmployees()) {
+						employee.getId();
+					}
+				}
+			});
+			
+			run("Employee.getManager(), per employee", 20, 20, EMPLOYEES, new Runnable() {
+				public void run() {
+					for(Employee employee : lumbergh.getEmployees()) {
+						employee.getManager();
+					}
+				}
+			});
+		} finally {
+			db.shutdown();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.kevinchard.phonebooth.benchmark;
+
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.PersistenceProperties;
+
+/**
+ * Measures the throughput of creating and populating employees, with each write committed on its own and with the
+ * writes collected into a unit of work.
+ */
+public class WriteBatchingBenchmark extends Benchmark {
+
+	private static final int EMPLOYEES = 2000;
+	
+	public static void main(String[] args) {
+		run("per write", false);
+		run("unit of work", true);
+	}
+	
+	private static void run(String label, boolean unitOfWork) {
+		
+		ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+		try {
+			final EntityManager em = officeSpace(db, PersistenceProperties.UNIT_OF_WORK, unitOfWork).createEntityManager();
+			
+			final Manager lumbergh = em.create(Manager.class);
+			lumbergh.setName("Bill Lumbergh");
+			em.flush();
+			
+			run("create, setName, setManager (" + label + ")", 2, 5, EMPLOYEES, new Runnable() {
+				public void run() {
+					for(int i = 0; i < EMPLOYEES; i++) {
+						Employee employee = em.create(Employee.class);
+						employee.setName("Employee " + i);
+						employee.setManager(lumbergh);
+					}
+					em.flush();
+				}
+			});
+		} finally {
+			db.shutdown();
+		}
+	}
+}
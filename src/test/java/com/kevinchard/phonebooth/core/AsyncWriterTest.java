@@ -0,0 +1,187 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.ImpermanentGraphDatabase;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import com.kevinchard.phonebooth.tx.TransactionManager;
+
+public class AsyncWriterTest {
+
+	private GraphDatabaseService dbService;
+	private CountingTransactionManager txManager;
+	private AsyncWriter writer;
+	
+	@Before
+	public void setUp() {
+		dbService = new ImpermanentGraphDatabase();
+		txManager = new CountingTransactionManager();
+	}
+	
+	@After
+	public void tearDown() {
+		if(writer != null) {
+			writer.close();
+		}
+		dbService.shutdown();
+	}
+	
+	@Test
+	public void testWritesAreGroupedIntoOneTransaction() throws Exception {
+		writer = new AsyncWriter(txManager, 4, 10000, 10);
+		
+		List<Future<Node>> writes = new ArrayList<Future<Node>>();
+		for(int i = 0; i < 4; i++) {
+			writes.add(writer.submit(new CreateNode()));
+		}
+		
+		for(Future<Node> write : writes) {
+			assertTrue(dbService.getNodeById(write.get(5, TimeUnit.SECONDS).getId()) != null);
+		}
+		assertEquals(1, txManager.begun.get());
+	}
+	
+	@Test
+	public void testFailingWriteOnlyFailsItself() throws Exception {
+		writer = new AsyncWriter(txManager, 3, 10000, 10);
+		
+		Future<Node> first = writer.submit(new CreateNode());
+		Future<Node> failing = writer.submit(new AsyncWriter.Write<Node>() {
+			@Override
+			Node run() {
+				dbService.createNode();
+				throw new IllegalStateException("FAILED");
+			}
+		});
+		Future<Node> last = writer.submit(new CreateNode());
+		
+		assertNodeExists(first.get(5, TimeUnit.SECONDS));
+		assertNodeExists(last.get(5, TimeUnit.SECONDS));
+		try {
+			failing.get(5, TimeUnit.SECONDS);
+			fail("The write should have failed");
+		} catch (ExecutionException e) {
+			assertEquals("FAILED", e.getCause().getMessage());
+		}
+		
+		//the batch and then each of its writes on its own
+		assertEquals(4, txManager.begun.get());
+		//the reference node, and the nodes of the writes that succeeded
+		assertEquals(3, countNodes());
+	}
+	
+	@Test
+	public void testSubmitBlocksWhileTheQueueIsFull() throws Exception {
+		writer = new AsyncWriter(txManager, 1, 0, 1);
+		
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		writer.submit(new AsyncWriter.Write<Void>() {
+			@Override
+			Void run() {
+				running.countDown();
+				await(release);
+				return null;
+			}
+		});
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+		
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				writer.submit(new CreateNode());
+				submitted.countDown();
+			}
+		};
+		producer.start();
+		
+		assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(submitted.await(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testCloseCommitsQueuedWrites() throws Exception {
+		writer = new AsyncWriter(txManager, 10, 10000, 10);
+		
+		Future<Node> write = writer.submit(new CreateNode());
+		writer.close();
+		
+		assertTrue(write.isDone());
+		assertNodeExists(write.get());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testSubmitAfterClose() {
+		writer = new AsyncWriter(txManager, 10, 0, 10);
+		writer.close();
+		
+		writer.submit(new CreateNode());
+	}
+	
+	@Test
+	public void testCompleted() throws Exception {
+		Future<Void> completed = AsyncWriter.completed(null);
+		
+		assertTrue(completed.isDone());
+		assertNull(completed.get());
+	}
+	
+	private void assertNodeExists(Node node) {
+		assertEquals(node, dbService.getNodeById(node.getId()));
+	}
+	
+	private int countNodes() {
+		int count = 0;
+		for(@SuppressWarnings("unused") Node node : GlobalGraphOperations.at(dbService).getAllNodes()) {
+			count++;
+		}
+		return count;
+	}
+	
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private final class CreateNode extends AsyncWriter.Write<Node> {
+		@Override
+		Node run() {
+			return dbService.createNode();
+		}
+	}
+	
+	private final class CountingTransactionManager implements TransactionManager {
+		
+		private final AtomicInteger begun = new AtomicInteger();
+		
+		@Override
+		public Transaction beginTx() {
+			begun.incrementAndGet();
+			return dbService.beginTx();
+		}
+	}
+}
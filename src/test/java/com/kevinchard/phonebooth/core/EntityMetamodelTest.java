@@ -0,0 +1,236 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.IllegalRelationshipException;
+import com.kevinchard.phonebooth.ManyToMany;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.Property;
+import com.kevinchard.phonebooth.metamodel.MethodDescriptor;
+import com.kevinchard.phonebooth.metamodel.MethodDescriptor.IndexOption;
+import com.kevinchard.phonebooth.metamodel.StaticMetamodel;
+
+public class EntityMetamodelTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullEntityClass() {
+		EntityMetamodel.of(null);
+	}
+	
+	@Test
+	public void testMetamodelIsCached() {
+		assertSame(EntityMetamodel.of(A.class), EntityMetamodel.of(A.class));
+	}
+	
+	@Test
+	public void testAnnotatedMethodsAreResolved() throws Exception {
+		EntityMetamodel metamodel = EntityMetamodel.of(A.class);
+		
+		assertEquals(3, metamodel.getMethods().size());
+		assertTrue(metamodel.getMethod(A.class.getMethod("getId")) instanceof IdMethod);
+		
+		PropertyMethod property = (PropertyMethod) metamodel.getMethod(A.class.getMethod("getName"));
+		assertEquals("NAME", property.getKey());
+		assertEquals(Action.READ, property.getAction());
+		
+		RelationshipMethod relationship = (RelationshipMethod) metamodel.getMethod(A.class.getMethod("getFriends"));
+		assertEquals("FRIENDS", relationship.getType().name());
+		assertEquals(Direction.BOTH, relationship.getDirection());
+	}
+	
+	@Test
+	public void testUnannotatedMethodsAreIgnored() throws Exception {
+		assertNull(EntityMetamodel.of(A.class).getMethod(A.class.getMethod("notMapped")));
+	}
+	
+	@Test
+	public void testGetRelationship() throws Exception {
+		EntityMetamodel metamodel = EntityMetamodel.of(A.class);
+		
+		assertSame(metamodel.getMethod(A.class.getMethod("getFriends")), metamodel.getRelationship(ManyToManyMethod.class, "FRIENDS"));
+		assertNull(metamodel.getRelationship(OneToManyMethod.class, "FRIENDS"));
+		assertNull(metamodel.getRelationship(ManyToManyMethod.class, "ENEMIES"));
+	}
+	
+	@Test
+	public void testValidate() {
+		EntityMetamodel.of(A.class).validate();
+		EntityMetamodel.of(Parent.class).validate();
+		EntityMetamodel.of(Child.class).validate();
+	}
+	
+	@Test
+	public void testValidateMissingOpposite() {
+		try {
+			EntityMetamodel.of(Orphan.class).validate();
+			fail("Should have thrown exception");
+		} catch(IllegalRelationshipException e) {
+			assertTrue(e.getMessage().contains("CHILD_OF"));
+		}
+	}
+	
+	@Test
+	public void testOppositeIsResolvedOnce() throws Exception {
+		RelationshipMethod addChild = (RelationshipMethod) EntityMetamodel.of(Parent.class).getMethod(Parent.class.getMethod("addChild", Child.class));
+		
+		RelationshipMethod opposite = addChild.getOpposite(Child.class);
+		assertSame(EntityMetamodel.of(Child.class).getMethod(Child.class.getMethod("setParent", Parent.class)), opposite);
+		assertSame(opposite, addChild.getOpposite(Child.class));
+	}
+	
+	@Test
+	public void testStaticMetamodelIsPreferred() throws Exception {
+		EntityMetamodel metamodel = EntityMetamodel.of(Described.class);
+		
+		assertTrue(metamodel.isStatic());
+		assertFalse(EntityMetamodel.of(A.class).isStatic());
+		
+		PropertyMethod property = (PropertyMethod) metamodel.getMethod(Described.class.getMethod("getName"));
+		assertEquals("NAME", property.getKey());
+		assertEquals(Action.READ, property.getAction());
+		assertFalse(property.isIndexed());
+		assertNull(metamodel.getMethod(Described.class.getMethod("notMapped")));
+		
+		PropertyMethod mutator = (PropertyMethod) metamodel.getMethod(Described.class.getMethod("setName", String.class));
+		assertTrue(mutator.isIndexed());
+		assertTrue(mutator.isUnique());
+		assertNull(mutator.getNumericType());
+		assertFalse(mutator.isFulltext());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testStaleStaticMetamodel() {
+		EntityMetamodel.of(Stale.class);
+	}
+	
+	@Test
+	public void testFailingStaticMetamodel() {
+		try {
+			EntityMetamodel.of(Failing.class);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(UnsupportedOperationException.class, e.getCause().getClass());
+		}
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testCountMustReturnANumber() {
+		EntityMetamodel.of(BadCount.class);
+	}
+	
+	private interface A {
+		
+		@Id Long getId();
+		
+		@Property(name = "NAME", action = Action.READ)
+		String getName();
+		
+		@ManyToMany(name = "FRIENDS", direction = Direction.BOTH, action = CollectionAction.READ)
+		List<A> getFriends();
+		
+		String notMapped();
+	}
+	
+	private interface Parent {
+		
+		@OneToMany(name = "CHILD_OF", direction = Direction.INCOMING, action = CollectionAction.ADD)
+		void addChild(Child child);
+	}
+	
+	private interface Child {
+		
+		@ManyToOne(name = "CHILD_OF", direction = Direction.OUTGOING, action = Action.WRITE)
+		void setParent(Parent parent);
+	}
+	
+	private interface BadCount {
+		
+		@ManyToMany(name = "FRIENDS", direction = Direction.BOTH, action = CollectionAction.COUNT)
+		String countFriends();
+	}
+	
+	private interface Orphan {
+		
+		@ManyToOne(name = "CHILD_OF", direction = Direction.OUTGOING, action = Action.WRITE)
+		void setParent(A parent);
+	}
+	
+	interface Described {
+		
+		String getName();
+		
+		void setName(String name);
+		
+		String notMapped();
+	}
+	
+	static final class Described_ implements StaticMetamodel {
+		
+		@Override
+		public Class<?> getEntityClass() {
+			return Described.class;
+		}
+		
+		@Override
+		public List<MethodDescriptor> getMethods() {
+			return Arrays.asList(MethodDescriptor.property("getName", new Class<?>[] {}, "NAME", Action.READ), 
+								 MethodDescriptor.property("setName", new Class<?>[] { String.class }, "NAME", Action.WRITE, IndexOption.INDEXED, IndexOption.UNIQUE));
+		}
+	}
+	
+	interface Stale {
+		
+		String getName();
+	}
+	
+	static final class Stale_ implements StaticMetamodel {
+		
+		@Override
+		public Class<?> getEntityClass() {
+			return Stale.class;
+		}
+		
+		@Override
+		public List<MethodDescriptor> getMethods() {
+			return Arrays.asList(MethodDescriptor.property("getRenamed", new Class<?>[] {}, "NAME", Action.READ));
+		}
+	}
+	
+	interface Failing {
+		
+		String getName();
+	}
+	
+	static final class Failing_ implements StaticMetamodel {
+		
+		Failing_() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Class<?> getEntityClass() {
+			return Failing.class;
+		}
+		
+		@Override
+		public List<MethodDescriptor> getMethods() {
+			return Collections.emptyList();
+		}
+	}
+}
@@ -15,6 +15,7 @@ import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.test.ImpermanentGraphDatabase;
 
@@ -306,6 +307,102 @@ public class EntityNodeTest {
 		assertEquals(null, en2.getRelatedEntity(DynamicRelationshipType.withName("rel"), Direction.BOTH));
 	}
 	
+	@Test
+	public void testCountRelationships() {
+		EntityNode en1 = new EntityNode(createNode(A.class), A.class);
+		EntityNode en2 = new EntityNode(createNode(A.class), A.class);
+		RelationshipType rel = DynamicRelationshipType.withName("rel");
+		
+		en1.createRelationship(en2, rel, Direction.OUTGOING);
+		en1.createRelationship(en2, rel, Direction.OUTGOING);
+		en1.createRelationship(en1, rel, Direction.OUTGOING);
+		
+		assertEquals(3, en1.countRelationships(rel, Direction.OUTGOING));
+		assertEquals(1, en1.countRelationships(rel, Direction.INCOMING));
+		assertEquals(3, en1.countRelationships(rel, Direction.BOTH));
+		assertEquals(2, en2.countRelationships(rel, Direction.INCOMING));
+		assertEquals(0, en2.countRelationships(rel, Direction.OUTGOING));
+		assertEquals(0, en1.countRelationships(DynamicRelationshipType.withName("other"), Direction.BOTH));
+		
+		en1.deleteRelationship(en2, rel, Direction.OUTGOING);
+		assertEquals(1, en1.countRelationships(rel, Direction.OUTGOING));
+		assertEquals(0, en2.countRelationships(rel, Direction.INCOMING));
+		
+		en1.deleteSingleRelationship(rel, Direction.OUTGOING);
+		assertEquals(0, en1.countRelationships(rel, Direction.BOTH));
+	}
+	
+	@Test
+	public void testCountRelationshipsOfDeletedNode() {
+		EntityNode en1 = new EntityNode(createNode(A.class), A.class);
+		EntityNode en2 = new EntityNode(createNode(A.class), A.class);
+		RelationshipType rel = DynamicRelationshipType.withName("rel");
+		
+		en1.createRelationship(en2, rel, Direction.BOTH);
+		assertEquals(1, en2.countRelationships(rel, Direction.BOTH));
+		
+		en1.delete();
+		assertEquals(0, en2.countRelationships(rel, Direction.BOTH));
+	}
+	
+	@Test
+	public void testCountRelationshipsWithoutCounters() {
+		Node n1 = createNode(A.class);
+		Node n2 = createNode(A.class);
+		RelationshipType rel = DynamicRelationshipType.withName("rel");
+		
+		Transaction tx = dbService.beginTx();
+		try {
+			n1.createRelationshipTo(n2, rel);
+			n1.createRelationshipTo(n2, rel);
+			tx.success();
+		} finally {
+			tx.finish();
+		}
+		
+		EntityNode en1 = new EntityNode(n1, A.class);
+		EntityNode en2 = new EntityNode(n2, A.class);
+		assertEquals(2, en1.countRelationships(rel, Direction.OUTGOING));
+		
+		en1.createRelationship(en2, rel, Direction.OUTGOING);
+		assertEquals(3, en1.countRelationships(rel, Direction.OUTGOING));
+		assertEquals(3, en2.countRelationships(rel, Direction.INCOMING));
+	}
+	
+	@Test
+	public void testIsRelatedToHighDegreeNode() {
+		TopologyContext context = new TopologyContext(2, new EntityTypeRegistry());
+		EntityNode hub = new EntityNode(createNode(A.class), A.class, context);
+		RelationshipType rel = DynamicRelationshipType.withName("rel");
+		
+		EntityNode[] leaves = new EntityNode[5];
+		for(int i = 0; i < leaves.length; i++) {
+			leaves[i] = new EntityNode(createNode(A.class), A.class, context);
+			hub.createRelationship(leaves[i], rel, Direction.OUTGOING);
+		}
+		EntityNode unrelated = new EntityNode(createNode(A.class), A.class, context);
+		EntityNode unrelatedWithOthers = new EntityNode(createNode(A.class), A.class, context);
+		unrelatedWithOthers.createRelationship(unrelated, rel, Direction.INCOMING);
+		
+		for(EntityNode leaf : leaves) {
+			assertTrue(hub.isRelatedTo(leaf, rel, Direction.OUTGOING));
+			assertTrue(hub.isRelatedTo(leaf, rel, Direction.BOTH));
+			assertFalse(hub.isRelatedTo(leaf, rel, Direction.INCOMING));
+			assertTrue(leaf.isRelatedTo(hub, rel, Direction.INCOMING));
+		}
+		assertFalse(hub.isRelatedTo(unrelated, rel, Direction.OUTGOING));
+		assertFalse(hub.isRelatedTo(unrelatedWithOthers, rel, Direction.BOTH));
+		
+		hub.createRelationship(hub, rel, Direction.OUTGOING);
+		assertTrue(hub.isRelatedTo(hub, rel, Direction.BOTH));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetReservedProperty() {
+		EntityNode en = new EntityNode(createNode(A.class), A.class);
+		en.setProperty(EntityNode.RESERVED_KEY_PREFIX + "DEGREE_OUT_rel", 5L);
+	}
+	
 	private Node createNode() {
 		Transaction tx = dbService.beginTx();
 		try{
@@ -2,6 +2,8 @@ package com.kevinchard.phonebooth.core;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 import org.junit.After;
@@ -172,6 +174,20 @@ public class EntityProxyManyToManyTest extends EntityProxyTestBase {
 		assertEquals(0, a.getManyToManyReflexive().size());
 	}
 	
+	@Test
+	public void testAddAllManyToManyRelationship() {
+		A a = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
+		B b1 = (B) EntityProxy.createProxy(createEntityNode(B.class), B.class);
+		B b2 = (B) EntityProxy.createProxy(createEntityNode(B.class), B.class);
+		
+		a.addManyToManyB(b1);
+		a.addAllManyToManyB(Arrays.asList(b1, b2));
+		
+		assertEquals(2, a.getManyToManyB().size());
+		assertEquals(1, b1.getManyToManyA().size());
+		assertEquals(1, b2.getManyToManyA().size());
+	}
+	
 	private interface A {
 		
 		@ManyToMany(name = "MANY_TO_MANY_WRONG_ACTION", direction = Direction.OUTGOING, action = CollectionAction.REMOVE)
@@ -207,6 +223,9 @@ public class EntityProxyManyToManyTest extends EntityProxyTestBase {
 		@ManyToMany(name = "MANY_TO_MANY", direction = Direction.OUTGOING, action = CollectionAction.REMOVE)
 		void removeManyToManyB(B b);
 		
+		@ManyToMany(name = "MANY_TO_MANY", direction = Direction.OUTGOING, action = CollectionAction.ADD_ALL)
+		void addAllManyToManyB(Collection<? extends B> bs);
+		
 		@ManyToMany(name = "REFLEXIVE", direction = Direction.BOTH, action = CollectionAction.READ)
 		List<A> getManyToManyReflexive();
 		
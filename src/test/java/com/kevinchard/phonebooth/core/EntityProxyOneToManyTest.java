@@ -2,7 +2,10 @@ package com.kevinchard.phonebooth.core;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.After;
@@ -124,6 +127,37 @@ public class EntityProxyOneToManyTest extends EntityProxyTestBase {
 		assertEquals(a, b2.getManyTo1A());
 	}
 	
+	@Test 
+	public void testOneToManyReadIsReadOnly() {
+		A a = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
+		B b1 = (B) EntityProxy.createProxy(createEntityNode(B.class), B.class);
+		B b2 = (B) EntityProxy.createProxy(createEntityNode(B.class), B.class);
+		
+		a.add1toManyB(b1);
+		
+		List<B> bs = a.get1toManyB();
+		try {
+			bs.add(b2);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			//expected
+		}
+		try {
+			bs.remove(0);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			//expected
+		}
+		
+		assertEquals(1, a.get1toManyB().size());
+		assertNull(b2.getManyTo1A());
+		
+		List<B> copy = new ArrayList<B>(bs);
+		copy.add(b2);
+		assertEquals(2, copy.size());
+		assertEquals(1, a.get1toManyB().size());
+	}
+	
 	@Test 
 	public void testSetGetOneToManyRelationshipTwice() {
 		A a = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
@@ -295,6 +329,54 @@ public class EntityProxyOneToManyTest extends EntityProxyTestBase {
 		assertNull(a.getManyTo1Reflexive());
 	}
 	
+	@Test
+	public void testCountOneToManyRelationship() {
+		A a1 = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
+		A a2 = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
+		B b1 = (B) EntityProxy.createProxy(createEntityNode(B.class), B.class);
+		B b2 = (B) EntityProxy.createProxy(createEntityNode(B.class), B.class);
+		
+		assertEquals(0, a1.count1toManyB());
+		
+		a1.add1toManyB(b1);
+		b2.setManyTo1A(a1);
+		assertEquals(2, a1.count1toManyB());
+		
+		a2.add1toManyB(b1);
+		assertEquals(1, a1.count1toManyB());
+		assertEquals(1, a2.count1toManyB());
+		
+		a1.remove1ToManyB(b2);
+		assertEquals(0, a1.count1toManyB());
+	}
+	
+	@Test
+	public void testCountOneToManyReflexive() {
+		A a1 = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
+		A a2 = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
+		
+		a1.add1toManyReflexive(a1);
+		a1.add1toManyReflexive(a2);
+		assertEquals(Long.valueOf(2), a1.count1toManyReflexive());
+		assertEquals(a1.get1toManyReflexive().size(), a1.count1toManyReflexive().intValue());
+	}
+	
+	@Test
+	public void testAddAllOneToManyRelationship() {
+		A a1 = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
+		A a2 = (A) EntityProxy.createProxy(createEntityNode(A.class), A.class);
+		B b1 = (B) EntityProxy.createProxy(createEntityNode(B.class), B.class);
+		B b2 = (B) EntityProxy.createProxy(createEntityNode(B.class), B.class);
+		
+		b1.setManyTo1A(a2);
+		a1.addAll1toManyB(Arrays.asList(b1, b2, null, b1));
+		
+		assertEquals(2, a1.count1toManyB());
+		assertEquals(0, a2.count1toManyB());
+		assertEquals(a1, b1.getManyTo1A());
+		assertEquals(a1, b2.getManyTo1A());
+	}
+	
 	private interface A {
 		
 		@OneToMany(name = "WRONG_ACTION", direction = Direction.OUTGOING, action = CollectionAction.ADD)
@@ -333,6 +415,12 @@ public class EntityProxyOneToManyTest extends EntityProxyTestBase {
 		@OneToMany(name = "5", direction = Direction.OUTGOING, action = CollectionAction.REMOVE)
 		void remove1ToManyB(B b);
 		
+		@OneToMany(name = "5", direction = Direction.OUTGOING, action = CollectionAction.COUNT)
+		int count1toManyB();
+		
+		@OneToMany(name = "5", direction = Direction.OUTGOING, action = CollectionAction.ADD_ALL)
+		void addAll1toManyB(List<B> bs);
+		
 		@OneToMany(name = "REFLEXIVE", direction = Direction.BOTH, action = CollectionAction.READ)
 		List<A> get1toManyReflexive();
 		
@@ -342,6 +430,9 @@ public class EntityProxyOneToManyTest extends EntityProxyTestBase {
 		@OneToMany(name = "REFLEXIVE", direction = Direction.BOTH, action = CollectionAction.REMOVE)
 		void remove1ToManyReflexive(A a);
 		
+		@OneToMany(name = "REFLEXIVE", direction = Direction.BOTH, action = CollectionAction.COUNT)
+		Long count1toManyReflexive();
+		
 		@ManyToOne(name = "REFLEXIVE", direction = Direction.BOTH, action = Action.READ)
 		A getManyTo1Reflexive();
 		
@@ -0,0 +1,202 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityCursor;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.EntityTraversal;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.ManyToMany;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.UnknownEntityException;
+import com.kevinchard.phonebooth.core.NeoEntityManagerFactory.SimpleTransactionManager;
+
+public class EntityTraversalTest {
+
+	private GraphDatabaseService dbService;
+	private EntityManager em;
+	private TopologyManager tm;
+	
+	private E a;
+	private E b;
+	private E c;
+	private E d;
+	
+	@Before
+	public void setUp() {
+		dbService = new ImpermanentGraphDatabase();
+		tm = new SimpleTopologyManager(dbService);
+		em = new NeoEntityManager(tm, new SimpleTransactionManager(dbService));
+		
+		tm.addEntityDefinition(E.class);
+		tm.addEntityDefinition(M.class);
+		
+		a = em.create(E.class);
+		b = em.create(E.class);
+		c = em.create(E.class);
+		d = em.create(E.class);
+	}
+	
+	@After
+	public void tearDown() {
+		dbService.shutdown();
+	}
+	
+	@Test
+	public void testCoworkersOfCoworkers() {
+		a.addCoworker(b);
+		b.addCoworker(c);
+		a.addCoworker(c);
+		c.addCoworker(d);
+		
+		EntityTraversal<E> coworkersOfCoworkers = em.traverse(E.class).follow("WORKS_WITH", E.class).follow("WORKS_WITH", E.class);
+		
+		List<E> found = list(coworkersOfCoworkers.from(a));
+		assertEquals(3, found.size());
+		assertEquals(set(b, c, d), new HashSet<E>(found));
+		
+		assertEquals(Arrays.asList(d), list(coworkersOfCoworkers.excludeVisited().from(a)));
+	}
+	
+	@Test
+	public void testTraversalAcrossClasses() {
+		M m1 = em.create(M.class);
+		M m2 = em.create(M.class);
+		a.setManager(m1);
+		b.setManager(m1);
+		c.setManager(m1);
+		d.setManager(m2);
+		
+		EntityTraversal<M> managers = em.traverse(E.class).follow("WORKS_FOR", M.class);
+		EntityTraversal<E> teammates = managers.follow("WORKS_FOR", E.class);
+		
+		assertEquals(Arrays.asList(m1), list(managers.from(a)));
+		assertEquals(set(b, c), new HashSet<E>(list(teammates.from(a))));
+		assertEquals(new ArrayList<E>(), list(teammates.from(d)));
+	}
+	
+	@Test
+	public void testRepeat() {
+		a.setBoss(b);
+		b.setBoss(c);
+		c.setBoss(d);
+		
+		EntityTraversal<E> bosses = em.traverse(E.class).follow("REPORTS_TO", Direction.OUTGOING, E.class);
+		
+		assertEquals(Arrays.asList(b), list(bosses.from(a)));
+		assertEquals(Arrays.asList(b, c), list(bosses.repeat(2).from(a)));
+		assertEquals(Arrays.asList(b, c, d), list(bosses.repeat(10).from(a)));
+		assertEquals(Arrays.asList(c, b, a), list(em.traverse(E.class).follow("REPORTS_TO", Direction.INCOMING, E.class).repeat(10).from(d)));
+	}
+	
+	@Test
+	public void testRepeatThenFollow() {
+		M m = em.create(M.class);
+		a.setBoss(b);
+		b.setBoss(c);
+		c.setManager(m);
+		b.setManager(em.create(M.class));
+		
+		EntityTraversal<M> managers = em.traverse(E.class).follow("REPORTS_TO", Direction.OUTGOING, E.class).repeat(2).follow("WORKS_FOR", M.class);
+		
+		assertEquals(2, list(managers.from(a)).size());
+		assertEquals(Arrays.asList(m), list(managers.from(b)));
+	}
+	
+	@Test
+	public void testClose() {
+		a.addCoworker(b);
+		a.addCoworker(c);
+		
+		EntityCursor<E> coworkers = em.traverse(E.class).follow("WORKS_WITH", E.class).from(a);
+		coworkers.next();
+		coworkers.close();
+		
+		assertFalse(coworkers.hasNext());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFollowAmbiguousRelationship() {
+		em.traverse(E.class).follow("REPORTS_TO", E.class);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFollowUnknownRelationship() {
+		em.traverse(E.class).follow("UNKNOWN", E.class);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testRepeatToAnotherClass() {
+		em.traverse(E.class).follow("WORKS_FOR", M.class).repeat(2);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFollowRepeatedRelationship() {
+		em.traverse(E.class).follow("WORKS_WITH", E.class).repeat(2).follow("WORKS_WITH", E.class);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFromWrongClass() {
+		em.traverse(M.class).follow("WORKS_FOR", E.class).from(a);
+	}
+	
+	@Test(expected = UnknownEntityException.class)
+	public void testTraverseUnknownEntity() {
+		em.traverse(Unknown.class);
+	}
+	
+	private static <T> List<T> list(EntityCursor<T> cursor) {
+		List<T> list = new ArrayList<T>();
+		for(T t : cursor) {
+			list.add(t);
+		}
+		
+		return list;
+	}
+	
+	private static HashSet<E> set(E... employees) {
+		return new HashSet<E>(Arrays.asList(employees));
+	}
+	
+	@Entity(value = "E")
+	private interface E {
+		@Id Long getId();
+		
+		@ManyToMany(name = "WORKS_WITH", direction = Direction.BOTH, action = CollectionAction.ADD) void addCoworker(E coworker);
+		
+		@ManyToOne(name = "WORKS_FOR", direction = Direction.OUTGOING, action = Action.WRITE) void setManager(M manager);
+		
+		@ManyToOne(name = "REPORTS_TO", direction = Direction.OUTGOING, action = Action.WRITE) void setBoss(E boss);
+		
+		@OneToMany(name = "REPORTS_TO", direction = Direction.INCOMING, action = CollectionAction.READ) List<E> getReports();
+	}
+	
+	@Entity(value = "M")
+	private interface M {
+		@Id Long getId();
+		
+		@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.READ) List<E> getEmployees();
+	}
+	
+	@Entity(value = "X")
+	private interface Unknown {
+		@Id Long getId();
+	}
+}
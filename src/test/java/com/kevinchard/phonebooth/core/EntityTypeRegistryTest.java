@@ -0,0 +1,82 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.Entity;
+
+public class EntityTypeRegistryTest {
+
+	private GraphDatabaseService dbService;
+	
+	@Before
+	public void setUp() {
+		dbService = new ImpermanentGraphDatabase();
+	}
+	
+	@After
+	public void tearDown() {
+		dbService.shutdown();
+	}
+	
+	@Test
+	public void testResolveRegisteredType() {
+		EntityTypeRegistry registry = new EntityTypeRegistry();
+		registry.register(A.class, 7);
+		
+		assertEquals(7, registry.getIdentifier(A.class));
+		assertSame(A.class, registry.resolve(7, dbService));
+		assertSame(A.class, registry.resolve(A.class.getName(), dbService));
+	}
+	
+	@Test
+	public void testResolveUnregisteredType() {
+		EntityTypeRegistry registry = new EntityTypeRegistry();
+		
+		assertSame(A.class, registry.resolve(A.class.getName(), dbService));
+		assertSame(A.class, registry.resolve(A.class.getName(), dbService));
+	}
+	
+	@Test
+	public void testIdentifierOfUnregisteredTypeIsTheClassName() {
+		EntityTypeRegistry registry = new EntityTypeRegistry();
+		
+		assertEquals(A.class.getName(), registry.getIdentifier(A.class));
+		assertNull(registry.getTag(A.class));
+	}
+	
+	@Test
+	public void testResolveTagFromEntityDefinitions() {
+		TopologyManager tm = new SimpleTopologyManager(dbService);
+		tm.addEntityDefinition(A.class);
+		
+		EntityTypeRegistry registry = new EntityTypeRegistry();
+		assertSame(A.class, registry.resolve(tm.getTypeTag(A.class), dbService));
+		assertEquals(tm.getTypeTag(A.class), registry.getIdentifier(A.class));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testResolveUnknownTag() {
+		new EntityTypeRegistry().resolve(42, dbService);
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void testResolveUnknownType() {
+		new EntityTypeRegistry().resolve("com.kevinchard.phonebooth.DoesNotExist", dbService);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegisterNull() {
+		new EntityTypeRegistry().register(null, 1);
+	}
+	
+	@Entity(value = "A")
+	private interface A {}
+}
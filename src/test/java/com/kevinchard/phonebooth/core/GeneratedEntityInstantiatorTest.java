@@ -0,0 +1,216 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.Property;
+
+public class GeneratedEntityInstantiatorTest extends EntityProxyTestBase {
+
+	private GeneratedEntityInstantiator instantiator;
+	
+	@Before
+	public void setUp() {
+		super.setUp();
+		instantiator = new GeneratedEntityInstantiator();
+	}
+	
+	@After
+	public void tearDown() {
+		super.tearDown();
+	}
+	
+	@Test
+	public void testPublicInterfaceIsGenerated() {
+		assertTrue(instantiator.isGenerated(A.class));
+		
+		Object a = instantiator.newInstance(createEntityNode(A.class), A.class);
+		assertTrue(a instanceof A);
+		assertTrue(a instanceof GeneratedEntity);
+		assertFalse(Proxy.isProxyClass(a.getClass()));
+	}
+	
+	@Test
+	public void testPrivateInterfaceFallsBackToProxy() {
+		assertFalse(instantiator.isGenerated(NotPublic.class));
+		assertTrue(Proxy.isProxyClass(instantiator.newInstance(createEntityNode(NotPublic.class), NotPublic.class).getClass()));
+	}
+	
+	@Test
+	public void testIdAndProperties() {
+		EntityNode entity = createEntityNode(A.class);
+		A a = (A) instantiator.newInstance(entity, A.class);
+		
+		assertEquals(entity.getId(), a.getId());
+		assertNull(a.getName());
+		
+		a.setName("NAME");
+		a.setAge(42);
+		assertEquals("NAME", a.getName());
+		assertEquals(42, a.getAge());
+	}
+	
+	@Test
+	public void testPrimitiveProperties() {
+		C c = (C) instantiator.newInstance(createEntityNode(C.class), C.class);
+		
+		c.setFlag(true);
+		c.setInitial('K');
+		c.setCount(3L);
+		c.setRatio(0.5);
+		assertTrue(c.isFlag());
+		assertEquals('K', c.getInitial());
+		assertEquals(3L, c.getCount());
+		assertEquals(0.5, c.getRatio(), 0.0);
+	}
+	
+	@Test(expected = NullPointerException.class)
+	public void testUnsetPrimitiveProperty() {
+		C c = (C) instantiator.newInstance(createEntityNode(C.class), C.class);
+		c.getCount();
+	}
+	
+	@Test
+	public void testPropertyKeysAreQuoted() {
+		assertTrue(instantiator.isGenerated(C.class));
+		
+		EntityNode entity = createEntityNode(C.class);
+		C c = (C) instantiator.newInstance(entity, C.class);
+		
+		c.setQuoted("VALUE");
+		assertEquals("VALUE", c.getQuoted());
+		assertEquals("VALUE", entity.getPropertyOrNull("\"Q\\U\u00d6TED\"\n"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testPropertyGetterWithWrongNumberArgs() {
+		A a = (A) instantiator.newInstance(createEntityNode(A.class), A.class);
+		a.getNameWithWrongNumberOfArgs("");
+	}
+	
+	@Test
+	public void testUnannotatedMethod() {
+		A a = (A) instantiator.newInstance(createEntityNode(A.class), A.class);
+		assertNull(a.notMapped());
+	}
+	
+	@Test
+	public void testRelationships() {
+		A a = (A) instantiator.newInstance(createEntityNode(A.class), A.class);
+		B b1 = (B) instantiator.newInstance(createEntityNode(B.class), B.class);
+		B b2 = (B) instantiator.newInstance(createEntityNode(B.class), B.class);
+		
+		a.addB(b1);
+		b2.setA(a);
+		
+		assertEquals(2, a.getBs().size());
+		assertTrue(a.getBs().get(0) instanceof GeneratedEntity);
+		assertEquals(a, b1.getA());
+		assertEquals(a, b2.getA());
+	}
+	
+	@Test
+	public void testEqualsAndHashCode() {
+		EntityNode entity = createEntityNode(A.class);
+		A a1 = (A) instantiator.newInstance(entity, A.class);
+		A a2 = (A) instantiator.newInstance(entity, A.class);
+		A proxy = (A) EntityProxy.createProxy(entity, A.class);
+		A other = (A) instantiator.newInstance(createEntityNode(A.class), A.class);
+		
+		assertEquals(a1, a2);
+		assertEquals(a1.hashCode(), a2.hashCode());
+		assertEquals(a1, proxy);
+		assertFalse(a1.equals(other));
+		assertFalse(a1.equals(null));
+	}
+	
+	public interface A {
+		
+		@Id Long getId();
+		
+		@Property(name = "NAME", action = Action.READ)
+		String getName();
+		
+		@Property(name = "NAME", action = Action.WRITE)
+		void setName(String name);
+		
+		@Property(name = "AGE", action = Action.READ)
+		int getAge();
+		
+		@Property(name = "AGE", action = Action.WRITE)
+		void setAge(int age);
+		
+		@Property(name = "NAME", action = Action.READ)
+		String getNameWithWrongNumberOfArgs(String one);
+		
+		@OneToMany(name = "A_TO_B", direction = Direction.OUTGOING, action = CollectionAction.READ)
+		List<B> getBs();
+		
+		@OneToMany(name = "A_TO_B", direction = Direction.OUTGOING, action = CollectionAction.ADD)
+		void addB(B b);
+		
+		String notMapped();
+	}
+	
+	public interface B {
+		
+		@ManyToOne(name = "A_TO_B", direction = Direction.INCOMING, action = Action.READ)
+		A getA();
+		
+		@ManyToOne(name = "A_TO_B", direction = Direction.INCOMING, action = Action.WRITE)
+		void setA(A a);
+	}
+	
+	public interface C {
+		
+		@Property(name = "FLAG", action = Action.READ)
+		boolean isFlag();
+		
+		@Property(name = "FLAG", action = Action.WRITE)
+		void setFlag(boolean flag);
+		
+		@Property(name = "INITIAL", action = Action.READ)
+		char getInitial();
+		
+		@Property(name = "INITIAL", action = Action.WRITE)
+		void setInitial(char initial);
+		
+		@Property(name = "COUNT", action = Action.READ)
+		long getCount();
+		
+		@Property(name = "COUNT", action = Action.WRITE)
+		void setCount(long count);
+		
+		@Property(name = "RATIO", action = Action.READ)
+		double getRatio();
+		
+		@Property(name = "RATIO", action = Action.WRITE)
+		void setRatio(double ratio);
+		
+		@Property(name = "\"Q\\U\u00d6TED\"\n", action = Action.READ)
+		String getQuoted();
+		
+		@Property(name = "\"Q\\U\u00d6TED\"\n", action = Action.WRITE)
+		void setQuoted(String quoted);
+	}
+	
+	interface NotPublic {
+		
+		@Id Long getId();
+	}
+}
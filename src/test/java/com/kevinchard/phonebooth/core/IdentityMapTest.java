@@ -0,0 +1,152 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.core.NeoEntityManagerFactory.SimpleTransactionManager;
+
+public class IdentityMapTest {
+
+	private GraphDatabaseService dbService;
+	private TopologyManager tm;
+	private CountingInstantiator counter;
+	private EntityManager em;
+	
+	@Before
+	public void setUp() {
+		dbService = new ImpermanentGraphDatabase();
+		tm = new SimpleTopologyManager(dbService);
+		tm.addEntityDefinition(Manager.class);
+		tm.addEntityDefinition(Employee.class);
+		
+		counter = new CountingInstantiator();
+		em = new NeoEntityManager(tm, new SimpleTransactionManager(dbService), counter);
+	}
+	
+	@After
+	public void tearDown() {
+		dbService.shutdown();
+	}
+	
+	@Test
+	public void testRepeatedReadsDoNotAllocate() {
+		Manager manager = em.create(Manager.class);
+		//the identity map only holds instances weakly, keep them reachable so a collection cannot evict them
+		List<Employee> created = new ArrayList<Employee>();
+		for(int i = 0; i < 10; i++) {
+			Employee employee = em.create(Employee.class);
+			employee.setManager(manager);
+			created.add(employee);
+		}
+		assertEquals(11, counter.count);
+		
+		for(int i = 0; i < 100; i++) {
+			assertSame(manager, em.find(manager.getId(), Manager.class));
+			
+			for(Employee employee : manager.getEmployees()) {
+				assertSame(manager, employee.getManager());
+			}
+		}
+		
+		List<Employee> employees = manager.getEmployees();
+		for(Employee employee : em.findAll(Employee.class)) {
+			assertSame(employee, em.find(employee.getId(), Employee.class));
+			assertSame(employee, employees.get(employees.indexOf(employee)));
+		}
+		assertEquals(11, counter.count);
+		assertEquals(10, created.size());
+	}
+	
+	@Test
+	public void testDeleteEvicts() {
+		IdentityMap identityMap = new IdentityMap(counter);
+		EntityNode entity = tm.createNode(Manager.class);
+		
+		Object instance = identityMap.newInstance(entity, Manager.class);
+		assertSame(instance, identityMap.newInstance(entity, Manager.class));
+		
+		identityMap.evict(entity.getId());
+		assertEquals(0, identityMap.size());
+		assertNotSame(instance, identityMap.newInstance(entity, Manager.class));
+	}
+	
+	@Test
+	public void testUnreachableInstancesAreForgotten() throws Exception {
+		IdentityMap identityMap = new IdentityMap(counter);
+		for(int i = 0; i < 10; i++) {
+			identityMap.newInstance(tm.createNode(Manager.class), Manager.class);
+		}
+		
+		for(int i = 0; i < 100 && identityMap.size() > 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		
+		assertEquals(0, identityMap.size());
+	}
+	
+	@Test
+	public void testEntityManagersDoNotShareInstances() {
+		Manager manager = em.create(Manager.class);
+		EntityManager other = new NeoEntityManager(tm, new SimpleTransactionManager(dbService), counter);
+		
+		Manager found = other.find(manager.getId(), Manager.class);
+		assertEquals(manager, found);
+		assertNotSame(manager, found);
+	}
+	
+	private static final class CountingInstantiator implements EntityInstantiator {
+		
+		private int count;
+		
+		@Override
+		public Object newInstance(EntityNode entity, Class<?> entityInterface) {
+			return newInstance(entity, entityInterface, this);
+		}
+		
+		@Override
+		public Object newInstance(EntityNode entity, Class<?> entityInterface, EntityInstantiator related) {
+			count++;
+			return EntityProxy.INSTANTIATOR.newInstance(entity, entityInterface, related);
+		}
+	}
+	
+	@Entity(value = "MANAGER")
+	private interface Manager {
+		
+		@Id Long getId();
+		
+		@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.READ)
+		List<Employee> getEmployees();
+	}
+	
+	@Entity(value = "EMPLOYEE")
+	private interface Employee {
+		
+		@Id Long getId();
+		
+		@ManyToOne(name = "WORKS_FOR", direction = Direction.OUTGOING, action = Action.READ)
+		Manager getManager();
+		
+		@ManyToOne(name = "WORKS_FOR", direction = Direction.OUTGOING, action = Action.WRITE)
+		void setManager(Manager manager);
+	}
+}
@@ -0,0 +1,182 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.BulkEntityManager;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.Persistence;
+import com.kevinchard.phonebooth.Property;
+import com.kevinchard.phonebooth.Repository;
+
+public class NeoBulkEntityManagerTest {
+
+	private String storeDir;
+	
+	@Before
+	public void setUp() {
+		storeDir = new File("target/test-data/bulk-" + System.nanoTime()).getAbsolutePath();
+	}
+	
+	@Test
+	public void testBulkLoadedEntitiesCanBeReadByARegularEntityManager() {
+		
+		BulkEntityManager bulk = builder().buildBulkEntityManager(storeDir);
+		try {
+			Parent parent = bulk.create(Parent.class);
+			parent.setName("PARENT");
+			for(int i = 0; i < 10; i++) {
+				Child child = bulk.create(Child.class);
+				child.setName("CHILD" + i);
+				child.setParent(parent);
+			}
+			
+			assertEquals(11, bulk.getEntitiesCreated());
+			assertTrue(bulk.getEntitiesPerSecond() > 0);
+			assertEquals(10, parent.countChildren());
+		} finally {
+			bulk.close();
+		}
+		
+		GraphDatabaseService dbService = new EmbeddedGraphDatabase(storeDir);
+		try {
+			EntityManager em = builder().withGraphDatabaseService(dbService).build().createEntityManager();
+			
+			assertEquals(new HashSet<Child>(em.findAll(Child.class)), new HashSet<Child>(em.findPage(Child.class, null, 20)));
+			
+			List<Parent> parents = em.findAll(Parent.class);
+			assertEquals(1, parents.size());
+			assertEquals("PARENT", parents.get(0).getName());
+			assertEquals(10, parents.get(0).countChildren());
+			assertEquals(10, parents.get(0).getChildren().size());
+			
+			List<Child> children = em.findAll(Child.class);
+			assertEquals(10, children.size());
+			for(Child child : children) {
+				assertEquals(parents.get(0), child.getParent());
+			}
+			
+			Child child = em.create(Child.class);
+			child.setParent(parents.get(0));
+			assertEquals(11, parents.get(0).countChildren());
+		} finally {
+			dbService.shutdown();
+		}
+	}
+	
+	@Test
+	public void testBuilderIsReusableAfterBulkLoad() {
+		
+		Persistence.EntityManagerFactoryBuilder builder = builder();
+		
+		BulkEntityManager bulk = builder.buildBulkEntityManager(storeDir);
+		try {
+			bulk.create(Parent.class).setName("PARENT");
+		} finally {
+			bulk.close();
+		}
+		
+		GraphDatabaseService dbService = new EmbeddedGraphDatabase(storeDir);
+		try {
+			EntityManager em = builder.withGraphDatabaseService(dbService).build().createEntityManager();
+			assertFalse(em instanceof BulkEntityManager);
+			
+			Parent parent = em.findAll(Parent.class).get(0);
+			em.create(Child.class).setParent(parent);
+			assertEquals(1, parent.countChildren());
+		} finally {
+			dbService.shutdown();
+		}
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testFindPage() {
+		BulkEntityManager bulk = builder().buildBulkEntityManager(storeDir);
+		try {
+			bulk.findPage(Parent.class, null, 10);
+		} finally {
+			bulk.close();
+		}
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testDelete() {
+		BulkEntityManager bulk = builder().buildBulkEntityManager(storeDir);
+		try {
+			bulk.delete(bulk.create(Parent.class).getId(), Parent.class);
+		} finally {
+			bulk.close();
+		}
+	}
+	
+	@Test
+	public void testGetRepository() {
+		BulkEntityManager bulk = builder().buildBulkEntityManager(storeDir);
+		try {
+			bulk.getRepository(ParentRepository.class);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			assertEquals("Repositories are not supported while bulk loading", e.getMessage());
+		} finally {
+			bulk.close();
+		}
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testCreateAfterClose() {
+		BulkEntityManager bulk = builder().buildBulkEntityManager(storeDir);
+		bulk.close();
+		bulk.create(Parent.class);
+	}
+	
+	private Persistence.EntityManagerFactoryBuilder builder() {
+		return Persistence.create("com.kevinchard.phonebooth.core.NeoEntityManagerFactory")
+						  .forEntity(Parent.class)
+						  .forEntity(Child.class);
+	}
+	
+	@Entity(value = "PARENT")
+	private interface Parent {
+		@Id Long getId();
+		
+		@Property(name = "NAME", action = Action.READ) String getName();
+		
+		@Property(name = "NAME", action = Action.WRITE) void setName(String name);
+		
+		@OneToMany(name = "CHILD_OF", direction = Direction.INCOMING, action = CollectionAction.READ) List<Child> getChildren();
+		
+		@OneToMany(name = "CHILD_OF", direction = Direction.INCOMING, action = CollectionAction.COUNT) int countChildren();
+	}
+	
+	@Repository(Parent.class)
+	private interface ParentRepository {
+		List<Parent> findByName(String name);
+	}
+	
+	@Entity(value = "CHILD")
+	private interface Child {
+		@Property(name = "NAME", action = Action.WRITE) void setName(String name);
+		
+		@ManyToOne(name = "CHILD_OF", direction = Direction.OUTGOING, action = Action.READ) Parent getParent();
+		
+		@ManyToOne(name = "CHILD_OF", direction = Direction.OUTGOING, action = Action.WRITE) void setParent(Parent parent);
+	}
+}
@@ -1,13 +1,38 @@
 package com.kevinchard.phonebooth.core;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.test.ImpermanentGraphDatabase;
 
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.EntityReducer;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.Indexed;
+import com.kevinchard.phonebooth.PersistenceProperties;
+import com.kevinchard.phonebooth.Property;
 import com.kevinchard.phonebooth.core.NeoEntityManagerFactory;
 
 public class NeoEntityManagerFactoryTest {
@@ -26,4 +51,283 @@ public class NeoEntityManagerFactoryTest {
 	public void testCreateEntityManager() {
 		assertNotNull(new NeoEntityManagerFactory(new ImpermanentGraphDatabase(), new ArrayList<Class<?>>(), new HashMap<String, Object>()));
 	}
+	
+	@Test
+	public void testDefaultEngineCreatesProxies() {
+		EntityManager em = createEntityManagerFactory(new HashMap<String, Object>()).createEntityManager();
+		assertTrue(Proxy.isProxyClass(em.create(A.class).getClass()));
+	}
+	
+	@Test
+	public void testGeneratedEngine() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.ENGINE, PersistenceProperties.ENGINE_GENERATED);
+		
+		EntityManager em = createEntityManagerFactory(properties).createEntityManager();
+		A a = em.create(A.class);
+		
+		assertFalse(Proxy.isProxyClass(a.getClass()));
+		assertNotNull(a.getId());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeDegreeThreshold() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.DEGREE_THRESHOLD, -1);
+		
+		createEntityManagerFactory(properties);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidDegreeThreshold() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.DEGREE_THRESHOLD, "many");
+		
+		createEntityManagerFactory(properties);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownEngine() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.ENGINE, "UNKNOWN");
+		
+		createEntityManagerFactory(properties);
+	}
+	
+	@Test
+	public void testAsyncWrites() throws Exception {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.ASYNC_WRITES, true);
+		
+		NeoEntityManagerFactory emf = createEntityManagerFactory(properties);
+		try {
+			EntityManager em = emf.createEntityManager();
+			A a = em.create(A.class);
+			a.setProp("VALUE");
+			em.flushAsync().get();
+			
+			assertEquals("VALUE", a.getProp());
+			assertEquals("VALUE", emf.createEntityManager().find(a.getId(), A.class).getProp());
+		} finally {
+			emf.close();
+		}
+	}
+	
+	@Test
+	public void testAsyncWritesWithGeneratedEngine() throws Exception {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.ASYNC_WRITES, true);
+		properties.put(PersistenceProperties.ENGINE, PersistenceProperties.ENGINE_GENERATED);
+		
+		NeoEntityManagerFactory emf = createEntityManagerFactory(properties);
+		try {
+			EntityManager em = emf.createEntityManager();
+			A a = em.create(A.class);
+			assertFalse(Proxy.isProxyClass(a.getClass()));
+			a.setProp("VALUE");
+			em.flushAsync().get();
+			
+			assertEquals("VALUE", a.getProp());
+			assertEquals("VALUE", emf.createEntityManager().find(a.getId(), A.class).getProp());
+		} finally {
+			emf.close();
+		}
+	}
+	
+	@Test
+	public void testAsyncCreateAndDeleteAreCommittedOnReturn() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.ASYNC_WRITES, true);
+		
+		NeoEntityManagerFactory emf = createEntityManagerFactory(properties);
+		try {
+			EntityManager em = emf.createEntityManager();
+			EntityManager other = emf.createEntityManager();
+			
+			A a = em.create(A.class);
+			assertEquals(1, other.findAll(A.class).size());
+			
+			em.delete(a.getId(), A.class);
+			assertEquals(0, other.findAll(A.class).size());
+		} finally {
+			emf.close();
+		}
+	}
+	
+	@Test
+	public void testAsyncWriteFailureIsReportedByFlush() throws Exception {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.ASYNC_WRITES, true);
+		
+		NeoEntityManagerFactory emf = createEntityManagerFactory(properties);
+		try {
+			EntityManager em = emf.createEntityManager();
+			A a = em.create(A.class);
+			emf.createEntityManager().delete(a.getId(), A.class);
+			a.setProp("VALUE");
+			
+			try {
+				em.flushAsync().get();
+				fail("The write to the deleted entity should have failed");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof NotFoundException);
+			}
+			
+			//a failure is only reported once
+			em.flush();
+		} finally {
+			emf.close();
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testAsyncWritesWithUnitOfWork() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.ASYNC_WRITES, true);
+		properties.put(PersistenceProperties.UNIT_OF_WORK, true);
+		
+		createEntityManagerFactory(properties);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testBulkLoadIndexedEntity() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.BULK_LOAD, true);
+		
+		List<Class<?>> entityClasses = new ArrayList<Class<?>>();
+		entityClasses.add(B.class);
+		
+		new NeoEntityManagerFactory(new ImpermanentGraphDatabase(), entityClasses, properties);
+	}
+	
+	@Test
+	public void testTypeBuckets() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.TYPE_BUCKETS, 4);
+		
+		GraphDatabaseService dbService = new ImpermanentGraphDatabase();
+		EntityManager em = createEntityManagerFactory(dbService, properties).createEntityManager();
+		for(int i = 0; i < 8; i++) {
+			em.create(A.class);
+		}
+		
+		List<Node> buckets = getBuckets(dbService);
+		assertEquals(4, buckets.size());
+		for(Node bucket : buckets) {
+			assertEquals(2, countEntities(bucket));
+		}
+	}
+	
+	@Test
+	public void testMigrateTypeBuckets() {
+		GraphDatabaseService dbService = new ImpermanentGraphDatabase();
+		EntityManager em = createEntityManagerFactory(dbService, new HashMap<String, Object>()).createEntityManager();
+		for(int i = 0; i < 6; i++) {
+			em.create(A.class);
+		}
+		assertEquals(0, getBuckets(dbService).size());
+		
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.TYPE_BUCKETS, 3);
+		
+		NeoEntityManagerFactory emf = createEntityManagerFactory(dbService, properties);
+		assertEquals(6, emf.migrateTypeBuckets(4));
+		
+		List<Node> buckets = getBuckets(dbService);
+		assertEquals(3, buckets.size());
+		for(Node bucket : buckets) {
+			assertEquals(2, countEntities(bucket));
+		}
+		assertEquals(6, emf.createEntityManager().findAll(A.class).size());
+	}
+	
+	@Test
+	public void testScanPartitionsConcurrently() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(PersistenceProperties.TYPE_BUCKETS, 2);
+		
+		NeoEntityManagerFactory emf = createEntityManagerFactory(properties);
+		try {
+			EntityManager em = emf.createEntityManager();
+			for(int i = 0; i < 4; i++) {
+				em.create(A.class);
+			}
+			
+			//every partition waits in its first entity until the other has started, which it only can concurrently
+			final CountDownLatch started = new CountDownLatch(2);
+			Integer scanned = em.scan(A.class, new EntityReducer<A, Integer>() {
+				
+				@Override
+				public Integer initial() {
+					return 0;
+				}
+				
+				@Override
+				public Integer accumulate(Integer accumulator, A entity) {
+					started.countDown();
+					try {
+						assertTrue(started.await(10, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+					return accumulator + 1;
+				}
+				
+				@Override
+				public Integer combine(Integer left, Integer right) {
+					return left + right;
+				}
+			}, 2);
+			
+			assertEquals(4, scanned.intValue());
+		} finally {
+			emf.close();
+		}
+	}
+	
+	private NeoEntityManagerFactory createEntityManagerFactory(Map<String, Object> properties) {
+		return createEntityManagerFactory(new ImpermanentGraphDatabase(), properties);
+	}
+	
+	private NeoEntityManagerFactory createEntityManagerFactory(GraphDatabaseService dbService, Map<String, Object> properties) {
+		List<Class<?>> entityClasses = new ArrayList<Class<?>>();
+		entityClasses.add(A.class);
+		
+		return new NeoEntityManagerFactory(dbService, entityClasses, properties);
+	}
+	
+	private List<Node> getBuckets(GraphDatabaseService dbService) {
+		Node entityDefinitionNode = dbService.getReferenceNode().getSingleRelationship(DynamicRelationshipType.withName("A_REF"), Direction.OUTGOING).getEndNode();
+		
+		List<Node> buckets = new ArrayList<Node>();
+		for(Relationship relationship : entityDefinitionNode.getRelationships(SimpleTopologyManager.ENTITY_BUCKET, Direction.OUTGOING)) {
+			buckets.add(relationship.getEndNode());
+		}
+		return buckets;
+	}
+	
+	private int countEntities(Node bucket) {
+		int count = 0;
+		for(@SuppressWarnings("unused") Relationship relationship : bucket.getRelationships(DynamicRelationshipType.withName("A"), Direction.OUTGOING)) {
+			count++;
+		}
+		return count;
+	}
+	
+	@Entity(value = "A")
+	public interface A {
+		@Id Long getId();
+		
+		@Property(name = "prop", action = Action.READ)
+		String getProp();
+		
+		@Property(name = "prop", action = Action.WRITE)
+		void setProp(String prop);
+	}
+	
+	@Entity(value = "B")
+	public interface B {
+		@Indexed @Property(name = "prop", action = Action.WRITE)
+		void setProp(String prop);
+	}
 }
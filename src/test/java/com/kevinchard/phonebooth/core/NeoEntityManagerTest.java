@@ -3,19 +3,37 @@ package com.kevinchard.phonebooth.core;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.test.ImpermanentGraphDatabase;
 
 import com.kevinchard.phonebooth.Action;
 import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityCursor;
 import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.EntityReducer;
 import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.Indexed;
 import com.kevinchard.phonebooth.Property;
+import com.kevinchard.phonebooth.ScoredCursor;
+import com.kevinchard.phonebooth.UniqueConstraintException;
 import com.kevinchard.phonebooth.UnknownEntityException;
 import com.kevinchard.phonebooth.core.NeoEntityManager;
 import com.kevinchard.phonebooth.core.SimpleTopologyManager;
@@ -64,6 +82,165 @@ public class NeoEntityManagerTest {
 		assertEquals(2, em.findAll(A.class).size());
 	}
 	
+	@Test
+	public void testCursor() {
+		tm.addEntityDefinition(A.class);
+		List<A> created = em.createAll(A.class, 3);
+		
+		EntityCursor<A> cursor = em.cursor(A.class);
+		List<A> found = new ArrayList<A>();
+		for(A a : cursor) {
+			found.add(a);
+		}
+		
+		assertEquals(3, found.size());
+		assertTrue(found.containsAll(created));
+		assertFalse(cursor.hasNext());
+	}
+	
+	@Test
+	public void testClosedCursor() {
+		tm.addEntityDefinition(A.class);
+		em.createAll(A.class, 3);
+		
+		EntityCursor<A> cursor = em.cursor(A.class);
+		assertNotNull(cursor.next());
+		cursor.close();
+		
+		assertFalse(cursor.hasNext());
+	}
+	
+	@Test
+	public void testFindPage() {
+		tm.addEntityDefinition(A.class);
+		List<A> created = em.createAll(A.class, 7);
+		
+		List<A> found = new ArrayList<A>();
+		Long afterId = null;
+		for(List<A> page = em.findPage(A.class, afterId, 3); !page.isEmpty(); page = em.findPage(A.class, afterId, 3)) {
+			assertTrue(page.size() <= 3);
+			found.addAll(page);
+			afterId = page.get(page.size() - 1).getId();
+		}
+		
+		assertEquals(created, found);
+		for(int i = 1; i < found.size(); i++) {
+			assertTrue(found.get(i - 1).getId() < found.get(i).getId());
+		}
+	}
+	
+	@Test
+	public void testFindPageSkipsOtherNodes() {
+		tm.addEntityDefinition(A.class);
+		tm.addEntityDefinition(I.class);
+		
+		List<A> created = new ArrayList<A>();
+		for(int i = 0; i < 6; i++) {
+			created.add(em.create(A.class));
+			em.create(I.class);
+		}
+		em.delete(created.remove(2).getId(), A.class);
+		
+		List<A> found = new ArrayList<A>();
+		Long afterId = null;
+		for(List<A> page = em.findPage(A.class, afterId, 2); !page.isEmpty(); page = em.findPage(A.class, afterId, 2)) {
+			found.addAll(page);
+			afterId = page.get(page.size() - 1).getId();
+		}
+		
+		assertEquals(created, found);
+	}
+	
+	@Test
+	public void testFindPageIndexesTypesWrittenWithoutTheIdIndex() {
+		tm.addEntityDefinition(A.class);
+		List<A> created = em.createAll(A.class, 5);
+		
+		//as in a store written before the id index existed
+		Node entityDefinitionNode = getEntityDefinitionNode(A.class);
+		Transaction tx = dbService.beginTx();
+		try {
+			dbService.index().forNodes(SimpleTopologyManager.ENTITY_ID_INDEX).delete();
+			entityDefinitionNode.removeProperty(SimpleTopologyManager.ENTITY_IDS_INDEXED);
+			tx.success();
+		} finally {
+			tx.finish();
+		}
+		
+		assertEquals(created.subList(0, 2), em.findPage(A.class, null, 2));
+		assertTrue(entityDefinitionNode.hasProperty(SimpleTopologyManager.ENTITY_IDS_INDEXED));
+		assertEquals(created.subList(2, 5), em.findPage(A.class, created.get(1).getId(), 10));
+		
+		created.add(em.create(A.class));
+		assertEquals(created.subList(5, 6), em.findPage(A.class, created.get(4).getId(), 10));
+	}
+	
+	@Test
+	public void testScanInBatches() {
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, 2, new EntityTypeRegistry()));
+		em = new NeoEntityManager(tm, txm);
+		tm.addEntityDefinition(A.class);
+		populate(7);
+		
+		assertEquals(Integer.valueOf(1 + 2 + 3 + 4 + 5 + 6 + 7), em.scan(A.class, new PropLength(), 3));
+	}
+	
+	@Test
+	public void testScanByBucket() {
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, 2, 4, new EntityTypeRegistry()));
+		em = new NeoEntityManager(tm, txm);
+		tm.addEntityDefinition(A.class);
+		populate(7);
+		
+		assertEquals(Integer.valueOf(1 + 2 + 3 + 4 + 5 + 6 + 7), em.scan(A.class, new PropLength(), 2));
+	}
+	
+	@Test
+	public void testScanNothing() {
+		tm.addEntityDefinition(A.class);
+		
+		assertEquals(Integer.valueOf(0), em.scan(A.class, new PropLength(), 2));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testScanFailure() {
+		tm.addEntityDefinition(A.class);
+		populate(3);
+		
+		em.scan(A.class, new PropLength() {
+			@Override
+			public Integer accumulate(Integer accumulator, A entity) {
+				throw new IllegalStateException();
+			}
+		}, 2);
+	}
+	
+	private void populate(int count) {
+		StringBuilder prop = new StringBuilder();
+		for(A a : em.createAll(A.class, count)) {
+			prop.append('x');
+			a.setProp(prop.toString());
+		}
+	}
+	
+	private static class PropLength implements EntityReducer<A, Integer> {
+		
+		@Override
+		public Integer initial() {
+			return 0;
+		}
+		
+		@Override
+		public Integer accumulate(Integer accumulator, A entity) {
+			return accumulator + entity.getProp().length();
+		}
+		
+		@Override
+		public Integer combine(Integer left, Integer right) {
+			return left + right;
+		}
+	}
+	
 	@Test
 	public void testGet() {
 		tm.addEntityDefinition(A.class);
@@ -84,6 +261,228 @@ public class NeoEntityManagerTest {
 		assertEquals(0, em.findAll(A.class).size());
 	}
 	
+	@Test
+	public void testFindBy() {
+		tm.addEntityDefinition(I.class);
+		
+		I bob = em.create(I.class);
+		bob.setName("Bob");
+		I alice = em.create(I.class);
+		alice.setName("Alice");
+		I otherBob = em.create(I.class);
+		otherBob.setName("Bob");
+		
+		List<I> bobs = em.findBy(I.class, "NAME", "Bob");
+		assertEquals(2, bobs.size());
+		assertTrue(bobs.contains(bob));
+		assertTrue(bobs.contains(otherBob));
+		
+		otherBob.setName("Carol");
+		assertEquals(1, em.findBy(I.class, "NAME", "Bob").size());
+		assertEquals(otherBob, em.findBy(I.class, "NAME", "Carol").get(0));
+		
+		em.delete(alice.getId(), I.class);
+		assertTrue(em.findBy(I.class, "NAME", "Alice").isEmpty());
+	}
+	
+	@Test
+	public void testFindByRolledBack() {
+		tm.addEntityDefinition(I.class);
+		
+		I i = em.create(I.class);
+		i.setName("Bob");
+		
+		Transaction tx = em.beginTransaction();
+		try {
+			i.setName("Alice");
+			assertEquals(i, em.findBy(I.class, "NAME", "Alice").get(0));
+		} finally {
+			tx.finish();
+		}
+		
+		assertTrue(em.findBy(I.class, "NAME", "Alice").isEmpty());
+		assertEquals(i, em.findBy(I.class, "NAME", "Bob").get(0));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFindByNotIndexed() {
+		tm.addEntityDefinition(A.class);
+		em.findBy(A.class, "PROP", "VALUE");
+	}
+	
+	@Test
+	public void testGetOrCreate() {
+		tm.addEntityDefinition(U.class);
+		
+		U u = em.getOrCreate(U.class, "NUMBER", "E-1");
+		assertEquals("E-1", u.getNumber());
+		assertEquals(u, em.getOrCreate(U.class, "NUMBER", "E-1"));
+		assertFalse(u.equals(em.getOrCreate(U.class, "NUMBER", "E-2")));
+		assertEquals(2, em.findAll(U.class).size());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetOrCreateNotUnique() {
+		tm.addEntityDefinition(I.class);
+		em.getOrCreate(I.class, "NAME", "Bob");
+	}
+	
+	@Test
+	public void testUniqueConstraint() {
+		tm.addEntityDefinition(U.class);
+		
+		U first = em.create(U.class);
+		first.setNumber("E-1");
+		first.setNumber("E-1");
+		U second = em.create(U.class);
+		
+		try {
+			second.setNumber("E-1");
+			fail("Should have thrown exception");
+		} catch(UniqueConstraintException e) {}
+		assertEquals(null, second.getNumber());
+		
+		//the old value is released when it is overwritten
+		first.setNumber("E-2");
+		second.setNumber("E-1");
+		assertEquals(second, em.findBy(U.class, "NUMBER", "E-1").get(0));
+		assertEquals(first, em.findBy(U.class, "NUMBER", "E-2").get(0));
+	}
+	
+	@Test
+	public void testConcurrentGetOrCreate() throws Exception {
+		tm.addEntityDefinition(U.class);
+		
+		final int numbers = 10;
+		List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for(int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<List<Long>>() {
+					@Override
+					public List<Long> call() {
+						EntityManager writer = new NeoEntityManager(tm, txm);
+						List<Long> ids = new ArrayList<Long>();
+						for(int n = 0; n < numbers * 5; n++) {
+							ids.add(writer.getOrCreate(U.class, "NUMBER", "E-" + (n % numbers)).getId());
+						}
+						return ids;
+					}
+				}));
+			}
+			
+			List<Long> expected = results.get(0).get();
+			for(Future<List<Long>> result : results) {
+				assertEquals(expected, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		assertEquals(numbers, em.findAll(U.class).size());
+	}
+	
+	@Test
+	public void testFindRange() {
+		tm.addEntityDefinition(N.class);
+		
+		List<N> created = new ArrayList<N>();
+		for(int i = 0; i < 10; i++) {
+			N n = em.create(N.class);
+			n.setHired(i);
+			n.setSalary((i * 7) % 10 * 1000.0);
+			created.add(n);
+		}
+		
+		//hired 2 to 8 have salaries 4, 1, 8, 5, 2, 9 and 6 thousand
+		assertEquals(ids(created, 7, 4, 8), ids(em.findRange(N.class, "HIRED", 2, 8, "SALARY", true, 3)));
+		assertEquals(ids(created, 3, 6, 2), ids(em.findRange(N.class, "HIRED", 2L, 8L, "SALARY", false, 3)));
+		assertEquals(ids(created, 0, 1, 2, 3), ids(em.findRange(N.class, "HIRED", null, 3, 10)));
+		assertEquals(ids(created, 8, 9), ids(em.findRange(N.class, "HIRED", 7.5, null, 10)));
+		assertEquals(ids(created, 9, 8), ids(em.findRange(N.class, "SALARY", 1000, 6000.0, "HIRED", true, 2)));
+		
+		created.get(9).setHired(-1);
+		assertEquals(ids(created, 9, 0), ids(em.findRange(N.class, "HIRED", null, null, 2)));
+		assertEquals(created.get(9), em.findBy(N.class, "HIRED", -1).get(0));
+		assertTrue(em.findBy(N.class, "HIRED", 9).isEmpty());
+	}
+	
+	@Test
+	public void testCloseRange() {
+		tm.addEntityDefinition(N.class);
+		for(int i = 0; i < 3; i++) {
+			em.create(N.class).setHired(i);
+		}
+		
+		EntityCursor<N> cursor = em.findRange(N.class, "HIRED", null, null, 3);
+		assertTrue(cursor.hasNext());
+		cursor.next();
+		cursor.close();
+		assertFalse(cursor.hasNext());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFindRangeNotNumeric() {
+		tm.addEntityDefinition(I.class);
+		em.findRange(I.class, "NAME", 1, 2, 10);
+	}
+	
+	@Test
+	public void testSearch() {
+		tm.addEntityDefinition(F.class);
+		
+		F smith = em.create(F.class);
+		smith.setName("John Smith");
+		F smithers = em.create(F.class);
+		smithers.setName("Waylon Smithers");
+		F jones = em.create(F.class);
+		jones.setName("John Jones");
+		
+		assertEquals(smith, em.search(F.class, "NAME", "smith", 10).next());
+		
+		List<F> found = new ArrayList<F>();
+		for(F f : em.search(F.class, "NAME", "smi*", 10)) {
+			found.add(f);
+		}
+		assertEquals(2, found.size());
+		assertTrue(found.contains(smith));
+		assertTrue(found.contains(smithers));
+		
+		//the entity that matches both words scores best
+		ScoredCursor<F> cursor = em.search(F.class, "NAME", "john OR smith", 2);
+		assertEquals(smith, cursor.next());
+		float best = cursor.currentScore();
+		assertEquals(jones, cursor.next());
+		assertTrue(best > cursor.currentScore());
+		assertFalse(cursor.hasNext());
+		
+		jones.setName("Jane Jones");
+		em.delete(smith.getId(), F.class);
+		assertFalse(em.search(F.class, "NAME", "john", 10).hasNext());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSearchNotFulltext() {
+		tm.addEntityDefinition(I.class);
+		em.search(I.class, "NAME", "bob", 10);
+	}
+	
+	private static List<Long> ids(List<N> created, int... indexes) {
+		List<Long> ids = new ArrayList<Long>();
+		for(int index : indexes) {
+			ids.add(created.get(index).getId());
+		}
+		return ids;
+	}
+	
+	private static List<Long> ids(EntityCursor<N> cursor) {
+		List<Long> ids = new ArrayList<Long>();
+		for(N n : cursor) {
+			ids.add(n.getId());
+		}
+		return ids;
+	}
+	
 	@Test
 	public void testGetTransaction() {
 		tm.addEntityDefinition(A.class);
@@ -126,6 +525,60 @@ public class NeoEntityManagerTest {
 		assertEquals("VALUE", a.getProp());
 	}
 	
+	@Test
+	public void testCreateAllInBatches() {
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, 2, new EntityTypeRegistry()));
+		em = new NeoEntityManager(tm, txm);
+		tm.addEntityDefinition(A.class);
+		
+		List<A> created = em.createAll(A.class, 5);
+		
+		assertEquals(5, created.size());
+		assertEquals(5, em.findAll(A.class).size());
+		assertEquals(created.get(4), em.find(created.get(4).getId(), A.class));
+	}
+	
+	@Test(expected = UnknownEntityException.class)
+	public void testCreateAllUnknownEntity() {
+		em.createAll(A.class, 2);
+	}
+	
+	@Test
+	public void testDeleteAllInBatches() {
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, 2, new EntityTypeRegistry()));
+		em = new NeoEntityManager(tm, txm);
+		tm.addEntityDefinition(A.class);
+		
+		List<A> created = em.createAll(A.class, 5);
+		List<Long> ids = new ArrayList<Long>();
+		for(A a : created.subList(0, 4)) {
+			ids.add(a.getId());
+		}
+		ids.add(2, -1L);
+		
+		try {
+			em.delete(ids, A.class);
+			fail("Should have thrown exception");
+		} catch(NotFoundException e) {}
+		
+		//the first batch was committed before the missing id was reached
+		assertEquals(3, em.findAll(A.class).size());
+		
+		em.delete(ids.subList(3, 5), A.class);
+		assertEquals(1, em.findAll(A.class).size());
+		assertEquals(created.get(4), em.findAll(A.class).get(0));
+	}
+	
+	private Node getEntityDefinitionNode(Class<?> entityClass) {
+		for(Relationship relationship : dbService.getReferenceNode().getRelationships(Direction.OUTGOING)) {
+			if(entityClass.getName().equals(relationship.getEndNode().getProperty(SimpleTopologyManager.ENTITY_REF_TYPE))) {
+				return relationship.getEndNode();
+			}
+		}
+		
+		throw new AssertionError(entityClass.getName() + " is not defined");
+	}
+	
 	@Entity(value = "A")
 	private interface A {
 		@Id Long getId();
@@ -134,4 +587,38 @@ public class NeoEntityManagerTest {
 		
 		@Property(name="PROP", action = Action.WRITE) void setProp(String prop);
 	}
+	
+	@Entity(value = "I")
+	private interface I {
+		@Id Long getId();
+		
+		@Property(name="NAME", action = Action.READ) String getName();
+		
+		@Indexed @Property(name="NAME", action = Action.WRITE) void setName(String name);
+	}
+	
+	@Entity(value = "U")
+	private interface U {
+		@Id Long getId();
+		
+		@Property(name="NUMBER", action = Action.READ) String getNumber();
+		
+		@Indexed(unique = true) @Property(name="NUMBER", action = Action.WRITE) void setNumber(String number);
+	}
+	
+	@Entity(value = "N")
+	private interface N {
+		@Id Long getId();
+		
+		@Indexed(numeric = true) @Property(name="HIRED", action = Action.WRITE) void setHired(long hired);
+		
+		@Indexed(numeric = true) @Property(name="SALARY", action = Action.WRITE) void setSalary(double salary);
+	}
+	
+	@Entity(value = "F")
+	private interface F {
+		@Id Long getId();
+		
+		@Indexed(fulltext = true) @Property(name="NAME", action = Action.WRITE) void setName(String name);
+	}
 }
@@ -0,0 +1,212 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityCursor;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.Property;
+import com.kevinchard.phonebooth.core.NeoEntityManagerFactory.SimpleTransactionManager;
+
+public class QueryTest {
+
+	private static final String EMPLOYEES = "start m=node({manager}) match m<-[:WORKS_FOR]-e return e";
+	
+	private static final String TEAMMATES = "start e=node({employee}) match e-[:WORKS_FOR]->m<-[:WORKS_FOR]-other return other";
+	
+	private GraphDatabaseService dbService;
+	private EntityManager em;
+	private TopologyManager tm;
+	
+	private M manager;
+	private E a;
+	private E b;
+	private E c;
+	
+	@Before
+	public void setUp() {
+		dbService = new ImpermanentGraphDatabase();
+		tm = new SimpleTopologyManager(dbService);
+		em = new NeoEntityManager(tm, new SimpleTransactionManager(dbService));
+		
+		tm.addEntityDefinition(E.class);
+		tm.addEntityDefinition(M.class);
+		
+		manager = em.create(M.class);
+		a = employee("A");
+		b = employee("B");
+		c = employee("C");
+	}
+	
+	@After
+	public void tearDown() {
+		dbService.shutdown();
+	}
+	
+	@Test
+	public void testQueryEntities() {
+		assertEquals(new HashSet<E>(Arrays.asList(b, c)), new HashSet<E>(list(em.query(TEAMMATES, params("employee", a), E.class))));
+		assertEquals(new HashSet<E>(Arrays.asList(a, c)), new HashSet<E>(list(em.query(TEAMMATES, params("employee", b), E.class))));
+	}
+	
+	@Test
+	public void testQueryFromEntities() {
+		List<E> employees = list(em.query("start e=node({employees}) return e", params("employees", Arrays.asList(a, c)), E.class));
+		assertEquals(new HashSet<E>(Arrays.asList(a, c)), new HashSet<E>(employees));
+	}
+	
+	@Test
+	public void testQueryValues() {
+		assertEquals(Arrays.asList(3L), list(em.query("start m=node({manager}) match m<-[:WORKS_FOR]-e return count(e)", params("manager", manager), Long.class)));
+		assertEquals(Arrays.asList("A"), list(em.query("start e=node({employee}) return e.NAME", params("employee", a), String.class)));
+	}
+	
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testQueryRows() {
+		List<Map> rows = list(em.query("start e=node({employee}) match e-[:WORKS_FOR]->m return e, m, e.NAME", params("employee", a), Map.class));
+		
+		assertEquals(1, rows.size());
+		assertSame(a, rows.get(0).get("e"));
+		assertSame(manager, rows.get(0).get("m"));
+		assertEquals("A", rows.get(0).get("e.NAME"));
+	}
+	
+	@Test
+	public void testEntitiesAreTheOnesOfTheEntityManager() {
+		assertSame(a, em.query("start e=node({employee}) return e", params("employee", a), E.class).next());
+	}
+	
+	@Test
+	public void testClose() {
+		EntityCursor<E> cursor = em.query(TEAMMATES, params("employee", a), E.class);
+		cursor.next();
+		cursor.close();
+		
+		assertFalse(cursor.hasNext());
+	}
+	
+	@Test
+	public void testPartlyReadQuery() {
+		EntityCursor<E> cursor = em.query(EMPLOYEES, params("manager", manager), E.class);
+		E first = cursor.next();
+		cursor.close();
+		
+		try {
+			cursor.next();
+			fail();
+		} catch (NoSuchElementException e) {
+			//expected
+		}
+		
+		E other = first == a ? b : a;
+		em.delete(other.getId(), E.class);
+		
+		List<E> employees = list(em.query(EMPLOYEES, params("manager", manager), E.class));
+		assertEquals(2, employees.size());
+		assertFalse(employees.contains(other));
+	}
+	
+	@Test
+	public void testConcurrentFirstQueries() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<E>>> results = new ArrayList<Future<List<E>>>();
+			for(int i = 0; i < 4; i++) {
+				results.add(executor.submit(new Callable<List<E>>() {
+					@Override
+					public List<E> call() throws Exception {
+						start.await();
+						return list(em.query(TEAMMATES, params("employee", a), E.class));
+					}
+				}));
+			}
+			start.countDown();
+			
+			for(Future<List<E>> result : results) {
+				assertEquals(new HashSet<E>(Arrays.asList(b, c)), new HashSet<E>(result.get(10, TimeUnit.SECONDS)));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testQueryMultipleColumns() {
+		em.query("start e=node({employee}) match e-[:WORKS_FOR]->m return e, m", params("employee", a), E.class);
+	}
+	
+	@Test(expected = ClassCastException.class)
+	public void testQueryWrongType() {
+		em.query("start e=node({employee}) match e-[:WORKS_FOR]->m return m", params("employee", a), E.class).next();
+	}
+	
+	private E employee(String name) {
+		E employee = em.create(E.class);
+		employee.setName(name);
+		employee.setManager(manager);
+		
+		return employee;
+	}
+	
+	private static Map<String, Object> params(String key, Object value) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put(key, value);
+		return params;
+	}
+	
+	private static <T> List<T> list(EntityCursor<T> cursor) {
+		List<T> list = new ArrayList<T>();
+		for(T t : cursor) {
+			list.add(t);
+		}
+		
+		return list;
+	}
+	
+	@Entity(value = "E")
+	private interface E {
+		@Id Long getId();
+		
+		@Property(name = "NAME", action = Action.WRITE) void setName(String name);
+		
+		@ManyToOne(name = "WORKS_FOR", direction = Direction.OUTGOING, action = Action.WRITE) void setManager(M manager);
+	}
+	
+	@Entity(value = "M")
+	private interface M {
+		@Id Long getId();
+		
+		@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.READ) List<E> getEmployees();
+	}
+}
@@ -0,0 +1,149 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class RelatedEntityListTest {
+
+	private static final RelationshipType REL = DynamicRelationshipType.withName("REL");
+	
+	private GraphDatabaseService dbService;
+	private CountingInstantiator counter;
+	private EntityNode parent;
+	private List<EntityNode> children;
+	
+	@Before
+	public void setUp() {
+		dbService = new ImpermanentGraphDatabase();
+		counter = new CountingInstantiator();
+		
+		parent = createEntity();
+		for(int i = 0; i < 25; i++) {
+			parent.createRelationship(createEntity(), REL, Direction.OUTGOING);
+		}
+		children = parent.getRelatedEntities(REL, Direction.OUTGOING);
+	}
+	
+	@After
+	public void tearDown() {
+		dbService.shutdown();
+	}
+	
+	@Test
+	public void testNothingIsLoadedUntilRead() {
+		new RelatedEntityList(parent, REL, Direction.OUTGOING, counter, 10);
+		assertEquals(0, counter.count);
+	}
+	
+	@Test
+	public void testGetLoadsOnePage() {
+		List<Object> list = new RelatedEntityList(parent, REL, Direction.OUTGOING, counter, 10);
+		
+		assertEquals(children.get(0), EntityProxy.unwrap(list.get(0)));
+		assertEquals(children.get(9), EntityProxy.unwrap(list.get(9)));
+		assertEquals(10, counter.count);
+		
+		assertEquals(children.get(24), EntityProxy.unwrap(list.get(24)));
+		assertEquals(15, counter.count);
+		
+		assertEquals(children.get(12), EntityProxy.unwrap(list.get(12)));
+		assertEquals(25, counter.count);
+	}
+	
+	@Test
+	public void testSizeDoesNotLoad() {
+		List<Object> list = new RelatedEntityList(parent, REL, Direction.OUTGOING, counter, 10);
+		
+		assertEquals(25, list.size());
+		assertFalse(list.isEmpty());
+		assertEquals(0, counter.count);
+	}
+	
+	@Test
+	public void testEmpty() {
+		List<Object> list = new RelatedEntityList(parent, REL, Direction.INCOMING, counter, 10);
+		
+		assertTrue(list.isEmpty());
+		assertEquals(0, list.size());
+		assertFalse(list.iterator().hasNext());
+	}
+	
+	@Test
+	public void testIteratorStreams() {
+		List<Object> list = new RelatedEntityList(parent, REL, Direction.OUTGOING, counter, 10);
+		
+		Iterator<Object> iterator = list.iterator();
+		for(int i = 0; i < 3; i++) {
+			assertEquals(children.get(i), EntityProxy.unwrap(iterator.next()));
+		}
+		assertEquals(3, counter.count);
+		
+		int count = 3;
+		while(iterator.hasNext()) {
+			iterator.next();
+			count++;
+		}
+		assertEquals(25, count);
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetPastTheEnd() {
+		new RelatedEntityList(parent, REL, Direction.OUTGOING, counter, 10).get(25);
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetNegativeIndex() {
+		new RelatedEntityList(parent, REL, Direction.OUTGOING, counter, 10).get(-1);
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly() {
+		List<Object> list = new RelatedEntityList(parent, REL, Direction.OUTGOING, counter, 10);
+		list.add(list.get(0));
+	}
+	
+	private EntityNode createEntity() {
+		Transaction tx = dbService.beginTx();
+		try{
+			Node node = dbService.createNode();
+			EntityNode.setEntityClass(node, A.class);
+			tx.success();
+			return new EntityNode(node, A.class);
+		} finally {
+			tx.finish();
+		}
+	}
+	
+	private static final class CountingInstantiator implements EntityInstantiator {
+		
+		private int count;
+		
+		@Override
+		public Object newInstance(EntityNode entity, Class<?> entityInterface) {
+			return newInstance(entity, entityInterface, this);
+		}
+		
+		@Override
+		public Object newInstance(EntityNode entity, Class<?> entityInterface, EntityInstantiator related) {
+			count++;
+			return EntityProxy.INSTANTIATOR.newInstance(entity, entityInterface, related);
+		}
+	}
+	
+	private static interface A {}
+}
@@ -0,0 +1,280 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.CollectionAction;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.Indexed;
+import com.kevinchard.phonebooth.ManyToOne;
+import com.kevinchard.phonebooth.OneToMany;
+import com.kevinchard.phonebooth.Property;
+import com.kevinchard.phonebooth.Repository;
+import com.kevinchard.phonebooth.UnknownEntityException;
+import com.kevinchard.phonebooth.core.NeoEntityManagerFactory.SimpleTransactionManager;
+
+public class RepositoryTest {
+
+	private GraphDatabaseService dbService;
+	private EntityManager em;
+	private TopologyManager tm;
+	
+	private M alice;
+	private M bob;
+	private D sales;
+	private D support;
+	
+	@Before
+	public void setUp() {
+		dbService = new ImpermanentGraphDatabase();
+		tm = new SimpleTopologyManager(dbService);
+		em = new NeoEntityManager(tm, new SimpleTransactionManager(dbService));
+		
+		tm.addEntityDefinition(E.class);
+		tm.addEntityDefinition(M.class);
+		tm.addEntityDefinition(D.class);
+		
+		alice = em.create(M.class);
+		bob = em.create(M.class);
+		sales = em.create(D.class);
+		support = em.create(D.class);
+	}
+	
+	@After
+	public void tearDown() {
+		dbService.shutdown();
+	}
+	
+	@Test
+	public void testFindByIndexedProperty() {
+		E smith = employee("SMITH", 1, alice, sales);
+		E otherSmith = employee("SMITH", 2, bob, support);
+		employee("JONES", 1, alice, sales);
+		
+		assertEquals(set(smith, otherSmith), new HashSet<E>(em.getRepository(Employees.class).findByName("SMITH")));
+		assertTrue(em.getRepository(Employees.class).findByName("BROWN").isEmpty());
+	}
+	
+	@Test
+	public void testFindByRelationship() {
+		E smith = employee("SMITH", 1, alice, sales);
+		E jones = employee("JONES", 2, alice, support);
+		employee("BROWN", 1, bob, sales);
+		
+		assertEquals(set(smith, jones), new HashSet<E>(em.getRepository(Employees.class).findByManager(alice)));
+	}
+	
+	@Test
+	public void testFindByPropertyAndRelationship() {
+		E smith = employee("SMITH", 1, alice, sales);
+		employee("SMITH", 1, bob, sales);
+		employee("JONES", 1, alice, sales);
+		
+		Employees employees = em.getRepository(Employees.class);
+		assertEquals(Arrays.asList(smith), employees.findByNameAndManager("SMITH", alice));
+		assertEquals(Arrays.asList(smith), employees.findByManagerAndName(alice, "SMITH"));
+	}
+	
+	@Test
+	public void testFindByRelationships() {
+		E smith = employee("SMITH", 1, alice, sales);
+		employee("JONES", 1, alice, support);
+		employee("BROWN", 1, bob, sales);
+		employee("WHITE", 1, bob, sales);
+		
+		assertEquals(Arrays.asList(smith), em.getRepository(Employees.class).findByDepartmentAndManager(sales, alice));
+	}
+	
+	@Test
+	public void testFindByUnindexedPropertyAndRelationship() {
+		E smith = employee("SMITH", 3, alice, sales);
+		employee("JONES", 1, alice, sales);
+		employee("BROWN", 3, bob, sales);
+		
+		assertEquals(Arrays.asList(smith), em.getRepository(Employees.class).findByLevelAndManager(3, alice));
+	}
+	
+	@Test
+	public void testFindFirst() {
+		E smith = employee("SMITH", 1, alice, sales);
+		
+		Employee employee = em.getRepository(Employee.class);
+		assertSame(smith, employee.findByName("SMITH"));
+		assertNull(employee.findByName("JONES"));
+	}
+	
+	@Test
+	public void testRepositoriesOfAnInterfaceShareTheirMetamodel() {
+		em.getRepository(Employees.class);
+		assertSame(RepositoryMetamodel.of(Employees.class), RepositoryMetamodel.of(Employees.class));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFindByNull() {
+		em.getRepository(Employees.class).findByName(null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testRepositoryWithoutAnnotation() {
+		em.getRepository(Unannotated.class);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFinderWithoutIndexOrRelationship() {
+		em.getRepository(Unindexed.class);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFinderWithUnknownCriterion() {
+		em.getRepository(Unknown.class);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFinderWithWrongParameters() {
+		em.getRepository(WrongParameters.class);
+	}
+	
+	@Test
+	public void testFinderWithAmbiguousCriterion() {
+		tm.addEntityDefinition(F.class);
+		
+		try {
+			em.getRepository(Flags.class);
+			fail("Should have thrown exception");
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("'Active'"));
+		}
+	}
+	
+	@Test(expected = UnknownEntityException.class)
+	public void testRepositoryOfUnknownEntity() {
+		em.getRepository(Strangers.class);
+	}
+	
+	private E employee(String name, int level, M manager, D department) {
+		E employee = em.create(E.class);
+		employee.setName(name);
+		employee.setLevel(level);
+		employee.setManager(manager);
+		employee.setDepartment(department);
+		
+		return employee;
+	}
+	
+	private static HashSet<E> set(E... employees) {
+		return new HashSet<E>(Arrays.asList(employees));
+	}
+	
+	@Entity(value = "E")
+	private interface E {
+		@Id Long getId();
+		
+		@Property(name = "NAME", action = Action.READ) String getName();
+		
+		@Indexed @Property(name = "NAME", action = Action.WRITE) void setName(String name);
+		
+		@Property(name = "LEVEL", action = Action.WRITE) void setLevel(int level);
+		
+		@ManyToOne(name = "WORKS_FOR", direction = Direction.OUTGOING, action = Action.WRITE) void setManager(M manager);
+		
+		@ManyToOne(name = "MEMBER_OF", direction = Direction.OUTGOING, action = Action.WRITE) void setDepartment(D department);
+	}
+	
+	@Entity(value = "M")
+	private interface M {
+		@Id Long getId();
+		
+		@OneToMany(name = "WORKS_FOR", direction = Direction.INCOMING, action = CollectionAction.READ) List<E> getEmployees();
+	}
+	
+	@Entity(value = "D")
+	private interface D {
+		@Id Long getId();
+		
+		@OneToMany(name = "MEMBER_OF", direction = Direction.INCOMING, action = CollectionAction.READ) List<E> getMembers();
+	}
+	
+	@Entity(value = "S")
+	private interface S {
+		@Id Long getId();
+		
+		@Indexed @Property(name = "NAME", action = Action.WRITE) void setName(String name);
+	}
+	
+	@Entity(value = "F")
+	private interface F {
+		@Id Long getId();
+		
+		@Property(name = "ACTIVE", action = Action.READ) String getActive();
+		
+		@Indexed @Property(name = "ACTIVE", action = Action.WRITE) void setActive(String active);
+		
+		@Property(name = "ACTIVE_FLAG", action = Action.READ) boolean isActive();
+	}
+	
+	@Repository(E.class)
+	private interface Employees {
+		List<E> findByName(String name);
+		
+		List<E> findByManager(M manager);
+		
+		List<E> findByNameAndManager(String name, M manager);
+		
+		List<E> findByManagerAndName(M manager, String name);
+		
+		List<E> findByDepartmentAndManager(D department, M manager);
+		
+		List<E> findByLevelAndManager(int level, M manager);
+	}
+	
+	@Repository(E.class)
+	private interface Employee {
+		E findByName(String name);
+	}
+	
+	private interface Unannotated {
+		List<E> findByName(String name);
+	}
+	
+	@Repository(E.class)
+	private interface Unindexed {
+		List<E> findByLevel(int level);
+	}
+	
+	@Repository(E.class)
+	private interface Unknown {
+		List<E> findBySalary(double salary);
+	}
+	
+	@Repository(E.class)
+	private interface WrongParameters {
+		List<E> findByNameAndManager(String name);
+	}
+	
+	@Repository(F.class)
+	private interface Flags {
+		List<F> findByActive(String active);
+	}
+	
+	@Repository(S.class)
+	private interface Strangers {
+		List<S> findByName(String name);
+	}
+}
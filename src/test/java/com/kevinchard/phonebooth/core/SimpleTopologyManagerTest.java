@@ -5,12 +5,18 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.test.ImpermanentGraphDatabase;
 
 import com.kevinchard.phonebooth.Entity;
@@ -99,6 +105,156 @@ public class SimpleTopologyManagerTest {
 		assertEquals(A.class, EntityNode.getEntityClass(entityNode.getNode()));
 	}
 	
+	@Test
+	public void testTypeTags() {
+		tm.addEntityDefinitions(A.class, B.class);
+		
+		assertEquals(1, tm.getTypeTag(A.class));
+		assertEquals(2, tm.getTypeTag(B.class));
+	}
+	
+	@Test
+	public void testCreateNodeWithRegisteredType() {
+		EntityTypeRegistry registry = new EntityTypeRegistry();
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, registry));
+		tm.addEntityDefinition(A.class);
+		registry.register(A.class, tm.getTypeTag(A.class));
+		
+		EntityNode entityNode = tm.createNode(A.class);
+		assertEquals(tm.getTypeTag(A.class), entityNode.getNode().getProperty(EntityNode.CLASS_PROPERTY_KEY));
+		assertEquals(A.class, EntityNode.getEntityClass(entityNode.getNode(), registry));
+	}
+	
+	@Test
+	public void testMigrateTypeTags() {
+		tm.addEntityDefinition(A.class);
+		for(int i = 0; i < 5; i++) {
+			tm.createNode(A.class);
+		}
+		
+		EntityTypeRegistry registry = new EntityTypeRegistry();
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, registry));
+		registry.register(A.class, tm.getTypeTag(A.class));
+		
+		assertEquals(5, tm.migrateTypeTags(A.class, 2));
+		assertEquals(0, tm.migrateTypeTags(A.class, 2));
+		
+		for(EntityNode entityNode : tm.getAll(A.class)) {
+			assertEquals(tm.getTypeTag(A.class), entityNode.getNode().getProperty(EntityNode.CLASS_PROPERTY_KEY));
+			assertEquals(A.class, EntityNode.getEntityClass(entityNode.getNode(), registry));
+		}
+	}
+	
+	@Test
+	public void testTypeBuckets() {
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, 2, 4, new EntityTypeRegistry()));
+		tm.addEntityDefinition(A.class);
+		
+		tm.createNode(A.class);
+		tm.createNodes(A.class, 7);
+		
+		assertEquals(8, tm.getAll(A.class).size());
+		assertEquals(0, countEntities(getEntityDefinitionNode()));
+		for(Node bucket : getBuckets()) {
+			assertEquals(2, countEntities(bucket));
+		}
+		assertEquals(4, getBuckets().size());
+	}
+	
+	@Test
+	public void testGetPageAcrossBucketMigration() {
+		tm.addEntityDefinition(A.class);
+		List<EntityNode> created = tm.createNodes(A.class, 4);
+		assertEquals(created, tm.getPage(A.class, null, 10));
+		
+		created.addAll(tm.createNodes(A.class, 3));
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, 2, 3, new EntityTypeRegistry()));
+		assertEquals(7, tm.migrateTypeBuckets(A.class, 4));
+		
+		Transaction tx = dbService.beginTx();
+		try {
+			created.remove(1).delete();
+			tx.success();
+		} finally {
+			tx.finish();
+		}
+		
+		assertEquals(created.subList(0, 2), tm.getPage(A.class, null, 2));
+		assertEquals(created.subList(2, 6), tm.getPage(A.class, created.get(1).getId(), 10));
+		for(Node bucket : getBuckets()) {
+			assertFalse(bucket.hasRelationship(DynamicRelationshipType.withName("A_UNINDEXED"), Direction.OUTGOING));
+		}
+	}
+	
+	@Test
+	public void testMigrateTypeBuckets() {
+		tm.addEntityDefinition(A.class);
+		tm.createNodes(A.class, 6);
+		
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, 2, 3, new EntityTypeRegistry()));
+		assertEquals(6, tm.migrateTypeBuckets(A.class, 4));
+		assertEquals(0, countEntities(getEntityDefinitionNode()));
+		assertEquals(3, getBuckets().size());
+		
+		tm.createNode(A.class);
+		assertEquals(7, tm.getAll(A.class).size());
+		
+		tm = new SimpleTopologyManager(dbService, new TopologyContext(TopologyContext.DEFAULT_DEGREE_THRESHOLD, 2, 2, new EntityTypeRegistry()));
+		assertTrue(tm.migrateTypeBuckets(A.class, 4) > 0);
+		assertEquals(2, getBuckets().size());
+		assertEquals(7, tm.getAll(A.class).size());
+		
+		tm = new SimpleTopologyManager(dbService);
+		assertEquals(7, tm.migrateTypeBuckets(A.class, 4));
+		assertEquals(0, getBuckets().size());
+		assertEquals(7, countEntities(getEntityDefinitionNode()));
+		assertFalse(getEntityDefinitionNode().hasProperty(SimpleTopologyManager.ENTITY_BUCKETS));
+	}
+	
+	@Test
+	public void testCachedEntityDefinitionIsNotLookedUpAgain() {
+		tm.addEntityDefinition(A.class);
+		tm.cacheEntityDefinition(A.class);
+		
+		//unlink the definition from the reference node, which is where uncached lookups find it
+		Transaction tx = dbService.beginTx();
+		try {
+			dbService.getReferenceNode().getSingleRelationship(DynamicRelationshipType.withName("A_REF"), Direction.OUTGOING).delete();
+			tx.success();
+		} finally {
+			tx.finish();
+		}
+		
+		assertTrue(tm.entityDefinitionExists(A.class));
+		tm.createNode(A.class);
+		assertEquals(1, tm.getAll(A.class).size());
+	}
+	
+	@Test(expected = UnknownEntityException.class)
+	public void testCacheUnknownEntityDefinition() {
+		tm.cacheEntityDefinition(A.class);
+	}
+	
+	private Node getEntityDefinitionNode() {
+		return dbService.getReferenceNode().getSingleRelationship(DynamicRelationshipType.withName("A_REF"), Direction.OUTGOING).getEndNode();
+	}
+	
+	private List<Node> getBuckets() {
+		List<Node> buckets = new ArrayList<Node>();
+		for(Relationship relationship : getEntityDefinitionNode().getRelationships(SimpleTopologyManager.ENTITY_BUCKET, Direction.OUTGOING)) {
+			buckets.add(relationship.getEndNode());
+		}
+		return buckets;
+	}
+	
+	private int countEntities(Node bucket) {
+		int count = 0;
+		for(@SuppressWarnings("unused") Relationship relationship : bucket.getRelationships(DynamicRelationshipType.withName("A"), Direction.OUTGOING)) {
+			count++;
+		}
+		return count;
+	}
+	
 	@Entity(value = "A")
 	private class A {}
 	
@@ -0,0 +1,151 @@
+package com.kevinchard.phonebooth.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.Entity;
+import com.kevinchard.phonebooth.EntityManager;
+import com.kevinchard.phonebooth.Id;
+import com.kevinchard.phonebooth.Property;
+import com.kevinchard.phonebooth.core.NeoEntityManagerFactory.SimpleTransactionManager;
+
+public class UnitOfWorkTest {
+
+	private GraphDatabaseService dbService;
+	private TopologyManager tm;
+	private UnitOfWork unitOfWork;
+	private EntityManager em;
+	
+	@Before
+	public void setUp() {
+		dbService = new ImpermanentGraphDatabase();
+		tm = new SimpleTopologyManager(dbService);
+		tm.addEntityDefinition(A.class);
+		
+		SimpleTransactionManager txManager = new SimpleTransactionManager(dbService);
+		unitOfWork = new UnitOfWork(txManager, 3);
+		em = new NeoEntityManager(tm, txManager, EntityProxy.INSTANTIATOR, unitOfWork);
+	}
+	
+	@After
+	public void tearDown() {
+		dbService.shutdown();
+	}
+	
+	@Test
+	public void testWritesAreVisibleToOtherThreadsAfterFlush() throws Exception {
+		A a = em.create(A.class);
+		a.setProp("VALUE");
+		
+		assertEquals("VALUE", a.getProp());
+		assertEquals(2, unitOfWork.getPendingWrites());
+		assertEquals(0, countFromAnotherThread());
+		
+		em.flush();
+		
+		assertEquals(0, unitOfWork.getPendingWrites());
+		assertEquals(1, countFromAnotherThread());
+		assertEquals("VALUE", a.getProp());
+	}
+	
+	@Test
+	public void testFlushThreshold() throws Exception {
+		A a = em.create(A.class);
+		a.setProp("ONE");
+		a.setProp("TWO");
+		
+		assertEquals(0, unitOfWork.getPendingWrites());
+		assertEquals(1, countFromAnotherThread());
+		
+		a.setProp("THREE");
+		assertEquals(1, unitOfWork.getPendingWrites());
+		em.flush();
+	}
+	
+	@Test
+	public void testFlushWithoutWrites() {
+		em.flush();
+		assertEquals(0, unitOfWork.getPendingWrites());
+	}
+	
+	@Test
+	public void testWriteFromAnotherThread() throws Exception {
+		final A a = em.create(A.class);
+		
+		final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					a.setProp("VALUE");
+				} catch (Throwable t) {
+					thrown.set(t);
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		
+		assertTrue(thrown.get() instanceof IllegalStateException);
+		em.flush();
+		assertNull(a.getProp());
+	}
+	
+	@Test
+	public void testFailedWriteRollsBackTheUnitOfWork() throws Exception {
+		A a = em.create(A.class);
+		
+		try {
+			EntityNode entity = EntityProxy.unwrap(a);
+			Transaction tx = entity.beginTx();
+			try {
+				entity.getNode().setProperty("PROP", "VALUE");
+				throw new IllegalStateException();
+			} finally {
+				tx.finish();
+			}
+		} catch(IllegalStateException e) {}
+		
+		try {
+			em.flush();
+			fail("Should have thrown exception");
+		} catch(TransactionFailureException e) {}
+		
+		assertEquals(0, countFromAnotherThread());
+		assertEquals(0, em.findAll(A.class).size());
+	}
+	
+	private int countFromAnotherThread() throws InterruptedException {
+		final AtomicReference<Integer> count = new AtomicReference<Integer>();
+		Thread thread = new Thread() {
+			public void run() {
+				count.set(tm.getAll(A.class).size());
+			}
+		};
+		thread.start();
+		thread.join();
+		
+		return count.get();
+	}
+	
+	@Entity(value = "A")
+	private interface A {
+		@Id Long getId();
+		
+		@Property(name="PROP", action = Action.READ) String getProp();
+		
+		@Property(name="PROP", action = Action.WRITE) void setProp(String prop);
+	}
+}
@@ -0,0 +1,259 @@
+package com.kevinchard.phonebooth.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+
+import com.kevinchard.phonebooth.Action;
+import com.kevinchard.phonebooth.metamodel.MethodDescriptor;
+import com.kevinchard.phonebooth.metamodel.MethodDescriptor.Kind;
+import com.kevinchard.phonebooth.metamodel.StaticMetamodel;
+
+public class EntityProcessorTest {
+
+	private static final String IMPORTS = 
+		"import java.util.List;" +
+		"import org.neo4j.graphdb.Direction;" +
+		"import com.kevinchard.phonebooth.*;";
+	
+	private static final String EMPLOYEE = 
+		"package test; " + IMPORTS +
+		"@Entity(value = \"EMPLOYEE\") public interface Employee {" +
+		"  @Id Long getId();" +
+		"  @Property(name = \"NAME\", action = Action.READ) String getName();" +
+		"  @Property(name = \"NAME\", action = Action.WRITE) void setName(String name);" +
+		"  @ManyToOne(name = \"WORKS_FOR\", direction = Direction.OUTGOING, action = Action.READ) Manager getManager();" +
+		"  @ManyToOne(name = \"WORKS_FOR\", direction = Direction.OUTGOING, action = Action.WRITE) void setManager(Manager manager);" +
+		"  String notMapped();" +
+		"}";
+	
+	private static final String MANAGER = 
+		"package test; " + IMPORTS +
+		"@Entity(value = \"MANAGER\") public interface Manager {" +
+		"  @OneToMany(name = \"WORKS_FOR\", direction = Direction.INCOMING, action = CollectionAction.READ) List<Employee> getEmployees();" +
+		"  @OneToMany(name = \"WORKS_FOR\", direction = Direction.INCOMING, action = CollectionAction.ADD) void addEmployee(Employee employee);" +
+		"}";
+	
+	private File output;
+	private DiagnosticCollector<JavaFileObject> diagnostics;
+	
+	@Before
+	public void setUp() throws Exception {
+		output = File.createTempFile("phonebooth", "processor");
+		output.delete();
+		output.mkdir();
+		diagnostics = new DiagnosticCollector<JavaFileObject>();
+	}
+	
+	@After
+	public void tearDown() {
+		delete(output);
+	}
+	
+	@Test
+	public void testMetamodelIsGenerated() throws Exception {
+		assertTrue(compile(source("test.Employee", EMPLOYEE), source("test.Manager", MANAGER)));
+		assertTrue(new File(output, "test/Employee_.class").exists());
+		assertTrue(new File(output, "test/Manager_.class").exists());
+		
+		URLClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() }, getClass().getClassLoader());
+		StaticMetamodel metamodel = (StaticMetamodel) loader.loadClass("test.Employee_").newInstance();
+		assertSame(loader.loadClass("test.Employee"), metamodel.getEntityClass());
+		
+		List<MethodDescriptor> methods = metamodel.getMethods();
+		assertEquals(5, methods.size());
+		
+		MethodDescriptor setManager = find(methods, "setManager");
+		assertEquals(Kind.MANY_TO_ONE, setManager.getKind());
+		assertEquals("WORKS_FOR", setManager.getName());
+		assertEquals(Direction.OUTGOING, setManager.getDirection());
+		assertEquals(Action.WRITE, setManager.getAction());
+		assertSame(loader.loadClass("test.Manager"), setManager.getParameterTypes()[0]);
+		
+		assertEquals(Kind.ID, find(methods, "getId").getKind());
+		assertEquals(0, find(methods, "getName").getParameterTypes().length);
+		assertEquals(String.class, find(methods, "setName").getParameterTypes()[0]);
+	}
+	
+	@Test
+	public void testMissingOpposite() {
+		String manager = 
+			"package test; " + IMPORTS +
+			"@Entity(value = \"MANAGER\") public interface Manager {" +
+			"  @OneToMany(name = \"MANAGES\", direction = Direction.INCOMING, action = CollectionAction.READ) List<Employee> getEmployees();" +
+			"}";
+		
+		assertFalse(compile(source("test.Employee", EMPLOYEE), source("test.Manager", manager)));
+		assertError("no @OneToMany named 'WORKS_FOR' on test.Manager");
+		assertFalse(new File(output, "test/Employee_.class").exists());
+	}
+	
+	@Test
+	public void testMismatchedDirection() {
+		String manager = 
+			"package test; " + IMPORTS +
+			"@Entity(value = \"MANAGER\") public interface Manager {" +
+			"  @OneToMany(name = \"WORKS_FOR\", direction = Direction.OUTGOING, action = CollectionAction.READ) List<Employee> getEmployees();" +
+			"}";
+		
+		assertFalse(compile(source("test.Employee", EMPLOYEE), source("test.Manager", manager)));
+		assertError("has direction OUTGOING but test.Manager.getEmployees() has direction OUTGOING");
+	}
+	
+	@Test
+	public void testIllegalArity() {
+		String entity = 
+			"package test; " + IMPORTS +
+			"@Entity(value = \"BROKEN\") public interface Broken {" +
+			"  @Property(name = \"NAME\", action = Action.READ) String getName(String name);" +
+			"  @Property(name = \"NAME\", action = Action.WRITE) String setName(String name);" +
+			"  @Property(name = \"NAME\", action = Action.WRITE) void setNames(String first, String last);" +
+			"  @ManyToMany(name = \"FRIENDS\", direction = Direction.BOTH, action = CollectionAction.READ, pageSize = 0) List<Broken> getFriends();" +
+			"  @ManyToMany(name = \"FRIENDS\", direction = Direction.BOTH, action = CollectionAction.COUNT) String countFriends();" +
+			"}";
+		
+		assertFalse(compile(source("test.Broken", entity)));
+		assertError("test.Broken.getName(): accessors must not take any arguments");
+		assertError("test.Broken.setName(): property mutators must return void");
+		assertError("test.Broken.setNames(): mutators must take exactly one argument");
+		assertError("test.Broken.getFriends(): pageSize must be positive");
+		assertError("test.Broken.countFriends(): count methods must return an int or a long");
+	}
+	
+	@Test
+	public void testAddAll() {
+		String manager = 
+			"package test; " + IMPORTS +
+			"@Entity(value = \"MANAGER\") public interface Manager {" +
+			"  @OneToMany(name = \"WORKS_FOR\", direction = Direction.INCOMING, action = CollectionAction.ADD_ALL) void addEmployees(List<? extends Employee> employees);" +
+			"  @OneToMany(name = \"WORKS_FOR\", direction = Direction.INCOMING, action = CollectionAction.ADD_ALL) void addEmployee(Employee employee);" +
+			"}";
+		
+		assertFalse(compile(source("test.Employee", EMPLOYEE), source("test.Manager", manager)));
+		assertError("test.Manager.addEmployee(): ADD_ALL methods must take a collection of an entity interface");
+		assertEquals(1, diagnostics.getDiagnostics().size());
+	}
+	
+	@Test
+	public void testIndexed() throws Exception {
+		String entity = 
+			"package test; " + IMPORTS +
+			"@Entity(value = \"PERSON\") public interface Person {" +
+			"  @Property(name = \"NAME\", action = Action.READ) String getName();" +
+			"  @Indexed @Property(name = \"NAME\", action = Action.WRITE) void setName(String name);" +
+			"  @Indexed(unique = true) @Property(name = \"NUMBER\", action = Action.WRITE) void setNumber(String number);" +
+			"  @Indexed(numeric = true) @Property(name = \"AGE\", action = Action.WRITE) void setAge(Integer age);" +
+			"  @Indexed(fulltext = true) @Property(name = \"BIO\", action = Action.WRITE) void setBio(String bio);" +
+			"}";
+		
+		assertTrue(compile(source("test.Person", entity)));
+		
+		URLClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() }, getClass().getClassLoader());
+		List<MethodDescriptor> methods = ((StaticMetamodel) loader.loadClass("test.Person_").newInstance()).getMethods();
+		assertTrue(find(methods, "setName").isIndexed());
+		assertFalse(find(methods, "setName").isUnique());
+		assertFalse(find(methods, "getName").isIndexed());
+		assertTrue(find(methods, "setNumber").isUnique());
+		assertFalse(find(methods, "setNumber").isNumeric());
+		assertTrue(find(methods, "setAge").isNumeric());
+		assertFalse(find(methods, "setAge").isFulltext());
+		assertTrue(find(methods, "setBio").isFulltext());
+	}
+	
+	@Test
+	public void testIllegalIndexed() {
+		String entity = 
+			"package test; " + IMPORTS +
+			"@Entity(value = \"BROKEN\") public interface Broken {" +
+			"  @Indexed @Property(name = \"NAME\", action = Action.READ) String getName();" +
+			"  @Indexed @ManyToOne(name = \"OWNER\", direction = Direction.OUTGOING, action = Action.READ) Broken getOwner();" +
+			"  @Indexed(numeric = true) @Property(name = \"AGE\", action = Action.WRITE) void setAge(String age);" +
+			"  @Indexed(fulltext = true) @Property(name = \"BIO\", action = Action.WRITE) void setBio(Integer bio);" +
+			"  @Indexed(fulltext = true, unique = true) @Property(name = \"CODE\", action = Action.WRITE) void setCode(String code);" +
+			"}";
+		
+		assertFalse(compile(source("test.Broken", entity)));
+		assertError("test.Broken.getName(): only property mutators can be indexed");
+		assertError("test.Broken.getOwner(): only property mutators can be indexed");
+		assertError("test.Broken.setAge(): numeric properties must take a number");
+		assertError("test.Broken.setBio(): full text properties must take a String");
+		assertError("test.Broken.setCode(): full text properties cannot be unique or numeric");
+	}
+	
+	private boolean compile(JavaFileObject... sources) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		List<String> options = Arrays.asList("-d", output.getPath(), "-classpath", System.getProperty("java.class.path"));
+		
+		JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, Arrays.asList(sources));
+		task.setProcessors(Arrays.asList(new EntityProcessor()));
+		return task.call();
+	}
+	
+	private void assertError(String message) {
+		List<String> errors = new ArrayList<String>();
+		for(Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if(diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				errors.add(diagnostic.getMessage(null));
+			}
+		}
+		
+		for(String error : errors) {
+			if(error.contains(message)) {
+				return;
+			}
+		}
+		
+		throw new AssertionError("Expected an error containing '" + message + "' but got " + errors);
+	}
+	
+	private static MethodDescriptor find(List<MethodDescriptor> methods, String methodName) {
+		for(MethodDescriptor method : methods) {
+			if(method.getMethodName().equals(methodName)) {
+				return method;
+			}
+		}
+		
+		throw new AssertionError("No descriptor for " + methodName);
+	}
+	
+	private static JavaFileObject source(String className, final String code) {
+		return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return code;
+			}
+		};
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		
+		file.delete();
+	}
+}